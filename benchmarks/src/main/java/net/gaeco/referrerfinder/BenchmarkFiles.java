@@ -0,0 +1,33 @@
+package net.gaeco.referrerfinder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * File helpers shared by the benchmarks
+ */
+final class BenchmarkFiles {
+
+    private BenchmarkFiles() {
+    }
+
+    /**
+     * Removes the method indexes an analyzer persisted in a repository's directory
+     */
+    static void deleteIndexCache(File repositoryDirectory) throws IOException {
+        deleteRecursively(new File(repositoryDirectory, "referrer-finder"));
+    }
+
+    static void deleteRecursively(File directory) throws IOException {
+        if (directory == null || !directory.exists()) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(directory.toPath())) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package net.gaeco.referrerfinder;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of parsing and comparing a single file, for generated classes of varying size.
+ * The two revisions of the class differ in every tenth method. They are measured in isolation, parsing
+ * an in-memory source and comparing pre-parsed indexes, and through a whole analysis of a repository
+ * holding them, cold where both revisions are parsed or with cached indexes where only they are compared.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ParseBenchmark {
+
+    @Param({"10", "200", "2000"})
+    public int methods;
+
+    private File repositoryDirectory;
+    private GitFunctionAnalyzer analyzer;
+    private ObjectId oldCommit;
+    private ObjectId newCommit;
+    private String newSource;
+    private MethodIndex oldIndex;
+    private MethodIndex newIndex;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        repositoryDirectory = Files.createTempDirectory("parse-benchmark").toFile();
+
+        SyntheticRepositoryGenerator generator = new SyntheticRepositoryGenerator();
+        generator.setPackages(1);
+        generator.setClassesPerPackage(1);
+        generator.setMethodsPerClass(methods);
+        generator.setCommits(1);
+        generator.setChurn(1, 0.1);
+        List<ObjectId> commits = generator.generate(repositoryDirectory);
+        oldCommit = commits.get(0);
+        newCommit = commits.get(1);
+
+        analyzer = new GitFunctionAnalyzer(repositoryDirectory.getPath());
+
+        int[] oldRevisions = new int[generator.getMethodSlotCount()];
+        int[] newRevisions = new int[generator.getMethodSlotCount()];
+        // Every tenth method differs between the two sources
+        for (int m = 0; m < newRevisions.length; m += 10) {
+            newRevisions[m] = 1;
+        }
+        String oldSource = generator.generateClass("com.example.myapp.bench", "Generated", "Callee", oldRevisions);
+        newSource = generator.generateClass("com.example.myapp.bench", "Generated", "Callee", newRevisions);
+        oldIndex = analyzer.parseFunctions(oldSource);
+        newIndex = analyzer.parseFunctions(newSource);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        analyzer.close();
+        BenchmarkFiles.deleteRecursively(repositoryDirectory);
+    }
+
+    /**
+     * Parses one revision of the class from memory
+     */
+    @Benchmark
+    public MethodIndex parseFunctions() {
+        return analyzer.parseFunctions(newSource);
+    }
+
+    /**
+     * Compares every method present in both pre-parsed revisions
+     */
+    @Benchmark
+    public void hasFunctionChanged(Blackhole blackhole) {
+        for (String function : oldIndex.keys()) {
+            if (newIndex.contains(function)) {
+                blackhole.consume(analyzer.hasFunctionChanged(function, oldIndex, newIndex));
+            }
+        }
+    }
+
+    /**
+     * Parses both revisions of the class in a fresh analyzer with the persisted indexes removed
+     */
+    @Benchmark
+    public GitFunctionAnalyzer.FunctionChangeResult parseAndCompare(ColdCache coldCache) throws Exception {
+        GitFunctionAnalyzer coldAnalyzer = new GitFunctionAnalyzer(repositoryDirectory.getPath());
+        try {
+            return coldAnalyzer.analyzeFunctionChanges(oldCommit.name(), newCommit.name());
+        } finally {
+            coldAnalyzer.close();
+        }
+    }
+
+    /**
+     * Compares the cached indexes of both revisions
+     */
+    @Benchmark
+    public GitFunctionAnalyzer.FunctionChangeResult compareCached() {
+        return analyzer.analyzeFunctionChanges(oldCommit.name(), newCommit.name());
+    }
+
+    /**
+     * Removes the persisted method indexes before each invocation of the benchmarks that use it
+     */
+    @State(Scope.Benchmark)
+    public static class ColdCache {
+        @Setup(Level.Invocation)
+        public void clearIndexCache(ParseBenchmark benchmark) throws Exception {
+            BenchmarkFiles.deleteIndexCache(benchmark.repositoryDirectory);
+        }
+    }
+}
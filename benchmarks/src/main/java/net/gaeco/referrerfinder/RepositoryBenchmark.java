@@ -0,0 +1,140 @@
+package net.gaeco.referrerfinder;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks of the Git-facing paths and of a whole analysis, over a synthetic repository
+ * built at setup by {@link SyntheticRepositoryGenerator}: one commit adding the given number
+ * of classes, and a second one changing a share of them.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RepositoryBenchmark {
+
+    private static final int PACKAGES = 10;
+
+    @Param({"100", "1000"})
+    public int files;
+
+    @Param({"20"})
+    public int methodsPerFile;
+
+    /** Share of the files changed by the second commit */
+    @Param({"0.2"})
+    public double classChurn;
+
+    /** Share of the methods changed in each changed file */
+    @Param({"0.3"})
+    public double methodChurn;
+
+    private File repositoryDirectory;
+    private GitFunctionAnalyzer analyzer;
+    private ObjectId oldCommit;
+    private ObjectId newCommit;
+    private List<ChangedFile> changedFiles;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        repositoryDirectory = Files.createTempDirectory("repository-benchmark").toFile();
+
+        SyntheticRepositoryGenerator generator = new SyntheticRepositoryGenerator();
+        generator.setPackages(PACKAGES);
+        generator.setClassesPerPackage(Math.max(1, files / PACKAGES));
+        generator.setMethodsPerClass(methodsPerFile);
+        generator.setCommits(1);
+        generator.setChurn(classChurn, methodChurn);
+        List<ObjectId> commits = generator.generate(repositoryDirectory);
+        oldCommit = commits.get(0);
+        newCommit = commits.get(1);
+
+        analyzer = new GitFunctionAnalyzer(repositoryDirectory.getPath());
+        try (ObjectReader reader = analyzer.getRepository().newObjectReader()) {
+            changedFiles = analyzer.getChangedJavaFiles(reader, oldCommit, newCommit);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        analyzer.close();
+        BenchmarkFiles.deleteRecursively(repositoryDirectory);
+    }
+
+    /**
+     * Scans the tree diff for the changed files in scope
+     */
+    @Benchmark
+    public List<ChangedFile> getChangedJavaFiles() throws Exception {
+        try (ObjectReader reader = analyzer.getRepository().newObjectReader()) {
+            return analyzer.getChangedJavaFiles(reader, oldCommit, newCommit);
+        }
+    }
+
+    /**
+     * Reads the new revision of every changed file
+     */
+    @Benchmark
+    public void getFileContent(Blackhole blackhole) throws Exception {
+        try (ObjectReader reader = analyzer.getRepository().newObjectReader()) {
+            for (ChangedFile changedFile : changedFiles) {
+                blackhole.consume(analyzer.getFileContent(changedFile.getPath(), reader.open(changedFile.getNewBlobId())));
+            }
+        }
+    }
+
+    /**
+     * Whole analysis in a fresh analyzer with the persisted indexes removed, so every blob is read and parsed
+     */
+    @Benchmark
+    public GitFunctionAnalyzer.FunctionChangeResult analyzeFunctionChangesCold(ColdCache coldCache) throws Exception {
+        GitFunctionAnalyzer coldAnalyzer = new GitFunctionAnalyzer(repositoryDirectory.getPath());
+        try {
+            return coldAnalyzer.analyzeFunctionChanges(oldCommit.name(), newCommit.name());
+        } finally {
+            coldAnalyzer.close();
+        }
+    }
+
+    /**
+     * Whole analysis with every method index already cached, as on repeated CI runs,
+     * which leaves mostly the tree diff and the comparison of the indexes
+     */
+    @Benchmark
+    public GitFunctionAnalyzer.FunctionChangeResult analyzeFunctionChangesWarm() {
+        return analyzer.analyzeFunctionChanges(oldCommit.name(), newCommit.name());
+    }
+
+    /**
+     * Removes the persisted method indexes before each invocation of the benchmarks that use it
+     */
+    @State(Scope.Benchmark)
+    public static class ColdCache {
+        @Setup(Level.Invocation)
+        public void clearIndexCache(RepositoryBenchmark benchmark) throws Exception {
+            BenchmarkFiles.deleteIndexCache(benchmark.repositoryDirectory);
+        }
+    }
+}
@@ -1,15 +1,21 @@
 package com.example.myapp.controller;
 
+import com.example.myapp.service.AnalysisJob;
+import com.example.myapp.service.AnalysisJobService;
 import com.example.myapp.service.CallerService;
+import net.gaeco.referrerfinder.GitFunctionAnalyzer;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.http.ResponseEntity;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.Map;
 import java.util.HashMap;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * Controller for Caller utility
@@ -20,9 +26,13 @@ import java.util.HashMap;
 public class CallerController {
 
     private static final Logger logger = LoggerFactory.getLogger(CallerController.class);
+    private static final String NDJSON_MEDIA_TYPE = "application/x-ndjson";
     
     @Autowired
     private CallerService callerService;
+    
+    @Autowired
+    private AnalysisJobService analysisJobService;
 
     /**
      * Health check endpoint
@@ -34,6 +44,16 @@ public class CallerController {
         return ResponseEntity.ok(response);
     }
 
+    /**
+     * Aggregated per-phase timings and counters of all analyses
+     */
+    @GetMapping("/metrics")
+    public ResponseEntity<Map<String, Object>> metrics() {
+        logger.info("Metrics requested");
+        Map<String, Object> response = callerService.getMetrics();
+        return ResponseEntity.ok(response);
+    }
+
     /**
      * Analyze function changes between two git commits
      */
@@ -72,6 +92,179 @@ public class CallerController {
         }
     }
 
+    /**
+     * Stream function changes between two git commits as newline-delimited JSON
+     * One line is written per added, deleted or changed function as soon as its file is analyzed;
+     * the stream ends with a SUMMARY line, or an ERROR line if the analysis fails.
+     */
+    @PostMapping("/analyze/stream")
+    public ResponseEntity<?> streamChanges(@RequestBody Map<String, String> request) {
+        String oldCommit = request.get("oldCommit");
+        String newCommit = request.get("newCommit");
+        logger.info("Streaming changes between commits: {} and {}", oldCommit, newCommit);
+        
+        if (oldCommit == null || newCommit == null) {
+            Map<String, Object> errorResponse = new HashMap<>();
+            errorResponse.put("status", "error");
+            errorResponse.put("message", "Both oldCommit and newCommit are required");
+            return ResponseEntity.badRequest().contentType(MediaType.APPLICATION_JSON).body(errorResponse);
+        }
+        
+        StreamingResponseBody body = out -> callerService.streamFunctionChanges(oldCommit, newCommit, out);
+        return ResponseEntity.ok().contentType(MediaType.parseMediaType(NDJSON_MEDIA_TYPE)).body(body);
+    }
+
+    /**
+     * List, for each function changed between two git commits, the commits that touched it
+     */
+    @PostMapping("/analyze/range")
+    public ResponseEntity<Map<String, Object>> analyzeRange(@RequestBody Map<String, String> request) {
+        String oldCommit = request.get("oldCommit");
+        String newCommit = request.get("newCommit");
+        logger.info("Analyzing commit range: {}..{}", oldCommit, newCommit);
+        
+        if (oldCommit == null || newCommit == null) {
+            Map<String, Object> errorResponse = new HashMap<>();
+            errorResponse.put("status", "error");
+            errorResponse.put("message", "Both oldCommit and newCommit are required");
+            return ResponseEntity.badRequest().body(errorResponse);
+        }
+        
+        Map<String, Object> response = callerService.analyzeCommitRange(oldCommit, newCommit);
+        if ("error".equals(response.get("status"))) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(response);
+        }
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * Submit an asynchronous analysis job
+     * Returns immediately with a job id; poll the job status or pass a callbackUrl to be notified.
+     */
+    @PostMapping("/jobs")
+    public ResponseEntity<Map<String, Object>> submitJob(@RequestBody Map<String, String> request) {
+        String oldCommit = request.get("oldCommit");
+        String newCommit = request.get("newCommit");
+        logger.info("Analysis job requested for commits: {} and {}", oldCommit, newCommit);
+        
+        if (oldCommit == null || newCommit == null) {
+            Map<String, Object> errorResponse = new HashMap<>();
+            errorResponse.put("status", "error");
+            errorResponse.put("message", "Both oldCommit and newCommit are required");
+            return ResponseEntity.badRequest().body(errorResponse);
+        }
+        
+        try {
+            AnalysisJob job = analysisJobService.submit(oldCommit, newCommit, request.get("callbackUrl"));
+            
+            Map<String, Object> response = job.toStatusMap();
+            response.put("status", "accepted");
+            response.put("statusUrl", "/api/caller/jobs/" + job.getJobId());
+            response.put("resultUrl", "/api/caller/jobs/" + job.getJobId() + "/result");
+            return ResponseEntity.accepted().body(response);
+            
+        } catch (IllegalArgumentException e) {
+            Map<String, Object> errorResponse = new HashMap<>();
+            errorResponse.put("status", "error");
+            errorResponse.put("message", e.getMessage());
+            return ResponseEntity.badRequest().body(errorResponse);
+        } catch (RejectedExecutionException e) {
+            Map<String, Object> errorResponse = new HashMap<>(analysisJobService.getQueueInfo());
+            errorResponse.put("status", "error");
+            errorResponse.put("message", "Analysis queue is full, retry later");
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).body(errorResponse);
+        }
+    }
+
+    /**
+     * Get the status of an analysis job, with the changes found so far while it runs
+     */
+    @GetMapping("/jobs/{jobId}")
+    public ResponseEntity<Map<String, Object>> getJobStatus(@PathVariable("jobId") String jobId) {
+        AnalysisJob job = analysisJobService.getJob(jobId);
+        if (job == null) {
+            return jobNotFound(jobId);
+        }
+        
+        Map<String, Object> response = job.toStatusMap();
+        response.put("status", "success");
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * Get the final result of an analysis job
+     * Answers 202 with the job status while the job has not finished.
+     */
+    @GetMapping("/jobs/{jobId}/result")
+    public ResponseEntity<Map<String, Object>> getJobResult(@PathVariable("jobId") String jobId) {
+        AnalysisJob job = analysisJobService.getJob(jobId);
+        if (job == null) {
+            return jobNotFound(jobId);
+        }
+        
+        switch (job.getStatus()) {
+            case SUCCEEDED:
+                return ResponseEntity.ok(job.getResult());
+            case FAILED:
+                Map<String, Object> errorResponse = job.toStatusMap();
+                errorResponse.put("status", "error");
+                return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(errorResponse);
+            default:
+                Map<String, Object> pendingResponse = job.toStatusMap();
+                pendingResponse.put("status", "pending");
+                return ResponseEntity.accepted().body(pendingResponse);
+        }
+    }
+
+    private ResponseEntity<Map<String, Object>> jobNotFound(String jobId) {
+        Map<String, Object> errorResponse = new HashMap<>();
+        errorResponse.put("status", "error");
+        errorResponse.put("message", "Unknown job: " + jobId);
+        return ResponseEntity.status(HttpStatus.NOT_FOUND).body(errorResponse);
+    }
+
+    /**
+     * Get the commits that touched a function, e.g. to find when it last changed
+     * Answered from the method history index, which catches up with HEAD in the background.
+     */
+    @GetMapping("/history")
+    public ResponseEntity<Map<String, Object>> getMethodHistory(@RequestParam("function") String function) {
+        logger.info("Method history requested for: {}", function);
+        Map<String, Object> response = callerService.getMethodHistory(function);
+        if ("error".equals(response.get("status"))) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(response);
+        }
+        return ResponseEntity.ok(response);
+    }
+
+    /**
+     * Attribute every function of a revision to the commit that last changed it
+     */
+    @GetMapping("/blame")
+    public ResponseEntity<Map<String, Object>> blameMethods(
+            @RequestParam(value = "commit", defaultValue = "HEAD") String commit,
+            @RequestParam(value = "path", required = false) String path) {
+        logger.info("Method blame requested for {} at {}", path, commit);
+        
+        String filePath = null;
+        if (path != null) {
+            try {
+                filePath = GitFunctionAnalyzer.normalizePath(path);
+            } catch (IllegalArgumentException e) {
+                Map<String, Object> errorResponse = new HashMap<>();
+                errorResponse.put("status", "error");
+                errorResponse.put("message", e.getMessage());
+                return ResponseEntity.badRequest().body(errorResponse);
+            }
+        }
+        
+        Map<String, Object> response = callerService.blameMethods(commit, filePath);
+        if ("error".equals(response.get("status"))) {
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(response);
+        }
+        return ResponseEntity.ok(response);
+    }
+
     /**
      * Get repository information
      */
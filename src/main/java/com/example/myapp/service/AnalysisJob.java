@@ -0,0 +1,133 @@
+package com.example.myapp.service;
+
+import net.gaeco.referrerfinder.ChangedFile;
+import net.gaeco.referrerfinder.FunctionChangeListener;
+import net.gaeco.referrerfinder.MethodDelta;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Asynchronous function change analysis job
+ * Collects partial results as files complete, so the status can be polled while the analysis runs.
+ */
+public class AnalysisJob implements FunctionChangeListener {
+
+    public enum Status { QUEUED, RUNNING, SUCCEEDED, FAILED }
+
+    private final String jobId;
+    private final String oldCommit;
+    private final String newCommit;
+    private final String callbackUrl;
+    private final long submittedAt = System.currentTimeMillis();
+    private final CompletableFuture<Map<String, Object>> completion = new CompletableFuture<>();
+
+    private volatile Status status = Status.QUEUED;
+    private volatile long startedAt;
+    private volatile long finishedAt;
+    private volatile Map<String, Object> result;
+    private volatile String errorMessage;
+
+    private final AtomicInteger filesTotal = new AtomicInteger(-1);
+    private final AtomicInteger filesAnalyzed = new AtomicInteger();
+    private final Set<String> partialAdded = ConcurrentHashMap.newKeySet();
+    private final Set<String> partialDeleted = ConcurrentHashMap.newKeySet();
+    private final Set<String> partialChanged = ConcurrentHashMap.newKeySet();
+    private final Map<String, String> partialMoved = new ConcurrentHashMap<>();
+
+    public AnalysisJob(String jobId, String oldCommit, String newCommit, String callbackUrl) {
+        this.jobId = jobId;
+        this.oldCommit = oldCommit;
+        this.newCommit = newCommit;
+        this.callbackUrl = callbackUrl;
+    }
+
+    @Override
+    public void onScanCompleted(int changedFileCount) {
+        filesTotal.set(changedFileCount);
+    }
+
+    @Override
+    public void onFileAnalyzed(ChangedFile changedFile, MethodDelta delta) {
+        String javaFile = changedFile.getPath();
+        delta.getAdded().forEach(function -> partialAdded.add(javaFile + "::" + function));
+        delta.getDeleted().forEach(function -> partialDeleted.add(changedFile.getOldPath() + "::" + function));
+        delta.getChanged().forEach(function -> partialChanged.add(javaFile + "::" + function));
+        delta.getMoved().forEach(function ->
+            partialMoved.put(javaFile + "::" + function, changedFile.getOldPath() + "::" + function));
+        filesAnalyzed.incrementAndGet();
+    }
+
+    void markRunning() {
+        startedAt = System.currentTimeMillis();
+        status = Status.RUNNING;
+    }
+
+    void markSucceeded(Map<String, Object> result) {
+        this.result = result;
+        finishedAt = System.currentTimeMillis();
+        status = Status.SUCCEEDED;
+        completion.complete(result);
+    }
+
+    void markFailed(String errorMessage) {
+        this.errorMessage = errorMessage;
+        finishedAt = System.currentTimeMillis();
+        status = Status.FAILED;
+        Map<String, Object> failure = new HashMap<>();
+        failure.put("status", "error");
+        failure.put("message", errorMessage);
+        completion.complete(failure);
+    }
+
+    public boolean isFinished() {
+        return status == Status.SUCCEEDED || status == Status.FAILED;
+    }
+
+    /**
+     * Gets the job status, including the changes found so far while the job is running
+     */
+    public Map<String, Object> toStatusMap() {
+        Map<String, Object> response = new HashMap<>();
+        response.put("jobId", jobId);
+        response.put("jobStatus", status.name());
+        response.put("oldCommit", oldCommit);
+        response.put("newCommit", newCommit);
+        response.put("submittedAt", submittedAt);
+        if (startedAt > 0) {
+            response.put("startedAt", startedAt);
+        }
+        if (finishedAt > 0) {
+            response.put("finishedAt", finishedAt);
+        }
+        response.put("filesTotal", filesTotal.get());
+        response.put("filesAnalyzed", filesAnalyzed.get());
+        if (status == Status.RUNNING) {
+            response.put("partialAddedFunctions", partialAdded.toArray(new String[0]));
+            response.put("partialDeletedFunctions", partialDeleted.toArray(new String[0]));
+            response.put("partialChangedFunctions", partialChanged.toArray(new String[0]));
+            response.put("partialMovedFunctions", new HashMap<>(partialMoved));
+        }
+        if (errorMessage != null) {
+            response.put("message", errorMessage);
+        }
+        return response;
+    }
+
+    public String getJobId() { return jobId; }
+    public String getOldCommit() { return oldCommit; }
+    public String getNewCommit() { return newCommit; }
+    public String getCallbackUrl() { return callbackUrl; }
+    public Status getStatus() { return status; }
+    public Map<String, Object> getResult() { return result; }
+    public String getErrorMessage() { return errorMessage; }
+
+    /**
+     * Completes with the final result map, or an error map if the job failed
+     */
+    public CompletableFuture<Map<String, Object>> getCompletion() { return completion; }
+}
@@ -0,0 +1,255 @@
+package com.example.myapp.service;
+
+import net.gaeco.referrerfinder.JsonWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Service class for asynchronous analysis jobs
+ * Runs analyses on a dedicated bounded executor so that request threads return immediately,
+ * and rejects new jobs once the queue is full.
+ */
+@Service
+public class AnalysisJobService implements DisposableBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(AnalysisJobService.class);
+    private static final int MAX_CONCURRENT_JOBS = 2;
+    private static final int MAX_QUEUED_JOBS = 16;
+    private static final int MAX_RETAINED_JOBS = 1000;
+    private static final int CALLBACK_TIMEOUT_MILLIS = 10_000;
+    static final String CALLBACK_HOSTS_PROPERTY = "referrerfinder.callbackHosts";
+
+    @Autowired
+    private CallerService callerService;
+
+    private final ThreadPoolExecutor executor;
+    private final Map<String, AnalysisJob> jobs;
+
+    public AnalysisJobService() {
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(MAX_CONCURRENT_JOBS, MAX_CONCURRENT_JOBS, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(MAX_QUEUED_JOBS),
+            runnable -> {
+                Thread thread = new Thread(runnable, "analysis-job-" + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            },
+            new ThreadPoolExecutor.AbortPolicy());
+
+        // Oldest jobs are forgotten first once the retention limit is reached, but never while they run
+        this.jobs = new LinkedHashMap<String, AnalysisJob>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, AnalysisJob> eldest) {
+                return size() > MAX_RETAINED_JOBS && eldest.getValue().isFinished();
+            }
+        };
+    }
+
+    /**
+     * Submits an analysis job
+     *
+     * @param oldCommitId the old commit ID
+     * @param newCommitId the new commit ID
+     * @param callbackUrl optional http(s) URL that receives the final result as a JSON POST
+     * @return the queued job
+     * @throws RejectedExecutionException if the job queue is full
+     */
+    public AnalysisJob submit(String oldCommitId, String newCommitId, String callbackUrl) {
+        validateCallbackUrl(callbackUrl);
+
+        AnalysisJob job = new AnalysisJob(UUID.randomUUID().toString(), oldCommitId, newCommitId, callbackUrl);
+        synchronized (jobs) {
+            jobs.put(job.getJobId(), job);
+        }
+
+        try {
+            executor.execute(() -> run(job));
+        } catch (RejectedExecutionException e) {
+            synchronized (jobs) {
+                jobs.remove(job.getJobId());
+            }
+            logger.warn("Service: Rejected analysis job, queue is full ({} queued)", executor.getQueue().size());
+            throw e;
+        }
+
+        logger.info("Service: Submitted analysis job {} for commits: {} and {}", job.getJobId(), oldCommitId, newCommitId);
+        return job;
+    }
+
+    /**
+     * Gets a job by id
+     *
+     * @return the job, or null if it is unknown or no longer retained
+     */
+    public AnalysisJob getJob(String jobId) {
+        synchronized (jobs) {
+            return jobs.get(jobId);
+        }
+    }
+
+    private void run(AnalysisJob job) {
+        job.markRunning();
+        logger.info("Service: Running analysis job {}", job.getJobId());
+
+        try {
+            Map<String, Object> result = callerService.analyzeFunctionChanges(job.getOldCommit(), job.getNewCommit(), job);
+            if ("error".equals(result.get("status"))) {
+                job.markFailed(String.valueOf(result.get("message")));
+            } else {
+                job.markSucceeded(result);
+            }
+        } catch (Throwable e) {
+            // Errors too, e.g. a StackOverflowError on deeply nested code, must not leave the job running
+            logger.error("Service: Analysis job {} failed", job.getJobId(), e);
+            job.markFailed("Failed to analyze changes: " + e);
+        }
+        logger.info("Service: Analysis job {} finished with status {}", job.getJobId(), job.getStatus());
+
+        if (job.getCallbackUrl() != null) {
+            notifyCallback(job);
+        }
+    }
+
+    /**
+     * Posts the final job result to the job's callback URL
+     */
+    private void notifyCallback(AnalysisJob job) {
+        Map<String, Object> payload = new LinkedHashMap<>(job.toStatusMap());
+        if (job.getResult() != null) {
+            payload.put("result", job.getResult());
+        }
+        byte[] body = JsonWriter.toJson(payload).getBytes(StandardCharsets.UTF_8);
+
+        HttpURLConnection connection = null;
+        try {
+            // Checked again, as the host may resolve differently by now
+            URL url = new URL(job.getCallbackUrl());
+            checkCallbackHost(url.getHost());
+            connection = (HttpURLConnection) url.openConnection();
+            // A redirect could lead to an address the check would have rejected
+            connection.setInstanceFollowRedirects(false);
+            connection.setRequestMethod("POST");
+            connection.setConnectTimeout(CALLBACK_TIMEOUT_MILLIS);
+            connection.setReadTimeout(CALLBACK_TIMEOUT_MILLIS);
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Content-Type", "application/json; charset=UTF-8");
+            connection.setFixedLengthStreamingMode(body.length);
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(body);
+            }
+            logger.info("Service: Callback for job {} returned HTTP {}", job.getJobId(), connection.getResponseCode());
+        } catch (IOException | IllegalArgumentException e) {
+            logger.warn("Service: Callback for job {} failed: {}", job.getJobId(), e.getMessage());
+        } finally {
+            if (connection != null) {
+                connection.disconnect();
+            }
+        }
+    }
+
+    /**
+     * Checks that a callback URL is an http(s) URL the server may post to. Hosts listed in the
+     * {@value #CALLBACK_HOSTS_PROPERTY} system property (comma-separated) are the only ones allowed when
+     * it is set; otherwise any host is allowed that does not resolve to a loopback, private, link-local
+     * or otherwise internal address, so that clients cannot make the server reach internal services.
+     */
+    static void validateCallbackUrl(String callbackUrl) {
+        if (callbackUrl == null) {
+            return;
+        }
+        URL url;
+        try {
+            url = new URL(callbackUrl);
+        } catch (MalformedURLException e) {
+            throw new IllegalArgumentException("Invalid callbackUrl: " + e.getMessage());
+        }
+        if (!"http".equals(url.getProtocol()) && !"https".equals(url.getProtocol())) {
+            throw new IllegalArgumentException("callbackUrl must be an http or https URL");
+        }
+        checkCallbackHost(url.getHost());
+    }
+
+    private static void checkCallbackHost(String host) {
+        if (host == null || host.isEmpty()) {
+            throw new IllegalArgumentException("callbackUrl must name a host");
+        }
+        String allowedHosts = System.getProperty(CALLBACK_HOSTS_PROPERTY, "").trim();
+        if (!allowedHosts.isEmpty()) {
+            for (String allowedHost : allowedHosts.split(",")) {
+                if (allowedHost.trim().equalsIgnoreCase(host)) {
+                    return;
+                }
+            }
+            throw new IllegalArgumentException("callbackUrl host is not allowed: " + host);
+        }
+
+        InetAddress[] addresses;
+        try {
+            addresses = InetAddress.getAllByName(host);
+        } catch (UnknownHostException e) {
+            throw new IllegalArgumentException("Unknown callbackUrl host: " + host);
+        }
+        for (InetAddress address : addresses) {
+            if (isInternal(address)) {
+                throw new IllegalArgumentException("callbackUrl must not point to a local or internal address");
+            }
+        }
+    }
+
+    private static boolean isInternal(InetAddress address) {
+        if (address.isLoopbackAddress() || address.isAnyLocalAddress() || address.isLinkLocalAddress()
+            || address.isSiteLocalAddress() || address.isMulticastAddress()) {
+            return true;
+        }
+        byte[] bytes = address.getAddress();
+        if (address instanceof Inet6Address) {
+            // Unique local addresses, fc00::/7
+            return (bytes[0] & 0xfe) == 0xfc;
+        }
+        // Shared address space of carrier-grade NAT, 100.64.0.0/10
+        return (bytes[0] & 0xff) == 100 && (bytes[1] & 0xc0) == 64;
+    }
+
+    /**
+     * Gets executor statistics
+     *
+     * @return Map containing running and queued job counts
+     */
+    public Map<String, Object> getQueueInfo() {
+        Map<String, Object> info = new LinkedHashMap<>();
+        info.put("runningJobs", executor.getActiveCount());
+        info.put("queuedJobs", executor.getQueue().size());
+        info.put("maxConcurrentJobs", MAX_CONCURRENT_JOBS);
+        info.put("maxQueuedJobs", MAX_QUEUED_JOBS);
+        return info;
+    }
+
+    /**
+     * Stops accepting jobs when the application context shuts down
+     */
+    @Override
+    public void destroy() {
+        executor.shutdownNow();
+    }
+}
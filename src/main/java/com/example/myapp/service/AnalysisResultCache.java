@@ -0,0 +1,93 @@
+package com.example.myapp.service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+
+/**
+ * Bounded cache of analysis results with request coalescing
+ * Keys must identify immutable inputs (resolved commit ids), so cached results never go stale.
+ * Concurrent requests for a key that is being computed wait for that single computation
+ * instead of starting their own.
+ */
+public class AnalysisResultCache {
+
+    private final Map<String, Map<String, Object>> results;
+    private final ConcurrentMap<String, CompletableFuture<Map<String, Object>>> inFlight = new ConcurrentHashMap<>();
+
+    public AnalysisResultCache(int maxEntries) {
+        // Access-ordered map evicting the least recently used result
+        this.results = new LinkedHashMap<String, Map<String, Object>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Map<String, Object>> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Returns the cached result for the key, or computes it once for all concurrent callers
+     * Failed computations are reported to every waiting caller and are not cached.
+     */
+    public Map<String, Object> get(String key, Supplier<Map<String, Object>> computation) {
+        Map<String, Object> cached = getCached(key);
+        if (cached != null) {
+            return cached;
+        }
+
+        CompletableFuture<Map<String, Object>> future = new CompletableFuture<>();
+        CompletableFuture<Map<String, Object>> existing = inFlight.putIfAbsent(key, future);
+        if (existing != null) {
+            return join(existing);
+        }
+
+        try {
+            // Another caller may have finished between the cache check and registering the future
+            Map<String, Object> result = getCached(key);
+            if (result == null) {
+                result = computation.get();
+                synchronized (results) {
+                    results.put(key, result);
+                }
+            }
+            future.complete(result);
+            return result;
+        } catch (RuntimeException | Error e) {
+            // Errors too, or waiting callers would block forever
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, future);
+        }
+    }
+
+    public Map<String, Object> getCached(String key) {
+        synchronized (results) {
+            return results.get(key);
+        }
+    }
+
+    public int size() {
+        synchronized (results) {
+            return results.size();
+        }
+    }
+
+    private static Map<String, Object> join(CompletableFuture<Map<String, Object>> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw e;
+        }
+    }
+}
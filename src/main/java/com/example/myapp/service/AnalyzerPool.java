@@ -0,0 +1,150 @@
+package com.example.myapp.service;
+
+import net.gaeco.referrerfinder.GitFunctionAnalyzer;
+import net.gaeco.referrerfinder.MetricsRecorder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pool of open repositories and their analyzers, keyed by repository path
+ * Keeps JGit's pack index, config and object caches warm between requests and closes
+ * repositories that have not been used for the idle timeout.
+ */
+public class AnalyzerPool {
+
+    private static final Logger logger = LoggerFactory.getLogger(AnalyzerPool.class);
+
+    private final long idleTimeoutMillis;
+    private final MetricsRecorder metricsRecorder;
+    private final Map<String, PooledAnalyzer> analyzers = new HashMap<>();
+    private final ScheduledExecutorService evictor;
+
+    /**
+     * @param metricsRecorder receives the metrics of every analysis run by a pooled analyzer
+     */
+    public AnalyzerPool(long idleTimeout, TimeUnit unit, MetricsRecorder metricsRecorder) {
+        this.idleTimeoutMillis = unit.toMillis(idleTimeout);
+        this.metricsRecorder = metricsRecorder;
+        this.evictor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "analyzer-pool-evictor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(1000L, idleTimeoutMillis / 2);
+        evictor.scheduleWithFixedDelay(this::evictIdle, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Borrows the analyzer of a repository, opening the repository on first use
+     * The lease must be closed when the caller is done with the analyzer.
+     */
+    public Lease acquire(String repositoryPath) throws IOException {
+        String key = new File(repositoryPath).getCanonicalPath();
+
+        synchronized (this) {
+            PooledAnalyzer pooled = analyzers.get(key);
+            if (pooled == null) {
+                logger.info("Opening repository for pool: {}", key);
+                GitFunctionAnalyzer analyzer = new GitFunctionAnalyzer(key);
+                analyzer.setMetricsRecorder(metricsRecorder);
+                pooled = new PooledAnalyzer(analyzer);
+                analyzers.put(key, pooled);
+            }
+            pooled.leases++;
+            return new Lease(pooled);
+        }
+    }
+
+    private synchronized void release(PooledAnalyzer pooled) {
+        pooled.leases--;
+        pooled.lastUsed = System.currentTimeMillis();
+    }
+
+    /**
+     * Closes repositories without active leases or background indexing that have been idle longer than the timeout
+     */
+    void evictIdle() {
+        long now = System.currentTimeMillis();
+        List<Map.Entry<String, PooledAnalyzer>> evicted = new ArrayList<>();
+
+        synchronized (this) {
+            Iterator<Map.Entry<String, PooledAnalyzer>> it = analyzers.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<String, PooledAnalyzer> entry = it.next();
+                PooledAnalyzer pooled = entry.getValue();
+                if (pooled.leases == 0 && !pooled.analyzer.isIndexingInBackground()
+                    && now - pooled.lastUsed > idleTimeoutMillis) {
+                    evicted.add(entry);
+                    it.remove();
+                }
+            }
+        }
+
+        for (Map.Entry<String, PooledAnalyzer> entry : evicted) {
+            logger.info("Closing idle repository: {}", entry.getKey());
+            entry.getValue().analyzer.close();
+        }
+    }
+
+    /**
+     * Closes every pooled repository and stops idle eviction
+     */
+    public void shutdown() {
+        evictor.shutdownNow();
+        List<PooledAnalyzer> remaining;
+        synchronized (this) {
+            remaining = new ArrayList<>(analyzers.values());
+            analyzers.clear();
+        }
+        remaining.forEach(pooled -> pooled.analyzer.close());
+    }
+
+    public synchronized int size() {
+        return analyzers.size();
+    }
+
+    private static class PooledAnalyzer {
+        private final GitFunctionAnalyzer analyzer;
+        private int leases;
+        private long lastUsed = System.currentTimeMillis();
+
+        PooledAnalyzer(GitFunctionAnalyzer analyzer) {
+            this.analyzer = analyzer;
+        }
+    }
+
+    /**
+     * A borrowed analyzer, returned to the pool on close
+     */
+    public class Lease implements AutoCloseable {
+        private final PooledAnalyzer pooled;
+        private boolean released;
+
+        private Lease(PooledAnalyzer pooled) {
+            this.pooled = pooled;
+        }
+
+        public GitFunctionAnalyzer getAnalyzer() {
+            return pooled.analyzer;
+        }
+
+        @Override
+        public void close() {
+            if (!released) {
+                released = true;
+                release(pooled);
+            }
+        }
+    }
+}
@@ -1,24 +1,51 @@
 package com.example.myapp.service;
 
+import net.gaeco.referrerfinder.AnalysisScope;
+import net.gaeco.referrerfinder.CommitRangeResult;
+import net.gaeco.referrerfinder.FunctionChangeListener;
 import net.gaeco.referrerfinder.GitFunctionAnalyzer;
+import net.gaeco.referrerfinder.MethodBlameResult;
+import net.gaeco.referrerfinder.MethodHistoryIndex;
+import net.gaeco.referrerfinder.NdjsonFunctionChangeWriter;
+import org.eclipse.jgit.lib.ObjectId;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.stereotype.Service;
 
-import java.io.IOException;
+import java.io.BufferedWriter;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Map;
 import java.util.HashMap;
-import java.util.Set;
+import java.util.LinkedHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Service class for Caller utility
  * Handles business logic for analyzing function changes between git commits
  */
 @Service
-public class CallerService {
+public class CallerService implements DisposableBean {
 
     private static final Logger logger = LoggerFactory.getLogger(CallerService.class);
     private static final String REPOSITORY_PATH = "."; // Current directory as default
+    private static final long REPOSITORY_IDLE_MINUTES = 10;
+    private static final int RESULT_CACHE_SIZE = 256;
+    
+    // Aggregated per-phase timings and counters of every analysis, for the metrics endpoint
+    private final InMemoryMetricsRecorder metricsRecorder = new InMemoryMetricsRecorder();
+    // Repositories stay open between requests and are closed after being idle
+    private final AnalyzerPool analyzerPool =
+        new AnalyzerPool(REPOSITORY_IDLE_MINUTES, TimeUnit.MINUTES, metricsRecorder);
+    // Results for a pair of resolved commit ids never change
+    private final AnalysisResultCache resultCache = new AnalysisResultCache(RESULT_CACHE_SIZE);
 
     /**
      * Analyzes function changes between two git commits
@@ -28,23 +55,39 @@ public class CallerService {
      * @return Map containing the analysis results
      */
     public Map<String, Object> analyzeFunctionChanges(String oldCommitId, String newCommitId) {
+        return analyzeFunctionChanges(oldCommitId, newCommitId, FunctionChangeListener.NONE);
+    }
+
+    /**
+     * Analyzes function changes between two git commits, reporting each file's changes to a listener
+     * A cached or coalesced result is returned without listener callbacks.
+     * 
+     * @param oldCommitId the old commit ID
+     * @param newCommitId the new commit ID
+     * @param listener receives the changes of every analyzed file
+     * @return Map containing the analysis results
+     */
+    public Map<String, Object> analyzeFunctionChanges(String oldCommitId, String newCommitId,
+                                                      FunctionChangeListener listener) {
         logger.info("Service: Analyzing function changes between commits: {} and {}", oldCommitId, newCommitId);
         
         Map<String, Object> result = new HashMap<>();
         
-        GitFunctionAnalyzer analyzer = null;
-        try {
-            analyzer = new GitFunctionAnalyzer(REPOSITORY_PATH);
+        try (AnalyzerPool.Lease lease = analyzerPool.acquire(REPOSITORY_PATH)) {
+            GitFunctionAnalyzer analyzer = lease.getAnalyzer();
             
-            GitFunctionAnalyzer.FunctionChangeResult analysisResult = 
-                analyzer.analyzeFunctionChanges(oldCommitId, newCommitId);
+            // Cache by resolved commit ids, so that moving refs never serve a stale answer
+            ObjectId oldId = analyzer.resolveCommit(oldCommitId);
+            ObjectId newId = analyzer.resolveCommit(newCommitId);
+            if (oldId == null || newId == null) {
+                throw new IllegalArgumentException("Invalid commit IDs provided");
+            }
             
-            result.put("status", "success");
-            result.put("oldCommit", analysisResult.getOldCommitId());
-            result.put("newCommit", analysisResult.getNewCommitId());
-            result.put("addedFunctions", analysisResult.getAddedFunctions().toArray(new String[0]));
-            result.put("deletedFunctions", analysisResult.getDeletedFunctions().toArray(new String[0]));
-            result.put("changedFunctions", analysisResult.getChangedFunctions().toArray(new String[0]));
+            String cacheKey = oldId.name() + ".." + newId.name();
+            result.putAll(resultCache.get(cacheKey, () ->
+                toResponse(analyzer.analyzeFunctionChanges(oldId.name(), newId.name(), listener))));
+            result.put("oldCommit", oldCommitId);
+            result.put("newCommit", newCommitId);
             
             logger.info("Service: Analysis completed successfully..");
             
@@ -52,17 +95,228 @@ public class CallerService {
             logger.error("Service: Error analyzing function changes", e);
             result.put("status", "error");
             result.put("message", "Failed to analyze changes: " + e.getMessage());
-        } finally {
-            if (analyzer != null) {
-                analyzer.close();
+        }
+        
+        return result;
+    }
+
+    /**
+     * Streams function changes between two git commits as newline-delimited JSON
+     * Each file's changes are written and flushed as soon as the file is analyzed, without
+     * collecting the whole result. A result already in the cache is replayed instead.
+     * 
+     * @param oldCommitId the old commit ID
+     * @param newCommitId the new commit ID
+     * @param out the stream receiving the JSON lines
+     */
+    public void streamFunctionChanges(String oldCommitId, String newCommitId, OutputStream out) {
+        logger.info("Service: Streaming function changes between commits: {} and {}", oldCommitId, newCommitId);
+        
+        NdjsonFunctionChangeWriter writer = new NdjsonFunctionChangeWriter(
+            new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8)));
+        
+        try (AnalyzerPool.Lease lease = analyzerPool.acquire(REPOSITORY_PATH)) {
+            GitFunctionAnalyzer analyzer = lease.getAnalyzer();
+            
+            ObjectId oldId = analyzer.resolveCommit(oldCommitId);
+            ObjectId newId = analyzer.resolveCommit(newCommitId);
+            if (oldId == null || newId == null) {
+                throw new IllegalArgumentException("Invalid commit IDs provided");
+            }
+            
+            Map<String, Object> cached = resultCache.getCached(oldId.name() + ".." + newId.name());
+            if (cached != null) {
+                String[] added = (String[]) cached.get("addedFunctions");
+                String[] deleted = (String[]) cached.get("deletedFunctions");
+                String[] changed = (String[]) cached.get("changedFunctions");
+                Arrays.stream(added).forEach(function -> writer.writeFunction("ADDED", function));
+                Arrays.stream(deleted).forEach(function -> writer.writeFunction("DELETED", function));
+                Arrays.stream(changed).forEach(function -> writer.writeFunction("CHANGED", function));
+                @SuppressWarnings("unchecked")
+                Map<String, String> moved = (Map<String, String>) cached.get("movedFunctions");
+                moved.forEach((function, from) -> writer.writeMoved(from, function));
+                writer.writeSummary(oldCommitId, newCommitId, added.length, deleted.length, changed.length,
+                                    moved.size());
+                return;
             }
+            
+            GitFunctionAnalyzer.FunctionChangeResult summary = 
+                analyzer.streamFunctionChanges(oldId.name(), newId.name(), writer);
+            writer.writeSummary(oldCommitId, newCommitId,
+                summary.getAddedCount(), summary.getDeletedCount(), summary.getChangedCount(),
+                summary.getMovedCount());
+            
+            logger.info("Service: Streaming completed successfully..");
+            
+        } catch (UncheckedIOException e) {
+            logger.warn("Service: Client stopped reading the stream: {}", e.getMessage());
+        } catch (Exception e) {
+            logger.error("Service: Error streaming function changes", e);
+            writer.writeError("Failed to analyze changes: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Attributes the function changes of a commit range to the commits that made them
+     * 
+     * @param oldCommitId the commit the range starts after
+     * @param newCommitId the last commit of the range
+     * @return Map containing, per function, the commits that touched it
+     */
+    public Map<String, Object> analyzeCommitRange(String oldCommitId, String newCommitId) {
+        logger.info("Service: Analyzing commit range: {}..{}", oldCommitId, newCommitId);
+        
+        Map<String, Object> result = new HashMap<>();
+        
+        try (AnalyzerPool.Lease lease = analyzerPool.acquire(REPOSITORY_PATH)) {
+            GitFunctionAnalyzer analyzer = lease.getAnalyzer();
+            
+            ObjectId oldId = analyzer.resolveCommit(oldCommitId);
+            ObjectId newId = analyzer.resolveCommit(newCommitId);
+            if (oldId == null || newId == null) {
+                throw new IllegalArgumentException("Invalid commit IDs provided");
+            }
+            
+            result.putAll(resultCache.get("range:" + oldId.name() + ".." + newId.name(), () -> {
+                CommitRangeResult range = analyzer.analyzeCommitRange(oldId.name(), newId.name());
+                Map<String, Object> response = new HashMap<>();
+                response.put("status", "success");
+                response.put("oldCommitId", range.getOldCommitId());
+                response.put("newCommitId", range.getNewCommitId());
+                response.put("commits", range.getCommits());
+                response.put("skippedCommits", range.getSkippedCommits());
+                response.put("functions", range.toMap());
+                response.put("metrics", range.getMetrics().toMap());
+                return response;
+            }));
+            
+            logger.info("Service: Commit range analysis completed successfully");
+            
+        } catch (Exception e) {
+            logger.error("Service: Error analyzing commit range", e);
+            result.put("status", "error");
+            result.put("message", "Failed to analyze commit range: " + e.getMessage());
         }
         
         return result;
     }
 
     /**
-     * Gets repository information
+     * Gets the commits that touched a function, from the method history index
+     * Indexing of new commits up to HEAD is started in the background and the answer comes from the
+     * commits indexed so far, so "complete" is false until the history has caught up.
+     * If the last indexing run failed, "indexingError" says why.
+     * 
+     * @param function the function id ({@code path::Class.method(Params)})
+     * @return Map containing the function's changes, oldest first, and its last change
+     */
+    public Map<String, Object> getMethodHistory(String function) {
+        logger.info("Service: Method history requested for: {}", function);
+        
+        Map<String, Object> result = new HashMap<>();
+        
+        try (AnalyzerPool.Lease lease = analyzerPool.acquire(REPOSITORY_PATH)) {
+            GitFunctionAnalyzer analyzer = lease.getAnalyzer();
+            Future<MethodHistoryIndex> indexing = analyzer.indexMethodHistoryInBackground("HEAD");
+            MethodHistoryIndex history = analyzer.getIndexedMethodHistory();
+            
+            List<Map<String, Object>> changes = new ArrayList<>();
+            for (MethodHistoryIndex.Change change : history.getHistory(function)) {
+                changes.add(toResponse(change));
+            }
+            MethodHistoryIndex.Change lastChange = history.getLastChange(function);
+            
+            result.put("status", "success");
+            result.put("function", function);
+            result.put("changes", changes);
+            result.put("lastChange", lastChange != null ? toResponse(lastChange) : null);
+            result.put("indexedCommits", history.getCommitCount());
+            // Complete only if indexing succeeded; a failed run is retried by the next request
+            Throwable failure = analyzer.getBackgroundIndexingFailure();
+            result.put("complete", indexing.isDone() && failure == null);
+            if (failure != null) {
+                logger.warn("Service: Method history indexing failed: {}", failure.toString());
+                result.put("indexingError", "Failed to index method history: " + failure.getMessage());
+            }
+            
+        } catch (Exception e) {
+            logger.error("Service: Error getting method history", e);
+            result.put("status", "error");
+            result.put("message", "Failed to get method history: " + e.getMessage());
+        }
+        
+        return result;
+    }
+
+    /**
+     * Attributes every function of a revision to the commit that last changed it
+     * 
+     * @param commitId the revision to blame
+     * @param path a file or directory to restrict the blame to, or null for the whole scope
+     * @return Map containing the commit id of every function
+     */
+    public Map<String, Object> blameMethods(String commitId, String path) {
+        logger.info("Service: Method blame requested for {} at {}", path, commitId);
+        
+        Map<String, Object> result = new HashMap<>();
+        
+        try (AnalyzerPool.Lease lease = analyzerPool.acquire(REPOSITORY_PATH)) {
+            GitFunctionAnalyzer analyzer = lease.getAnalyzer();
+            
+            // A revision's blame never changes, so it is cached by resolved commit id
+            ObjectId commit = analyzer.resolveCommit(commitId);
+            if (commit == null) {
+                throw new IllegalArgumentException("Invalid commit ID provided");
+            }
+            
+            result.putAll(resultCache.get("blame:" + commit.name() + ":" + (path != null ? path : ""), () -> {
+                MethodBlameResult blame = analyzer.blameMethods(commit.name(), path);
+                Map<String, Object> response = new HashMap<>();
+                response.put("status", "success");
+                response.put("commitId", blame.getCommitId());
+                response.put("functions", blame.toMap());
+                response.put("commitsInspected", blame.getCommitsInspected());
+                response.put("filesCompared", blame.getFilesCompared());
+                response.put("metrics", blame.getMetrics().toMap());
+                return response;
+            }));
+            
+        } catch (Exception e) {
+            logger.error("Service: Error blaming methods", e);
+            result.put("status", "error");
+            result.put("message", "Failed to blame methods: " + e.getMessage());
+        }
+        
+        return result;
+    }
+
+    private static Map<String, Object> toResponse(MethodHistoryIndex.Change change) {
+        Map<String, Object> response = new HashMap<>();
+        response.put("commit", change.getCommitId());
+        response.put("commitTime", change.getCommitTime());
+        response.put("kind", change.getKind().name());
+        return response;
+    }
+
+    /**
+     * Converts an analysis result to the response map
+     */
+    private Map<String, Object> toResponse(GitFunctionAnalyzer.FunctionChangeResult analysisResult) {
+        Map<String, Object> response = new HashMap<>();
+        response.put("status", "success");
+        response.put("oldCommitId", analysisResult.getOldCommitId());
+        response.put("newCommitId", analysisResult.getNewCommitId());
+        response.put("addedFunctions", analysisResult.getAddedFunctions().toArray(new String[0]));
+        response.put("deletedFunctions", analysisResult.getDeletedFunctions().toArray(new String[0]));
+        response.put("changedFunctions", analysisResult.getChangedFunctions().toArray(new String[0]));
+        // Functions in renamed or copied files whose code is unchanged, keyed by their new id
+        response.put("movedFunctions", analysisResult.getMovedFunctions());
+        response.put("metrics", analysisResult.getMetrics().toMap());
+        return response;
+    }
+
+    /**
+     * Gets repository information, including the scope the analyzer is configured with
      * 
      * @return Map containing repository information
      */
@@ -70,10 +324,23 @@ public class CallerService {
         logger.info("Service: Repository info requested");
         
         Map<String, Object> result = new HashMap<>();
-        result.put("status", "success");
-        result.put("repository", "caller");
-        result.put("description", "Utility to find changed functions between git commits");
-        result.put("targetPackage", "com.example.myapp");
+        
+        try (AnalyzerPool.Lease lease = analyzerPool.acquire(REPOSITORY_PATH)) {
+            AnalysisScope scope = lease.getAnalyzer().getScope();
+            Map<String, Object> scopeInfo = new LinkedHashMap<>();
+            scopeInfo.put("includes", scope.getIncludes());
+            scopeInfo.put("excludes", scope.getExcludes());
+            
+            result.put("status", "success");
+            result.put("repository", "caller");
+            result.put("description", "Utility to find changed functions between git commits");
+            result.put("scope", scopeInfo);
+            
+        } catch (Exception e) {
+            logger.error("Service: Error getting repository info", e);
+            result.put("status", "error");
+            result.put("message", "Failed to get repository info: " + e.getMessage());
+        }
         
         return result;
     }
@@ -90,7 +357,36 @@ public class CallerService {
         result.put("status", "UP");
         result.put("service", "Caller");
         result.put("timestamp", System.currentTimeMillis());
+        result.put("openRepositories", analyzerPool.size());
+        result.put("cachedResults", resultCache.size());
         
         return result;
     }
+
+    /**
+     * Gets the aggregated metrics of all analyses run since startup
+     * 
+     * @return Map containing timers and counters
+     */
+    public Map<String, Object> getMetrics() {
+        logger.info("Service: Metrics requested");
+        
+        Map<String, Object> result = new HashMap<>();
+        result.put("status", "success");
+        result.put("timers", metricsRecorder.getTimers());
+        result.put("counters", metricsRecorder.getCounters());
+        result.put("openRepositories", analyzerPool.size());
+        result.put("cachedResults", resultCache.size());
+        
+        return result;
+    }
+
+    /**
+     * Closes pooled repositories when the application context shuts down
+     */
+    @Override
+    public void destroy() {
+        logger.info("Service: Closing pooled repositories");
+        analyzerPool.shutdown();
+    }
 }
@@ -0,0 +1,58 @@
+package com.example.myapp.service;
+
+import net.gaeco.referrerfinder.MetricsRecorder;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Metrics recorder that aggregates timers and counters in memory for the metrics endpoint
+ * Timers keep their count, total and maximum; counters keep their running total.
+ */
+public class InMemoryMetricsRecorder implements MetricsRecorder {
+
+    private final Map<String, TimerStats> timers = new TreeMap<>();
+    private final Map<String, Long> counters = new TreeMap<>();
+
+    @Override
+    public synchronized void recordTime(String name, long nanos) {
+        TimerStats stats = timers.computeIfAbsent(name, k -> new TimerStats());
+        stats.count++;
+        stats.totalNanos += nanos;
+        stats.maxNanos = Math.max(stats.maxNanos, nanos);
+    }
+
+    @Override
+    public synchronized void increment(String name, long amount) {
+        counters.merge(name, amount, Long::sum);
+    }
+
+    /**
+     * Gets a copy of the aggregated timers, with times in milliseconds
+     */
+    public synchronized Map<String, Object> getTimers() {
+        Map<String, Object> snapshot = new TreeMap<>();
+        timers.forEach((name, stats) -> {
+            Map<String, Object> timer = new TreeMap<>();
+            timer.put("count", stats.count);
+            timer.put("totalMillis", stats.totalNanos / 1_000_000.0);
+            timer.put("maxMillis", stats.maxNanos / 1_000_000.0);
+            timer.put("meanMillis", stats.totalNanos / 1_000_000.0 / stats.count);
+            snapshot.put(name, timer);
+        });
+        return snapshot;
+    }
+
+    /**
+     * Gets a copy of the counter totals
+     */
+    public synchronized Map<String, Object> getCounters() {
+        return new TreeMap<>(counters);
+    }
+
+    private static class TimerStats {
+        private long count;
+        private long totalNanos;
+        private long maxNanos;
+    }
+}
@@ -0,0 +1,170 @@
+package net.gaeco.referrerfinder;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Timings and counters of one analysis, broken down by phase.
+ * Safe for concurrent updates from parallel analysis threads. Phase times are summed over all
+ * threads, so with parallel analysis they can add up to more than the total wall time.
+ */
+public class AnalysisMetrics {
+
+    /**
+     * Phases of an analysis
+     */
+    public enum Phase {
+        /** Tree diff between the two commits */
+        DIFF_SCAN("diffScan"),
+        /** Loading changed blobs from the object database */
+        BLOB_READ("blobRead"),
+        /** Parsing and fingerprinting loaded sources */
+        PARSE("parse"),
+        /** Comparing the method indexes of both revisions */
+        COMPARE("compare");
+
+        private final String metricName;
+
+        Phase(String metricName) {
+            this.metricName = metricName;
+        }
+
+        public String getMetricName() { return metricName; }
+    }
+
+    private final AtomicLong[] phaseNanos = new AtomicLong[Phase.values().length];
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong changedFiles = new AtomicLong();
+    private final AtomicLong blobsRead = new AtomicLong();
+    private final AtomicLong bytesRead = new AtomicLong();
+    private final AtomicLong indexCacheHits = new AtomicLong();
+    private final AtomicLong filesParsed = new AtomicLong();
+    private final AtomicLong parseFailures = new AtomicLong();
+    private final AtomicLong methodsCompared = new AtomicLong();
+    private final AtomicLong unsupportedMembers = new AtomicLong();
+
+    public AnalysisMetrics() {
+        for (int i = 0; i < phaseNanos.length; i++) {
+            phaseNanos[i] = new AtomicLong();
+        }
+    }
+
+    /**
+     * Adds time spent in a phase
+     */
+    public void addPhaseTime(Phase phase, long nanos) {
+        phaseNanos[phase.ordinal()].addAndGet(nanos);
+    }
+
+    void setTotalTime(long nanos) { totalNanos.set(nanos); }
+    void setChangedFiles(long count) { changedFiles.set(count); }
+    void addBlobRead(long bytes) {
+        blobsRead.incrementAndGet();
+        bytesRead.addAndGet(bytes);
+    }
+    void addIndexCacheHit() { indexCacheHits.incrementAndGet(); }
+    void addFileParsed(boolean successful) {
+        filesParsed.incrementAndGet();
+        if (!successful) {
+            parseFailures.incrementAndGet();
+        }
+    }
+    void addMethodsCompared(long count) { methodsCompared.addAndGet(count); }
+    void addUnsupportedMember() { unsupportedMembers.incrementAndGet(); }
+
+    /**
+     * Adds the phase times and counters of another analysis, e.g. one step of a commit range.
+     * The total time is not added, as steps may overlap.
+     */
+    void add(AnalysisMetrics other) {
+        for (int i = 0; i < phaseNanos.length; i++) {
+            phaseNanos[i].addAndGet(other.phaseNanos[i].get());
+        }
+        changedFiles.addAndGet(other.getChangedFiles());
+        blobsRead.addAndGet(other.getBlobsRead());
+        bytesRead.addAndGet(other.getBytesRead());
+        indexCacheHits.addAndGet(other.getIndexCacheHits());
+        filesParsed.addAndGet(other.getFilesParsed());
+        parseFailures.addAndGet(other.getParseFailures());
+        methodsCompared.addAndGet(other.getMethodsCompared());
+        unsupportedMembers.addAndGet(other.getUnsupportedMembers());
+    }
+
+    public long getPhaseTime(Phase phase, TimeUnit unit) {
+        return unit.convert(phaseNanos[phase.ordinal()].get(), TimeUnit.NANOSECONDS);
+    }
+
+    public long getTotalTime(TimeUnit unit) {
+        return unit.convert(totalNanos.get(), TimeUnit.NANOSECONDS);
+    }
+
+    public long getChangedFiles() { return changedFiles.get(); }
+    public long getBlobsRead() { return blobsRead.get(); }
+    public long getBytesRead() { return bytesRead.get(); }
+    public long getIndexCacheHits() { return indexCacheHits.get(); }
+    public long getFilesParsed() { return filesParsed.get(); }
+    public long getParseFailures() { return parseFailures.get(); }
+    public long getMethodsCompared() { return methodsCompared.get(); }
+    public long getUnsupportedMembers() { return unsupportedMembers.get(); }
+
+    /**
+     * Reports the timings and counters of this analysis to a recorder
+     */
+    public void publishTo(MetricsRecorder recorder) {
+        recorder.recordTime("analysis.total", totalNanos.get());
+        for (Phase phase : Phase.values()) {
+            recorder.recordTime("analysis.phase." + phase.getMetricName(), phaseNanos[phase.ordinal()].get());
+        }
+        recorder.increment("analysis.changedFiles", getChangedFiles());
+        recorder.increment("analysis.blobsRead", getBlobsRead());
+        recorder.increment("analysis.bytesRead", getBytesRead());
+        recorder.increment("analysis.indexCacheHits", getIndexCacheHits());
+        recorder.increment("analysis.filesParsed", getFilesParsed());
+        recorder.increment("analysis.parseFailures", getParseFailures());
+        recorder.increment("analysis.methodsCompared", getMethodsCompared());
+        recorder.increment("analysis.unsupportedMembers", getUnsupportedMembers());
+    }
+
+    /**
+     * Converts the metrics to a map for JSON responses, with times in milliseconds
+     */
+    public Map<String, Object> toMap() {
+        Map<String, Object> phases = new LinkedHashMap<>();
+        for (Phase phase : Phase.values()) {
+            phases.put(phase.getMetricName(), toMillis(phaseNanos[phase.ordinal()].get()));
+        }
+
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("totalMillis", toMillis(totalNanos.get()));
+        map.put("phaseMillis", phases);
+        map.put("changedFiles", getChangedFiles());
+        map.put("blobsRead", getBlobsRead());
+        map.put("bytesRead", getBytesRead());
+        map.put("indexCacheHits", getIndexCacheHits());
+        map.put("filesParsed", getFilesParsed());
+        map.put("parseFailures", getParseFailures());
+        map.put("methodsCompared", getMethodsCompared());
+        map.put("unsupportedMembers", getUnsupportedMembers());
+        return map;
+    }
+
+    private static double toMillis(long nanos) {
+        return nanos / 1_000_000.0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("AnalysisMetrics{total=%dms, diffScan=%dms, blobRead=%dms, parse=%dms, compare=%dms, "
+                             + "blobsRead=%d, bytesRead=%d, cacheHits=%d, filesParsed=%d, parseFailures=%d, "
+                             + "methodsCompared=%d, unsupportedMembers=%d}",
+                getTotalTime(TimeUnit.MILLISECONDS),
+                getPhaseTime(Phase.DIFF_SCAN, TimeUnit.MILLISECONDS),
+                getPhaseTime(Phase.BLOB_READ, TimeUnit.MILLISECONDS),
+                getPhaseTime(Phase.PARSE, TimeUnit.MILLISECONDS),
+                getPhaseTime(Phase.COMPARE, TimeUnit.MILLISECONDS),
+                getBlobsRead(), getBytesRead(), getIndexCacheHits(), getFilesParsed(), getParseFailures(),
+                getMethodsCompared(), getUnsupportedMembers());
+    }
+}
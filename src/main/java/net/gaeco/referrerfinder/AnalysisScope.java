@@ -0,0 +1,343 @@
+package net.gaeco.referrerfinder;
+
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.AndTreeFilter;
+import org.eclipse.jgit.treewalk.filter.PathFilterGroup;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * The part of a repository whose sources are analyzed, given as include and exclude rules.
+ *
+ * A rule is either a package name or a path glob:
+ * <ul>
+ *   <li>{@code com.example.myapp} matches the package directory under any source root,
+ *       i.e. {@code **}{@code /com/example/myapp}</li>
+ *   <li>a rule containing {@code /}, {@code *} or {@code ?} is a glob from the repository root, where
+ *       {@code **} matches any number of directories and {@code *} and {@code ?} match within one name,
+ *       e.g. {@code services/*}{@code /src/main/java} or {@code **}{@code /generated}</li>
+ * </ul>
+ * A rule matches the path it names and everything beneath it. A file is in scope when an include rule
+ * matches it, or there are no include rules, and no exclude rule does.
+ *
+ * The rules are compiled into one trie of path names, so a path is matched in a single pass over its
+ * names however many rules there are. As a {@link TreeFilter} the scope prunes whole subtrees that no
+ * include rule can reach, or that an exclude rule covers, before the tree walk enters them.
+ */
+public final class AnalysisScope {
+
+    /** Scope covering the whole repository */
+    public static final AnalysisScope ALL = new AnalysisScope(Collections.emptyList(), Collections.emptyList());
+
+    private static final int INCLUDE = 1;
+    private static final int EXCLUDE = 2;
+
+    private final List<String> includes;
+    private final List<String> excludes;
+    // Include rules as plain paths, or null when some include rule is a package or a glob
+    private final List<String> literalIncludes;
+    private final TrieNode root = new TrieNode();
+    private final Match rootMatch;
+    private final String id;
+
+    private AnalysisScope(List<String> includes, List<String> excludes) {
+        this.includes = Collections.unmodifiableList(new ArrayList<>(includes));
+        this.excludes = Collections.unmodifiableList(new ArrayList<>(excludes));
+        if (includes.isEmpty()) {
+            root.rules |= INCLUDE;
+        }
+        List<String> literals = includes.isEmpty() ? null : new ArrayList<>();
+        for (String rule : includes) {
+            String path = add(rule, INCLUDE);
+            if (literals != null && path != null) {
+                literals.add(path);
+            } else {
+                literals = null;
+            }
+        }
+        this.literalIncludes = literals;
+        for (String rule : excludes) {
+            add(rule, EXCLUDE);
+        }
+        List<TrieNode> states = new ArrayList<>();
+        addWithClosure(states, root);
+        this.rootMatch = new Match(states, rulesOf(states));
+        this.id = computeId();
+    }
+
+    /**
+     * Creates a scope from include and exclude rules
+     *
+     * @param includes rules of what to analyze, or an empty list for the whole repository
+     * @param excludes rules of what to leave out, even where included
+     */
+    public static AnalysisScope of(List<String> includes, List<String> excludes) {
+        return new AnalysisScope(includes, excludes);
+    }
+
+    /**
+     * Creates a scope covering the given packages, including their subpackages
+     */
+    public static AnalysisScope ofPackages(String... packageNames) {
+        List<String> includes = new ArrayList<>();
+        Collections.addAll(includes, packageNames);
+        return new AnalysisScope(includes, Collections.emptyList());
+    }
+
+    public List<String> getIncludes() { return includes; }
+    public List<String> getExcludes() { return excludes; }
+
+    /**
+     * Short stable identifier of the rules, for keying data that depends on the scope
+     */
+    public String getId() { return id; }
+
+    /**
+     * Creates a tree filter passing the files in scope and the trees that may contain some.
+     * Each call returns a new filter, as the filter tracks the walk's position.
+     * When every include rule is a plain path, JGit's {@link PathFilterGroup} selects them, which also ends
+     * the walk once it is past the last of them.
+     */
+    public TreeFilter toTreeFilter() {
+        if (literalIncludes == null) {
+            return new ScopeFilter(this);
+        }
+        TreeFilter group = PathFilterGroup.createFromStrings(literalIncludes);
+        return excludes.isEmpty() ? group : AndTreeFilter.create(group, new ScopeFilter(this));
+    }
+
+    /**
+     * Adds a rule to the trie
+     *
+     * @return the rule's path if it is a plain path, without package or glob syntax, otherwise null
+     */
+    private String add(String rule, int kind) {
+        String trimmed = rule.trim();
+        List<String> names = new ArrayList<>();
+        boolean literal = trimmed.indexOf('*') < 0 && trimmed.indexOf('?') < 0;
+        if (literal && trimmed.indexOf('/') < 0) {
+            literal = false;
+            // A package, wherever its source root is
+            names.add("**");
+            for (String name : trimmed.split("\\.")) {
+                if (!name.isEmpty()) {
+                    names.add(name);
+                }
+            }
+        } else {
+            for (String name : trimmed.split("/")) {
+                if (!name.isEmpty()) {
+                    names.add(name);
+                }
+            }
+        }
+        // A rule covers everything beneath it anyway
+        while (!names.isEmpty() && "**".equals(names.get(names.size() - 1))) {
+            names.remove(names.size() - 1);
+        }
+
+        TrieNode node = root;
+        String previous = null;
+        for (String name : names) {
+            if ("**".equals(name)) {
+                if (!"**".equals(previous)) {
+                    if (node.anyDepth == null) {
+                        node.anyDepth = new TrieNode();
+                        node.anyDepth.loops = true;
+                    }
+                    node = node.anyDepth;
+                }
+            } else if (name.indexOf('*') >= 0 || name.indexOf('?') >= 0) {
+                node = node.globChild(name);
+            } else {
+                node = node.literals.computeIfAbsent(name, k -> new TrieNode());
+            }
+            previous = name;
+        }
+        node.rules |= kind;
+        return literal && !names.isEmpty() ? String.join("/", names) : null;
+    }
+
+    private String computeId() {
+        // FNV-1a over both rule lists, with separators that cannot occur in a rule
+        long hash = hashRules(0xcbf29ce484222325L, includes);
+        hash = hashRules((hash ^ 0xfffe) * 0x100000001b3L, excludes);
+        return String.format("%016x", hash);
+    }
+
+    private static long hashRules(long hash, List<String> rules) {
+        for (String rule : rules) {
+            for (int i = 0; i < rule.length(); i++) {
+                hash = (hash ^ rule.charAt(i)) * 0x100000001b3L;
+            }
+            hash = (hash ^ 0xffff) * 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    private static void addWithClosure(List<TrieNode> states, TrieNode node) {
+        // A ** also matches no name at all, so the node after it is reachable right away
+        if (!states.contains(node)) {
+            states.add(node);
+            if (node.anyDepth != null) {
+                addWithClosure(states, node.anyDepth);
+            }
+        }
+    }
+
+    private static int rulesOf(List<TrieNode> states) {
+        int rules = 0;
+        for (TrieNode node : states) {
+            rules |= node.rules;
+        }
+        return rules;
+    }
+
+    @Override
+    public String toString() {
+        return "AnalysisScope{includes=" + includes + ", excludes=" + excludes + "}";
+    }
+
+    private static final class TrieNode {
+        private final Map<String, TrieNode> literals = new HashMap<>();
+        private final List<GlobEdge> globs = new ArrayList<>();
+        // Child reached through a ** name
+        private TrieNode anyDepth;
+        // Whether this node is a ** that stays matched for any further name
+        private boolean loops;
+        // Rules ending at this node
+        private int rules;
+
+        TrieNode globChild(String glob) {
+            for (GlobEdge edge : globs) {
+                if (edge.glob.equals(glob)) {
+                    return edge.target;
+                }
+            }
+            GlobEdge edge = new GlobEdge(glob, new TrieNode());
+            globs.add(edge);
+            return edge.target;
+        }
+    }
+
+    private static final class GlobEdge {
+        private final String glob;
+        private final Pattern pattern;
+        private final TrieNode target;
+
+        GlobEdge(String glob, TrieNode target) {
+            this.glob = glob;
+            this.target = target;
+            StringBuilder regex = new StringBuilder();
+            for (char c : glob.toCharArray()) {
+                if (c == '*') {
+                    regex.append(".*");
+                } else if (c == '?') {
+                    regex.append('.');
+                } else {
+                    regex.append(Pattern.quote(String.valueOf(c)));
+                }
+            }
+            this.pattern = Pattern.compile(regex.toString());
+        }
+    }
+
+    /**
+     * Where a path stands after its names so far: the trie nodes still reachable and the rules
+     * already matched by the path or one of its parents
+     */
+    private static final class Match {
+        private final List<TrieNode> states;
+        private final int rules;
+
+        Match(List<TrieNode> states, int rules) {
+            this.states = states;
+            this.rules = rules;
+        }
+
+        Match step(String name) {
+            List<TrieNode> next = new ArrayList<>();
+            for (TrieNode node : states) {
+                if (node.loops) {
+                    addWithClosure(next, node);
+                }
+                TrieNode literal = node.literals.get(name);
+                if (literal != null) {
+                    addWithClosure(next, literal);
+                }
+                for (GlobEdge edge : node.globs) {
+                    if (edge.pattern.matcher(name).matches()) {
+                        addWithClosure(next, edge.target);
+                    }
+                }
+            }
+            return new Match(next, rules | rulesOf(next));
+        }
+
+        boolean isIncluded() { return (rules & (INCLUDE | EXCLUDE)) == INCLUDE; }
+        boolean isExcluded() { return (rules & EXCLUDE) != 0; }
+
+        // Whether some path beneath can still be included
+        boolean mayIncludeBelow() {
+            if (isExcluded()) {
+                return false;
+            }
+            if ((rules & INCLUDE) != 0) {
+                return true;
+            }
+            for (TrieNode node : states) {
+                if (node.loops || !node.literals.isEmpty() || !node.globs.isEmpty()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Tree filter over the scope. Tree walks visit entries depth first, so the match of an entry is
+     * derived from the match of the last tree seen one level up.
+     */
+    private static final class ScopeFilter extends TreeFilter {
+        private final AnalysisScope scope;
+        private final List<Match> matchesByDepth = new ArrayList<>();
+
+        ScopeFilter(AnalysisScope scope) {
+            this.scope = scope;
+        }
+
+        @Override
+        public boolean include(TreeWalk walker) {
+            int depth = walker.getDepth();
+            Match parent = depth == 0 ? scope.rootMatch : matchesByDepth.get(depth - 1);
+            Match match = parent.step(walker.getNameString());
+            if (depth < matchesByDepth.size()) {
+                matchesByDepth.set(depth, match);
+            } else {
+                matchesByDepth.add(match);
+            }
+            return walker.isSubtree() ? match.mayIncludeBelow() : match.isIncluded();
+        }
+
+        @Override
+        public boolean shouldBeRecursive() {
+            return true;
+        }
+
+        @Override
+        public TreeFilter clone() {
+            return new ScopeFilter(scope);
+        }
+
+        @Override
+        public String toString() {
+            return "SCOPE(" + scope.includes + " - " + scope.excludes + ")";
+        }
+    }
+}
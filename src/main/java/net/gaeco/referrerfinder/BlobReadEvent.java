@@ -0,0 +1,29 @@
+package net.gaeco.referrerfinder;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event for loading one blob from the object database
+ */
+@Name("net.gaeco.referrerfinder.BlobRead")
+@Label("Blob Read")
+@Category({"Referrer Finder"})
+@StackTrace(false)
+@Description("Loading of one changed blob, including the wait for the batched reader")
+class BlobReadEvent extends jdk.jfr.Event {
+
+    @Label("Path")
+    String path;
+
+    @Label("Blob Id")
+    String blobId;
+
+    @Label("Size")
+    @DataAmount
+    long bytes;
+}
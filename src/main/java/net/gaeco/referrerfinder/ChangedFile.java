@@ -0,0 +1,61 @@
+package net.gaeco.referrerfinder;
+
+import org.eclipse.jgit.diff.DiffEntry.ChangeType;
+import org.eclipse.jgit.lib.ObjectId;
+
+/**
+ * A Java file reported by the diff scan, together with the blob ids of its old and new revisions.
+ * A missing revision is represented by {@link ObjectId#zeroId()}, as in {@link org.eclipse.jgit.diff.DiffEntry}.
+ * Renamed and copied files carry both paths; added and deleted files have the same path on both sides.
+ */
+public class ChangedFile {
+    private final ChangeType changeType;
+    private final String oldPath;
+    private final String path;
+    private final ObjectId oldBlobId;
+    private final ObjectId newBlobId;
+
+    public ChangedFile(ChangeType changeType, String oldPath, String path, ObjectId oldBlobId, ObjectId newBlobId) {
+        this.changeType = changeType;
+        this.oldPath = oldPath;
+        this.path = path;
+        this.oldBlobId = oldBlobId != null ? oldBlobId : ObjectId.zeroId();
+        this.newBlobId = newBlobId != null ? newBlobId : ObjectId.zeroId();
+    }
+
+    public ChangeType getChangeType() { return changeType; }
+    /** Path in the old revision; differs from {@link #getPath()} for renames and copies */
+    public String getOldPath() { return oldPath; }
+    public String getPath() { return path; }
+    public ObjectId getOldBlobId() { return oldBlobId; }
+    public ObjectId getNewBlobId() { return newBlobId; }
+
+    /**
+     * Whether the file was renamed or copied from another path
+     */
+    public boolean isMoved() {
+        return changeType == ChangeType.RENAME || changeType == ChangeType.COPY;
+    }
+
+    /** Whether the old revision exists, i.e. the file is not added */
+    public boolean hasOldBlob() { return changeType != ChangeType.ADD && !ObjectId.zeroId().equals(oldBlobId); }
+    /** Whether the new revision exists, i.e. the file is not deleted */
+    public boolean hasNewBlob() { return changeType != ChangeType.DELETE && !ObjectId.zeroId().equals(newBlobId); }
+
+    /**
+     * Key identifying the blob pair; files with equal keys have identical method changes
+     */
+    public String getBlobPairKey() {
+        // Moves report unchanged methods, in-place changes do not
+        return oldBlobId.name() + ":" + newBlobId.name() + (isMoved() ? ":" + changeType.name() : "");
+    }
+
+    @Override
+    public String toString() {
+        if (isMoved()) {
+            return String.format("ChangedFile{%s '%s' -> '%s', old=%s, new=%s}",
+                                 changeType, oldPath, path, oldBlobId.name(), newBlobId.name());
+        }
+        return String.format("ChangedFile{path='%s', old=%s, new=%s}", path, oldBlobId.name(), newBlobId.name());
+    }
+}
@@ -0,0 +1,123 @@
+package net.gaeco.referrerfinder;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Function changes of a commit range, attributed to the commits that made them.
+ * Every non-merge commit of the range is compared with its parent; each function id maps to the commits
+ * that touched it, oldest first. Function ids are those of the commit that touched the function, so a
+ * method in a moved file is listed under its new id from the commit that moved it.
+ */
+public class CommitRangeResult {
+
+    /**
+     * How a commit touched a function
+     */
+    public enum ChangeKind { ADDED, DELETED, CHANGED, MOVED }
+
+    /**
+     * One commit touching one function
+     */
+    public static class CommitTouch {
+        private final String commitId;
+        private final ChangeKind kind;
+
+        CommitTouch(String commitId, ChangeKind kind) {
+            this.commitId = commitId;
+            this.kind = kind;
+        }
+
+        public String getCommitId() { return commitId; }
+        public ChangeKind getKind() { return kind; }
+
+        @Override
+        public String toString() {
+            return commitId + " " + kind;
+        }
+    }
+
+    private final String oldCommitId;
+    private final String newCommitId;
+    private final List<String> commits = new ArrayList<>();
+    private final Map<String, List<CommitTouch>> touchesByFunction = new TreeMap<>();
+    private final AnalysisMetrics metrics = new AnalysisMetrics();
+    private int skippedCommits;
+
+    public CommitRangeResult(String oldCommitId, String newCommitId) {
+        this.oldCommitId = oldCommitId;
+        this.newCommitId = newCommitId;
+    }
+
+    /**
+     * Adds the changes of the next commit of the range; commits must be added oldest first
+     */
+    void addCommit(String commitId, GitFunctionAnalyzer.FunctionChangeResult changes) {
+        commits.add(commitId);
+        touch(commitId, changes.getAddedFunctions(), ChangeKind.ADDED);
+        touch(commitId, changes.getDeletedFunctions(), ChangeKind.DELETED);
+        touch(commitId, changes.getChangedFunctions(), ChangeKind.CHANGED);
+        touch(commitId, changes.getMovedFunctions().keySet(), ChangeKind.MOVED);
+        metrics.add(changes.getMetrics());
+    }
+
+    private void touch(String commitId, Iterable<String> functions, ChangeKind kind) {
+        for (String function : functions) {
+            touchesByFunction.computeIfAbsent(function, k -> new ArrayList<>()).add(new CommitTouch(commitId, kind));
+        }
+    }
+
+    void setSkippedCommits(int skippedCommits) { this.skippedCommits = skippedCommits; }
+
+    public String getOldCommitId() { return oldCommitId; }
+    public String getNewCommitId() { return newCommitId; }
+
+    /** Analyzed commits, oldest first */
+    public List<String> getCommits() { return Collections.unmodifiableList(commits); }
+
+    /** Merge and root commits in the range, which have no single parent to compare with */
+    public int getSkippedCommits() { return skippedCommits; }
+
+    /** Every touched function id with the commits that touched it, oldest first */
+    public Map<String, List<CommitTouch>> getTouchesByFunction() {
+        return Collections.unmodifiableMap(touchesByFunction);
+    }
+
+    /** The commits that touched a function, oldest first, or an empty list */
+    public List<CommitTouch> getTouches(String function) {
+        List<CommitTouch> touches = touchesByFunction.get(function);
+        return touches != null ? Collections.unmodifiableList(touches) : Collections.emptyList();
+    }
+
+    /** Metrics summed over all commit steps; phase times are summed over threads as well */
+    public AnalysisMetrics getMetrics() { return metrics; }
+
+    /**
+     * Converts the attribution to plain maps for JSON responses: function id to a list of
+     * {@code {"commit": ..., "kind": ...}} entries
+     */
+    public Map<String, Object> toMap() {
+        Map<String, Object> functions = new LinkedHashMap<>();
+        touchesByFunction.forEach((function, touches) -> {
+            List<Map<String, String>> entries = new ArrayList<>(touches.size());
+            for (CommitTouch touch : touches) {
+                Map<String, String> entry = new LinkedHashMap<>();
+                entry.put("commit", touch.getCommitId());
+                entry.put("kind", touch.getKind().name());
+                entries.add(entry);
+            }
+            functions.put(function, entries);
+        });
+        return functions;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("CommitRangeResult{oldCommit='%s', newCommit='%s', commits=%d, skipped=%d, functions=%d}",
+                oldCommitId, newCommitId, commits.size(), skippedCommits, touchesByFunction.size());
+    }
+}
@@ -0,0 +1,27 @@
+package net.gaeco.referrerfinder;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event for the tree diff between two commits
+ */
+@Name("net.gaeco.referrerfinder.DiffScan")
+@Label("Diff Scan")
+@Category({"Referrer Finder"})
+@StackTrace(false)
+@Description("DiffFormatter.scan over the trees of two commits")
+class DiffScanEvent extends jdk.jfr.Event {
+
+    @Label("Old Commit")
+    String oldCommitId;
+
+    @Label("New Commit")
+    String newCommitId;
+
+    @Label("Changed Paths")
+    int changedPaths;
+}
@@ -0,0 +1,29 @@
+package net.gaeco.referrerfinder;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event for parsing one Java source file
+ */
+@Name("net.gaeco.referrerfinder.FileParse")
+@Label("File Parse")
+@Category({"Referrer Finder"})
+@StackTrace(false)
+@Description("Parsing of one Java source file into a method index or referrer graph entry")
+class FileParseEvent extends jdk.jfr.Event {
+
+    @Label("Path")
+    String path;
+
+    @Label("Size")
+    @DataAmount
+    long bytes;
+
+    @Label("Successful")
+    boolean success;
+}
@@ -0,0 +1,24 @@
+package net.gaeco.referrerfinder;
+
+/**
+ * Receives function changes as each file's analysis completes, before the whole diff is done.
+ * In parallel mode the callbacks are made from analysis threads and may run concurrently.
+ */
+public interface FunctionChangeListener {
+
+    FunctionChangeListener NONE = (changedFile, delta) -> { };
+
+    /**
+     * Called once after the diff scan with the number of Java files that will be analyzed
+     */
+    default void onScanCompleted(int changedFileCount) {
+    }
+
+    /**
+     * Called when a file has been analyzed, including files without function changes
+     *
+     * @param changedFile the file, with its old path if it was renamed or copied
+     * @param delta the added, deleted, changed and moved method keys of the file
+     */
+    void onFileAnalyzed(ChangedFile changedFile, MethodDelta delta);
+}
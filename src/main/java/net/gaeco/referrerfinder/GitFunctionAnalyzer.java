@@ -2,30 +2,54 @@ package net.gaeco.referrerfinder;
 
 import com.github.javaparser.JavaParser;
 import com.github.javaparser.ParseResult;
+import com.github.javaparser.ParserConfiguration;
 import com.github.javaparser.ast.CompilationUnit;
-import com.github.javaparser.ast.body.ClassOrInterfaceDeclaration;
-import com.github.javaparser.ast.body.MethodDeclaration;
-import com.github.javaparser.ast.visitor.VoidVisitorAdapter;
+import com.github.javaparser.ast.Node;
+import com.github.javaparser.ast.body.BodyDeclaration;
 import org.eclipse.jgit.api.Git;
 import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.diff.DiffConfig;
 import org.eclipse.jgit.diff.DiffEntry;
 import org.eclipse.jgit.diff.DiffFormatter;
+import org.eclipse.jgit.diff.RenameDetector;
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.errors.RevisionSyntaxException;
+import org.eclipse.jgit.lib.AsyncObjectLoaderQueue;
 import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectLoader;
 import org.eclipse.jgit.lib.ObjectReader;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevSort;
 import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.AbstractTreeIterator;
 import org.eclipse.jgit.treewalk.CanonicalTreeParser;
+import org.eclipse.jgit.treewalk.EmptyTreeIterator;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.AndTreeFilter;
+import org.eclipse.jgit.treewalk.filter.PathFilter;
+import org.eclipse.jgit.treewalk.filter.PathFilterGroup;
+import org.eclipse.jgit.treewalk.filter.PathSuffixFilter;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
 import org.eclipse.jgit.util.io.DisabledOutputStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
-import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 /**
@@ -34,21 +58,156 @@ import java.util.stream.Collectors;
 public class GitFunctionAnalyzer {
     
     private static final Logger logger = LoggerFactory.getLogger(GitFunctionAnalyzer.class);
-    private static final String TARGET_PACKAGE = "com.example.myapp";
+    private static final AnalysisScope DEFAULT_SCOPE = AnalysisScope.ofPackages("com.example.myapp");
+    private static final String CACHE_DIRECTORY = "referrer-finder";
+    // Commits analyzed per append to the method history
+    private static final int HISTORY_BATCH_COMMITS = 256;
     
-    // File extensions to exclude from analysis
-    private static final Set<String> EXCLUDED_EXTENSIONS = new HashSet<>(Arrays.asList(
-        ".xml", ".properties", ".yml", ".yaml", ".json", ".md", ".txt", 
-        ".gitignore", ".gitattributes", ".DS_Store", ".class", ".jar",
-        ".war", ".ear", ".zip", ".tar", ".gz", ".sql", ".sh", ".bat"
-    ));
+    // Batches per worker thread, so that uneven file sizes still balance across the pool
+    private static final int BATCHES_PER_THREAD = 4;
     
     private final Repository repository;
-    private final JavaParser javaParser;
+    // JavaParser is not thread-safe, so every analysis thread gets its own instance
+    private final ThreadLocal<JavaParser> javaParser;
+    private final File cacheDirectory;
+    private final MethodIndexStore indexStore;
+    private final MethodIndexCache indexCache;
+    private final ReferrerIndexStore referrerStore;
+    // Fixed at construction, as an analyzer may be shared by concurrent analyses using the executor
+    private final ExecutorService executor;
+    private final int parallelism;
+    private final boolean ownsExecutor;
+    private volatile MetricsRecorder metricsRecorder = MetricsRecorder.NONE;
+    private volatile boolean detectRenames = true;
+    private volatile int renameScore = 60;
+    private volatile int renameLimit = -1;
+    private volatile AnalysisScope scope = DEFAULT_SCOPE;
+    private final Map<String, MethodHistoryIndex> methodHistories = new ConcurrentHashMap<>();
+    private final Object historyUpdateLock = new Object();
+    private ExecutorService historyIndexer;
+    private Future<MethodHistoryIndex> historyIndexing;
+    private Throwable historyIndexingFailure;
     
     public GitFunctionAnalyzer(String repositoryPath) throws IOException {
-        this.repository = Git.open(Paths.get(repositoryPath).toFile()).getRepository();
-        this.javaParser = new JavaParser();
+        this(repositoryPath, 1);
+    }
+    
+    /**
+     * Creates an analyzer running per-file analysis on a pool of the given size owned by this analyzer.
+     * A value of 1 or less analyzes sequentially.
+     */
+    public GitFunctionAnalyzer(String repositoryPath, int threads) throws IOException {
+        this(Git.open(Paths.get(repositoryPath).toFile()).getRepository(), threads);
+    }
+    
+    /**
+     * Creates an analyzer over an already opened repository, which is closed by {@link #close()}.
+     * An analyzer may be shared by concurrent analyses; each analysis reads through its own ObjectReader.
+     */
+    public GitFunctionAnalyzer(Repository repository) {
+        this(repository, 1);
+    }
+    
+    /**
+     * Creates an analyzer over an already opened repository, running per-file analysis on a pool of
+     * the given size owned by this analyzer. A value of 1 or less analyzes sequentially.
+     */
+    public GitFunctionAnalyzer(Repository repository, int threads) {
+        this(repository, threads > 1 ? new ForkJoinPool(threads) : null, threads, true);
+    }
+    
+    /**
+     * Creates an analyzer over an already opened repository, running per-file analysis on an externally
+     * managed executor, which is not shut down by {@link #close()}
+     * 
+     * @param executor the executor to use, or null for sequential analysis
+     * @param parallelism the number of threads the executor is expected to use for this analyzer
+     */
+    public GitFunctionAnalyzer(Repository repository, ExecutorService executor, int parallelism) {
+        this(repository, executor, parallelism, false);
+    }
+    
+    private GitFunctionAnalyzer(Repository repository, ExecutorService executor, int parallelism,
+                                boolean ownsExecutor) {
+        this.repository = repository;
+        this.executor = executor;
+        this.parallelism = executor != null ? Math.max(1, parallelism) : 1;
+        this.ownsExecutor = ownsExecutor && executor != null;
+        // Method indexes are persisted per blob id under .git/referrer-finder/ and reused across runs
+        this.cacheDirectory = new File(repository.getDirectory(), CACHE_DIRECTORY);
+        this.indexStore = new MethodIndexStore(cacheDirectory);
+        this.indexCache = new MethodIndexCache(indexStore);
+        this.referrerStore = new ReferrerIndexStore(cacheDirectory);
+        // Comments are skipped by fingerprinting, so there is no need to attribute them to nodes.
+        // No language level validation, so that records and other recent syntax are accepted.
+        this.javaParser = ThreadLocal.withInitial(() -> new JavaParser(new ParserConfiguration()
+            .setAttributeComments(false)
+            .setLanguageLevel(ParserConfiguration.LanguageLevel.RAW)));
+    }
+    
+    public Repository getRepository() {
+        return repository;
+    }
+    
+    /**
+     * Sets the recorder that receives the metrics of every completed analysis
+     */
+    public void setMetricsRecorder(MetricsRecorder metricsRecorder) {
+        this.metricsRecorder = metricsRecorder != null ? metricsRecorder : MetricsRecorder.NONE;
+    }
+    
+    /**
+     * Enables or disables rename and copy detection in the diff scan (enabled by default).
+     * Without it a moved file is reported as all of its methods deleted and added.
+     */
+    public void setRenameDetection(boolean detectRenames) {
+        this.detectRenames = detectRenames;
+    }
+    
+    /**
+     * Sets the similarity, as a percentage, above which a deleted and an added file are paired as a rename
+     */
+    public void setRenameScore(int renameScore) {
+        if (renameScore < 0 || renameScore > 100) {
+            throw new IllegalArgumentException("Rename score must be between 0 and 100");
+        }
+        this.renameScore = renameScore;
+    }
+    
+    /**
+     * Caps the cost of inexact rename detection: when the deleted or the added files outnumber the limit,
+     * only exact renames (identical blobs) are detected. A negative value keeps the repository's
+     * {@code diff.renameLimit}.
+     */
+    public void setRenameLimit(int renameLimit) {
+        this.renameLimit = renameLimit;
+    }
+    
+    /**
+     * Sets the packages and paths whose Java files are analyzed (by default the package {@code com.example.myapp}).
+     * The scope is applied while diffing, so out-of-scope trees are never read; as a consequence a file moved
+     * across the scope boundary shows up as deleted or added rather than moved.
+     */
+    public void setScope(AnalysisScope scope) {
+        this.scope = scope != null ? scope : AnalysisScope.ALL;
+    }
+    
+    public AnalysisScope getScope() {
+        return scope;
+    }
+    
+    /**
+     * Resolves a revision (SHA, abbreviated SHA, branch or tag) to the id of the commit it points to
+     * 
+     * @param revision the revision to resolve
+     * @return the commit id, or null if the revision does not name a commit
+     */
+    public ObjectId resolveCommit(String revision) throws IOException {
+        try {
+            return repository.resolve(revision + "^{commit}");
+        } catch (RevisionSyntaxException e) {
+            return null;
+        }
     }
     
     /**
@@ -59,7 +218,40 @@ public class GitFunctionAnalyzer {
      * @return FunctionChangeResult containing the analysis results
      */
     public FunctionChangeResult analyzeFunctionChanges(String oldCommitId, String newCommitId) {
+        return analyzeFunctionChanges(oldCommitId, newCommitId, FunctionChangeListener.NONE);
+    }
+    
+    /**
+     * Analyzes function changes between two git commits, reporting each file's changes as soon as it is analyzed
+     * 
+     * @param oldCommitId the old commit ID
+     * @param newCommitId the new commit ID
+     * @param listener receives the changes of every analyzed file
+     * @return FunctionChangeResult containing the analysis results
+     */
+    public FunctionChangeResult analyzeFunctionChanges(String oldCommitId, String newCommitId,
+                                                       FunctionChangeListener listener) {
+        return analyzeFunctionChanges(oldCommitId, newCommitId, listener, true);
+    }
+    
+    /**
+     * Streams function changes between two git commits to a listener without retaining them,
+     * so memory stays flat regardless of the diff size
+     * 
+     * @param oldCommitId the old commit ID
+     * @param newCommitId the new commit ID
+     * @param listener receives the changes of every analyzed file
+     * @return FunctionChangeResult holding only the change counts
+     */
+    public FunctionChangeResult streamFunctionChanges(String oldCommitId, String newCommitId,
+                                                      FunctionChangeListener listener) {
+        return analyzeFunctionChanges(oldCommitId, newCommitId, listener, false);
+    }
+    
+    private FunctionChangeResult analyzeFunctionChanges(String oldCommitId, String newCommitId,
+                                                        FunctionChangeListener listener, boolean retainFunctions) {
         logger.info("Analyzing function changes between commits: {} and {}", oldCommitId, newCommitId);
+        long startTime = System.nanoTime();
         
         try {
             // Get the two commits
@@ -70,23 +262,40 @@ public class GitFunctionAnalyzer {
                 throw new IllegalArgumentException("Invalid commit IDs provided");
             }
             
-            // Get changed Java files
-            List<String> changedJavaFiles = getChangedJavaFiles(oldId, newId);
-            logger.info("Found {} changed Java files", changedJavaFiles.size());
-            
             // Analyze function changes for each file
-            FunctionChangeResult result = new FunctionChangeResult();
+            FunctionChangeResult result = new FunctionChangeResult(retainFunctions);
             result.setOldCommitId(oldCommitId);
             result.setNewCommitId(newCommitId);
+            AnalysisMetrics metrics = result.getMetrics();
             
-            for (String javaFile : changedJavaFiles) {
-                analyzeFileFunctionChanges(javaFile, oldId, newId, result);
+            // One reader serves the diff scan and every blob load
+            try (ObjectReader reader = repository.newObjectReader()) {
+                // Get changed Java files
+                long scanStart = System.nanoTime();
+                List<ChangedFile> changedJavaFiles = getChangedJavaFiles(reader, oldId, newId);
+                metrics.addPhaseTime(AnalysisMetrics.Phase.DIFF_SCAN, System.nanoTime() - scanStart);
+                metrics.setChangedFiles(changedJavaFiles.size());
+                logger.info("Found {} changed Java files", changedJavaFiles.size());
+                listener.onScanCompleted(changedJavaFiles.size());
+                
+                List<List<ChangedFile>> blobPairs = groupByBlobPair(changedJavaFiles);
+                if (executor == null || blobPairs.size() < 2) {
+                    analyzeBlobPairs(reader, blobPairs, result, listener);
+                } else {
+                    analyzeBlobPairsInParallel(blobPairs, result, listener);
+                }
+                logger.info("Analyzed {} distinct blob pairs", blobPairs.size());
             }
             
-            logger.info("Analysis completed. Added: {}, Deleted: {}, Changed: {}", 
-                       result.getAddedFunctions().size(),
-                       result.getDeletedFunctions().size(),
-                       result.getChangedFunctions().size());
+            metrics.setTotalTime(System.nanoTime() - startTime);
+            metrics.publishTo(metricsRecorder);
+            
+            logger.info("Analysis completed. Added: {}, Deleted: {}, Changed: {}, Moved: {}", 
+                       result.getAddedCount(),
+                       result.getDeletedCount(),
+                       result.getChangedCount(),
+                       result.getMovedCount());
+            logger.info("Analysis metrics: {}", metrics);
             
             return result;
             
@@ -97,310 +306,1257 @@ public class GitFunctionAnalyzer {
     }
     
     /**
-     * Gets list of changed Java files between two commits
-     * Excludes all non-Java files from analysis
+     * Analyzes every commit of a range against its parent and attributes each function change to its commit.
+     * Merge commits are skipped, as their changes are attributed to the commits being merged. Commits are
+     * analyzed in parallel when an executor is set; the method index cache is shared by all of them, so a
+     * blob is parsed once however many commits it appears in.
+     * 
+     * @param oldCommitId the commit the range starts after (exclusive)
+     * @param newCommitId the last commit of the range (inclusive)
+     * @return CommitRangeResult mapping each touched function to its commits, oldest first
      */
-    private List<String> getChangedJavaFiles(ObjectId oldId, ObjectId newId) throws IOException, GitAPIException {
-        List<String> changedFiles = new ArrayList<>();
-        int totalChangedFiles = 0;
-        int excludedFiles = 0;
+    public CommitRangeResult analyzeCommitRange(String oldCommitId, String newCommitId) {
+        logger.info("Analyzing commit range: {}..{}", oldCommitId, newCommitId);
+        long startTime = System.nanoTime();
         
-        try (RevWalk revWalk = new RevWalk(repository);
-             ObjectReader reader = repository.newObjectReader()) {
+        try {
+            ObjectId oldId = resolveCommit(oldCommitId);
+            ObjectId newId = resolveCommit(newCommitId);
+            if (oldId == null || newId == null) {
+                throw new IllegalArgumentException("Invalid commit IDs provided");
+            }
             
-            RevCommit oldCommit = revWalk.parseCommit(oldId);
-            RevCommit newCommit = revWalk.parseCommit(newId);
+            // Each step is a commit and its only parent, oldest first
+            List<ObjectId[]> steps = new ArrayList<>();
+            int skippedCommits = 0;
+            try (RevWalk revWalk = new RevWalk(repository)) {
+                revWalk.markStart(revWalk.parseCommit(newId));
+                revWalk.markUninteresting(revWalk.parseCommit(oldId));
+                revWalk.sort(RevSort.TOPO);
+                revWalk.sort(RevSort.REVERSE, true);
+                for (RevCommit commit : revWalk) {
+                    if (commit.getParentCount() != 1) {
+                        logger.debug("Skipping commit {} with {} parents", commit.name(), commit.getParentCount());
+                        skippedCommits++;
+                        continue;
+                    }
+                    steps.add(new ObjectId[] { commit.getParent(0).copy(), commit.copy() });
+                }
+            }
+            logger.info("Commit range has {} commits to analyze, {} skipped", steps.size(), skippedCommits);
             
-            CanonicalTreeParser oldTree = new CanonicalTreeParser();
-            CanonicalTreeParser newTree = new CanonicalTreeParser();
+            FunctionChangeResult[] stepResults = analyzeCommitSteps(steps, true);
+            
+            CommitRangeResult result = new CommitRangeResult(oldCommitId, newCommitId);
+            result.setSkippedCommits(skippedCommits);
+            for (int i = 0; i < steps.size(); i++) {
+                result.addCommit(steps.get(i)[1].name(), stepResults[i]);
+            }
+            result.getMetrics().setTotalTime(System.nanoTime() - startTime);
             
-            oldTree.reset(reader, oldCommit.getTree());
-            newTree.reset(reader, newCommit.getTree());
+            logger.info("Commit range analysis completed: {}", result);
+            logger.info("Commit range metrics: {}", result.getMetrics());
+            return result;
+            
+        } catch (Exception e) {
+            logger.error("Error analyzing commit range", e);
+            throw new RuntimeException("Failed to analyze commit range", e);
+        }
+    }
+    
+    /**
+     * Analyzes each step, a parent and a commit, on the executor if there is one
+     * 
+     * @param publishMetrics whether each step reports its metrics to the recorder like a regular analysis
+     */
+    private FunctionChangeResult[] analyzeCommitSteps(List<ObjectId[]> steps, boolean publishMetrics)
+            throws IOException, GitAPIException {
+        FunctionChangeResult[] stepResults = new FunctionChangeResult[steps.size()];
+        if (executor == null || steps.size() < 2) {
+            try (ObjectReader reader = repository.newObjectReader()) {
+                analyzeCommitSteps(reader, steps, 0, steps.size(), stepResults, publishMetrics);
+            }
+        } else {
+            analyzeCommitStepsInParallel(steps, stepResults, publishMetrics);
+        }
+        return stepResults;
+    }
+    
+    /**
+     * Analyzes the steps from start (inclusive) to end (exclusive) of a commit range, each against its parent
+     */
+    private void analyzeCommitSteps(ObjectReader reader, List<ObjectId[]> steps, int start, int end,
+                                    FunctionChangeResult[] stepResults, boolean publishMetrics)
+            throws IOException, GitAPIException {
+        for (int i = start; i < end; i++) {
+            ObjectId parentId = steps.get(i)[0];
+            ObjectId commitId = steps.get(i)[1];
+            long stepStart = System.nanoTime();
             
-            DiffFormatter diffFormatter = new DiffFormatter(DisabledOutputStream.INSTANCE);
-            diffFormatter.setRepository(repository);
+            FunctionChangeResult result = new FunctionChangeResult();
+            result.setOldCommitId(parentId.name());
+            result.setNewCommitId(commitId.name());
+            AnalysisMetrics metrics = result.getMetrics();
             
-            List<DiffEntry> diffs = diffFormatter.scan(oldTree, newTree);
+            long scanStart = System.nanoTime();
+            List<ChangedFile> changedJavaFiles = getChangedJavaFiles(reader, parentId, commitId);
+            metrics.addPhaseTime(AnalysisMetrics.Phase.DIFF_SCAN, System.nanoTime() - scanStart);
+            metrics.setChangedFiles(changedJavaFiles.size());
             
-            for (DiffEntry diff : diffs) {
-                String filePath = diff.getNewPath();
-                totalChangedFiles++;
-                
-                // Skip null paths (deleted files)
-                if (filePath == null) {
-                    excludedFiles++;
-                    continue;
+            analyzeBlobPairs(reader, groupByBlobPair(changedJavaFiles), result, FunctionChangeListener.NONE);
+            metrics.setTotalTime(System.nanoTime() - stepStart);
+            if (publishMetrics) {
+                metrics.publishTo(metricsRecorder);
+            }
+            stepResults[i] = result;
+        }
+    }
+    
+    /**
+     * Spreads the steps of a commit range across the executor in batches of consecutive commits,
+     * which share most of their blobs, each batch reading through its own reader
+     */
+    private void analyzeCommitStepsInParallel(List<ObjectId[]> steps, FunctionChangeResult[] stepResults,
+                                              boolean publishMetrics) throws IOException {
+        int batchCount = Math.min(steps.size(), parallelism * BATCHES_PER_THREAD);
+        int batchSize = (steps.size() + batchCount - 1) / batchCount;
+        logger.info("Analyzing {} commits in parallel ({} threads, batches of {})",
+                   steps.size(), parallelism, batchSize);
+        
+        List<Future<?>> futures = new ArrayList<>();
+        for (int start = 0; start < steps.size(); start += batchSize) {
+            int batchStart = start;
+            int batchEnd = Math.min(start + batchSize, steps.size());
+            futures.add(executor.submit(() -> {
+                try (ObjectReader reader = repository.newObjectReader()) {
+                    analyzeCommitSteps(reader, steps, batchStart, batchEnd, stepResults, publishMetrics);
                 }
-                
-                // Exclude non-Java files and other excluded extensions
-                String lowerFilePath = filePath.toLowerCase();
-                boolean isExcluded = EXCLUDED_EXTENSIONS.stream().anyMatch(lowerFilePath::endsWith);
-                
-                if (!filePath.endsWith(".java") || isExcluded) {
-                    logger.debug("Excluding file: {} (non-Java or excluded extension)", filePath);
-                    excludedFiles++;
-                    continue;
+                return null;
+            }));
+        }
+        awaitAll(futures, "commits");
+    }
+    
+    /**
+     * Gets the method history of the scope, first indexing the commits reachable from the given commit
+     * that are not indexed yet. The history is persisted, so only commits added since the last update
+     * are analyzed.
+     * 
+     * @param commitId the commit whose ancestry must be indexed, typically HEAD
+     * @return MethodHistoryIndex answering per-function history queries
+     */
+    public MethodHistoryIndex getMethodHistory(String commitId) {
+        try {
+            ObjectId commit = resolveCommit(commitId);
+            if (commit == null) {
+                throw new IllegalArgumentException("Invalid commit ID provided");
+            }
+            return updateMethodHistory(commit);
+        } catch (IOException | GitAPIException e) {
+            logger.error("Error indexing method history", e);
+            throw new RuntimeException("Failed to index method history", e);
+        }
+    }
+    
+    /**
+     * Gets the method history of the scope as far as it is indexed, without indexing anything
+     */
+    public MethodHistoryIndex getIndexedMethodHistory() {
+        return methodHistoryOf(scope);
+    }
+    
+    /**
+     * Indexes the method history up to a commit on a background thread of this analyzer.
+     * While a run is pending it is returned instead of starting another one. Queries against
+     * {@link #getIndexedMethodHistory()} see the commits indexed so far in the meantime.
+     */
+    public synchronized Future<MethodHistoryIndex> indexMethodHistoryInBackground(String commitId) {
+        if (historyIndexing != null) {
+            if (!historyIndexing.isDone()) {
+                return historyIndexing;
+            }
+            historyIndexingFailure = failureOf(historyIndexing);
+        }
+        if (historyIndexer == null) {
+            historyIndexer = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "method-history-indexer");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        historyIndexing = historyIndexer.submit(() -> getMethodHistory(commitId));
+        return historyIndexing;
+    }
+    
+    /**
+     * Whether a background run of {@link #indexMethodHistoryInBackground(String)} is pending
+     */
+    public synchronized boolean isIndexingInBackground() {
+        return historyIndexing != null && !historyIndexing.isDone();
+    }
+    
+    /**
+     * Gets the failure of the last finished background run, or null if it succeeded or none has finished
+     */
+    public synchronized Throwable getBackgroundIndexingFailure() {
+        if (historyIndexing != null && historyIndexing.isDone()) {
+            return failureOf(historyIndexing);
+        }
+        return historyIndexingFailure;
+    }
+    
+    private static Throwable failureOf(Future<?> future) {
+        try {
+            future.get();
+            return null;
+        } catch (ExecutionException e) {
+            return e.getCause();
+        } catch (CancellationException e) {
+            return e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return e;
+        }
+    }
+    
+    private MethodHistoryIndex methodHistoryOf(AnalysisScope scope) {
+        // Histories cover only the functions in scope, and which functions count as moved depends on
+        // the rename settings, so they are stored per scope and settings
+        String historyId = scope.getId() + (detectRenames ? "-r" + renameScore : "-n");
+        return methodHistories.computeIfAbsent(historyId, id -> MethodHistoryIndex.open(cacheDirectory, id));
+    }
+    
+    /**
+     * Appends the commits reachable from a commit but not yet indexed to the method history, oldest first
+     */
+    private MethodHistoryIndex updateMethodHistory(ObjectId target) throws IOException, GitAPIException {
+        MethodHistoryIndex history = methodHistoryOf(scope);
+        
+        // One update at a time; queries are answered from the commits indexed so far meanwhile
+        synchronized (historyUpdateLock) {
+            if (history.isIndexed(target)) {
+                return history;
+            }
+            
+            // Each step is a commit and its parent: the empty tree for a root commit, null for a merge
+            List<ObjectId[]> steps = new ArrayList<>();
+            List<Integer> commitTimes = new ArrayList<>();
+            Set<ObjectId> tips = history.getTips();
+            try (RevWalk revWalk = new RevWalk(repository)) {
+                revWalk.markStart(revWalk.parseCommit(target));
+                for (ObjectId tip : tips) {
+                    try {
+                        revWalk.markUninteresting(revWalk.parseCommit(tip));
+                    } catch (MissingObjectException e) {
+                        logger.debug("Ignoring method history tip {} missing from the repository", tip.name());
+                    }
                 }
-                
-                // Only include files from the target package
-                if (!filePath.contains(TARGET_PACKAGE.replace('.', '/'))) {
-                    logger.debug("Excluding file outside target package: {}", filePath);
-                    excludedFiles++;
-                    continue;
+                revWalk.sort(RevSort.TOPO);
+                revWalk.sort(RevSort.REVERSE, true);
+                for (RevCommit commit : revWalk) {
+                    if (history.isIndexed(commit)) {
+                        continue;
+                    }
+                    ObjectId parent = commit.getParentCount() == 0 ? ObjectId.zeroId()
+                                      : commit.getParentCount() == 1 ? commit.getParent(0).copy() : null;
+                    steps.add(new ObjectId[] { parent, commit.copy() });
+                    commitTimes.add(commit.getCommitTime());
+                }
+            }
+            logger.info("Indexing method history up to {}: {} new commits", target.name(), steps.size());
+            
+            // Appended in batches, so that an interrupted run keeps what it has indexed
+            for (int start = 0; start < steps.size(); start += HISTORY_BATCH_COMMITS) {
+                int end = Math.min(start + HISTORY_BATCH_COMMITS, steps.size());
+                List<ObjectId> commitIds = new ArrayList<>();
+                List<ObjectId[]> analyzedSteps = new ArrayList<>();
+                for (ObjectId[] step : steps.subList(start, end)) {
+                    commitIds.add(step[1]);
+                    if (step[0] != null) {
+                        analyzedSteps.add(step);
+                    }
                 }
+                FunctionChangeResult[] analyzed = analyzeCommitSteps(analyzedSteps, false);
                 
-                logger.debug("Including Java file for analysis: {}", filePath);
-                changedFiles.add(filePath);
+                List<FunctionChangeResult> changes = new ArrayList<>();
+                int next = 0;
+                for (ObjectId[] step : steps.subList(start, end)) {
+                    changes.add(step[0] != null ? analyzed[next++] : null);
+                }
+                history.append(commitIds, commitTimes.subList(start, end), changes);
+                logger.debug("Method history indexed {} of {} commits", end, steps.size());
             }
+            
+            history.setTips(mergeTips(tips, target));
+            logger.info("Method history indexed up to {}: {} commits, {} functions",
+                       target.name(), history.getCommitCount(), history.getFunctionCount());
+            return history;
         }
+    }
+    
+    /**
+     * Gets the tips after indexing a commit: the commit itself and the old tips that are not its ancestors
+     */
+    private List<ObjectId> mergeTips(Set<ObjectId> tips, ObjectId target) throws IOException {
+        List<ObjectId> merged = new ArrayList<>();
+        merged.add(target.copy());
+        try (RevWalk revWalk = new RevWalk(repository)) {
+            RevCommit targetCommit = revWalk.parseCommit(target);
+            for (ObjectId tip : tips) {
+                try {
+                    if (!revWalk.isMergedInto(revWalk.parseCommit(tip), targetCommit)) {
+                        merged.add(tip);
+                    }
+                } catch (MissingObjectException e) {
+                    logger.debug("Dropping method history tip {} missing from the repository", tip.name());
+                }
+                revWalk.reset();
+            }
+        }
+        return merged;
+    }
+    
+    /**
+     * Attributes every function of a revision to the commit that last changed its fingerprint.
+     * 
+     * Works like line blame, but on method indexes: the functions of each file are handed from a commit to
+     * its parents until the commit that changed them is found. A file whose blob id is the same in a parent
+     * is handed over whole without being read, and the tree comparison skips unchanged subtrees, so only
+     * commits that actually changed a blamed file cost blob reads, and those mostly hit the index cache.
+     * Renames are followed; in a merge, a function goes to the first parent holding it unchanged.
+     * 
+     * @param commitId the revision to blame
+     * @param path a file or directory to restrict the blame to, or null for every file in scope
+     * @return MethodBlameResult mapping each function id of the revision to its commit
+     * @throws IllegalArgumentException if the commit does not exist or the path is invalid, see {@link #normalizePath}
+     */
+    public MethodBlameResult blameMethods(String commitId, String path) {
+        logger.info("Blaming methods of {} at {}", path != null ? path : "scope", commitId);
+        long startTime = System.nanoTime();
+        String filePath = path != null ? normalizePath(path) : null;
         
-        logger.info("File filtering complete. Total changed files: {}, Excluded: {}, Java files for analysis: {}", 
-                   totalChangedFiles, excludedFiles, changedFiles.size());
+        try (ObjectReader reader = repository.newObjectReader();
+             RevWalk revWalk = new RevWalk(reader)) {
+            
+            ObjectId commit = resolveCommit(commitId);
+            if (commit == null) {
+                throw new IllegalArgumentException("Invalid commit ID provided");
+            }
+            RevCommit start = revWalk.parseCommit(commit);
+            AnalysisScope scope = this.scope;
+            MethodBlameResult result = new MethodBlameResult(commitId);
+            AnalysisMetrics metrics = result.getMetrics();
+            
+            // The functions of the revision, by file
+            List<ChangedFile> files = new ArrayList<>();
+            try (TreeWalk treeWalk = new TreeWalk(reader)) {
+                treeWalk.addTree(start.getTree());
+                treeWalk.setRecursive(true);
+                treeWalk.setFilter(filePath == null ? analyzedFilesFilter(scope)
+                                   : AndTreeFilter.create(PathFilter.create(filePath), analyzedFilesFilter(scope)));
+                while (treeWalk.next()) {
+                    String file = treeWalk.getPathString();
+                    files.add(new ChangedFile(DiffEntry.ChangeType.ADD, file, file,
+                                              ObjectId.zeroId(), treeWalk.getObjectId(0)));
+                }
+            }
+            Map<ObjectId, MethodIndex> indexes = loadMethodIndexes(reader, files, metrics);
+            
+            Map<String, BlamedFile> startFiles = new LinkedHashMap<>();
+            int pendingFunctions = 0;
+            for (ChangedFile file : files) {
+                BlamedFile blamedFile = new BlamedFile(file.getPath(), file.getNewBlobId());
+                for (String function : indexes.getOrDefault(file.getNewBlobId(), MethodIndex.EMPTY).keys()) {
+                    blamedFile.add(function, Collections.singletonList(file.getPath() + "::" + function));
+                    pendingFunctions++;
+                }
+                if (!blamedFile.functions.isEmpty()) {
+                    startFiles.put(file.getPath(), blamedFile);
+                }
+            }
+            
+            // Topological order hands every commit its functions from all of its children before it is visited
+            Map<RevCommit, Map<String, BlamedFile>> pending = new HashMap<>();
+            pending.put(start, startFiles);
+            revWalk.markStart(start);
+            revWalk.sort(RevSort.TOPO);
+            for (RevCommit current : revWalk) {
+                if (pendingFunctions == 0) {
+                    break;
+                }
+                Map<String, BlamedFile> blamedFiles = pending.remove(current);
+                if (blamedFiles != null) {
+                    pendingFunctions -= blameCommit(reader, revWalk, current, blamedFiles, pending, scope, result);
+                }
+            }
+            
+            metrics.setTotalTime(System.nanoTime() - startTime);
+            logger.info("Method blame completed: {}", result);
+            logger.info("Method blame metrics: {}", metrics);
+            return result;
+            
+        } catch (IOException e) {
+            logger.error("Error blaming methods", e);
+            throw new RuntimeException("Failed to blame methods", e);
+        }
+    }
+    
+    /**
+     * Normalizes a file or directory path given relative to the repository root, e.g. by a client.
+     * Trailing slashes are dropped, so {@code src/main/} names the directory {@code src/main}.
+     * 
+     * @throws IllegalArgumentException if the path is empty, absolute or has empty, "." or ".." names
+     */
+    public static String normalizePath(String path) {
+        String normalized = path.trim();
+        while (normalized.endsWith("/")) {
+            normalized = normalized.substring(0, normalized.length() - 1);
+        }
+        if (normalized.isEmpty()) {
+            throw new IllegalArgumentException("Path must name a file or directory: '" + path + "'");
+        }
+        for (String name : normalized.split("/", -1)) {
+            if (name.isEmpty() || ".".equals(name) || "..".equals(name)) {
+                throw new IllegalArgumentException("Invalid path: '" + path + "'");
+            }
+        }
+        return normalized;
+    }
+    
+    /**
+     * Hands the functions of the files blamed at a commit to its parents, and blames the commit for
+     * the functions no parent holds unchanged
+     * 
+     * @return the number of functions blamed on the commit
+     */
+    private int blameCommit(ObjectReader reader, RevWalk revWalk, RevCommit commit, Map<String, BlamedFile> blamedFiles,
+                            Map<RevCommit, Map<String, BlamedFile>> pending, AnalysisScope scope,
+                            MethodBlameResult result) throws IOException {
+        result.addCommitInspected();
+        Map<String, BlamedFile> remaining = new LinkedHashMap<>(blamedFiles);
+        RevCommit[] parents = commit.getParents();
+        // Per parent, the path and blob of every remaining file that differs from it (a zero id if absent)
+        List<Map<String, String>> parentPaths = new ArrayList<>();
+        List<Map<String, ObjectId>> parentBlobs = new ArrayList<>();
         
-        return changedFiles;
+        for (RevCommit parent : parents) {
+            revWalk.parseHeaders(parent);
+            Map<String, ObjectId> differing = new HashMap<>();
+            try (TreeWalk treeWalk = new TreeWalk(reader)) {
+                treeWalk.addTree(commit.getTree());
+                treeWalk.addTree(parent.getTree());
+                treeWalk.setRecursive(true);
+                treeWalk.setFilter(AndTreeFilter.create(PathFilterGroup.createFromStrings(remaining.keySet()),
+                                                        TreeFilter.ANY_DIFF));
+                while (treeWalk.next()) {
+                    differing.put(treeWalk.getPathString(), treeWalk.getObjectId(1));
+                }
+            }
+            
+            // A file with the same blob in the parent goes there whole
+            Iterator<BlamedFile> it = remaining.values().iterator();
+            while (it.hasNext()) {
+                BlamedFile blamedFile = it.next();
+                if (!differing.containsKey(blamedFile.path)) {
+                    pendingFile(pending, parent, blamedFile.path, blamedFile.blobId).addAll(blamedFile);
+                    it.remove();
+                }
+            }
+            
+            Map<String, String> paths = new HashMap<>();
+            Map<String, ObjectId> blobs = new HashMap<>();
+            List<String> missing = new ArrayList<>();
+            for (Map.Entry<String, ObjectId> entry : differing.entrySet()) {
+                if (ObjectId.zeroId().equals(entry.getValue())) {
+                    missing.add(entry.getKey());
+                } else {
+                    paths.put(entry.getKey(), entry.getKey());
+                    blobs.put(entry.getKey(), entry.getValue());
+                }
+            }
+            // A file missing from the parent may have been renamed or copied from another one
+            if (!missing.isEmpty()) {
+                for (DiffEntry diff : findRenameSources(reader, parent, commit, scope, missing)) {
+                    paths.put(diff.getNewPath(), diff.getOldPath());
+                    blobs.put(diff.getNewPath(), diff.getOldId().toObjectId());
+                }
+            }
+            parentPaths.add(paths);
+            parentBlobs.add(blobs);
+            if (remaining.isEmpty()) {
+                return 0;
+            }
+        }
+        
+        // The remaining files changed against every parent: compare their functions
+        List<ChangedFile> changedFiles = new ArrayList<>();
+        for (BlamedFile blamedFile : remaining.values()) {
+            for (int i = 0; i < parents.length; i++) {
+                ObjectId parentBlob = parentBlobs.get(i).get(blamedFile.path);
+                if (parentBlob != null) {
+                    changedFiles.add(new ChangedFile(DiffEntry.ChangeType.MODIFY, parentPaths.get(i).get(blamedFile.path),
+                                                     blamedFile.path, parentBlob, blamedFile.blobId));
+                }
+            }
+        }
+        Map<ObjectId, MethodIndex> indexes = loadMethodIndexes(reader, changedFiles, result.getMetrics());
+        result.addFilesCompared(remaining.size());
+        
+        int blamed = 0;
+        int compared = 0;
+        for (BlamedFile blamedFile : remaining.values()) {
+            MethodIndex index = indexes.getOrDefault(blamedFile.blobId, MethodIndex.EMPTY);
+            for (Map.Entry<String, List<String>> function : blamedFile.functions.entrySet()) {
+                boolean handedOver = false;
+                for (int i = 0; i < parents.length && !handedOver; i++) {
+                    ObjectId parentBlob = parentBlobs.get(i).get(blamedFile.path);
+                    if (parentBlob == null) {
+                        continue;
+                    }
+                    MethodIndex parentIndex = indexes.getOrDefault(parentBlob, MethodIndex.EMPTY);
+                    if (!parentIndex.contains(function.getKey()) || !index.contains(function.getKey())) {
+                        continue;
+                    }
+                    compared++;
+                    if (!hasFunctionChanged(function.getKey(), parentIndex, index)) {
+                        pendingFile(pending, parents[i], parentPaths.get(i).get(blamedFile.path), parentBlob)
+                            .add(function.getKey(), function.getValue());
+                        handedOver = true;
+                    }
+                }
+                if (!handedOver) {
+                    for (String functionId : function.getValue()) {
+                        result.blame(functionId, commit.name(), commit.getCommitTime());
+                        blamed++;
+                    }
+                }
+            }
+        }
+        result.getMetrics().addMethodsCompared(compared);
+        return blamed;
+    }
+    
+    private static BlamedFile pendingFile(Map<RevCommit, Map<String, BlamedFile>> pending, RevCommit commit,
+                                          String path, ObjectId blobId) {
+        return pending.computeIfAbsent(commit, k -> new LinkedHashMap<>())
+                      .computeIfAbsent(path, k -> new BlamedFile(path, blobId));
     }
     
     /**
-     * Analyzes function changes in a specific Java file
+     * Pairs the files missing from a parent with the files they were renamed or copied from.
+     * Only the files that changed between the parent and the commit are walked, and only the missing files
+     * are offered as rename targets, so the similarity scoring stays small however large the commit is.
+     * 
+     * @return RENAME and COPY entries whose new path is one of the missing files
      */
-    private void analyzeFileFunctionChanges(String javaFile, ObjectId oldId, ObjectId newId, 
-                                         FunctionChangeResult result) throws IOException {
-        logger.debug("Analyzing function changes in file: {}", javaFile);
+    private List<DiffEntry> findRenameSources(ObjectReader reader, RevCommit parent, RevCommit commit,
+                                              AnalysisScope scope, List<String> missing) throws IOException {
+        Set<String> targets = new HashSet<>(missing);
+        List<DiffEntry> candidates = new ArrayList<>();
+        try (TreeWalk treeWalk = new TreeWalk(reader)) {
+            treeWalk.addTree(parent.getTree());
+            treeWalk.addTree(commit.getTree());
+            treeWalk.setRecursive(true);
+            treeWalk.setFilter(AndTreeFilter.create(analyzedFilesFilter(scope), TreeFilter.ANY_DIFF));
+            for (DiffEntry diff : DiffEntry.scan(treeWalk)) {
+                if (diff.getChangeType() != DiffEntry.ChangeType.ADD || targets.contains(diff.getNewPath())) {
+                    candidates.add(diff);
+                }
+            }
+        }
         
-        // Get file content for both commits
-        String oldContent = getFileContent(javaFile, oldId);
-        String newContent = getFileContent(javaFile, newId);
+        RenameDetector renameDetector = new RenameDetector(reader, repository.getConfig().get(DiffConfig.KEY));
+        renameDetector.setRenameScore(renameScore);
+        if (renameLimit >= 0) {
+            renameDetector.setRenameLimit(renameLimit);
+        }
+        renameDetector.addAll(candidates);
+        List<DiffEntry> sources = new ArrayList<>();
+        for (DiffEntry diff : renameDetector.compute()) {
+            if ((diff.getChangeType() == DiffEntry.ChangeType.RENAME || diff.getChangeType() == DiffEntry.ChangeType.COPY)
+                && targets.contains(diff.getNewPath())) {
+                sources.add(diff);
+            }
+        }
+        return sources;
+    }
+    
+    /**
+     * A file whose functions are being blamed at some commit: method key -> function ids in the blamed revision.
+     * A key can stand for several ids, as copies of a file, or files merged into one, lead back to the same file.
+     */
+    private static class BlamedFile {
+        private final String path;
+        private final ObjectId blobId;
+        private final Map<String, List<String>> functions = new LinkedHashMap<>();
         
-        if (oldContent == null && newContent == null) {
-            return; // File doesn't exist in either commit
+        BlamedFile(String path, ObjectId blobId) {
+            this.path = path;
+            this.blobId = blobId;
         }
         
-        // Parse Java files
-        Set<String> oldFunctions = parseFunctions(oldContent);
-        Set<String> newFunctions = parseFunctions(newContent);
+        void add(String function, List<String> functionIds) {
+            functions.computeIfAbsent(function, k -> new ArrayList<>()).addAll(functionIds);
+        }
         
-        // Find added, deleted, and changed functions
-        Set<String> addedFunctions = new HashSet<>(newFunctions);
-        addedFunctions.removeAll(oldFunctions);
+        void addAll(BlamedFile other) {
+            other.functions.forEach(this::add);
+        }
+    }
+    
+    /**
+     * Groups changed files by blob pair. Identical blob pairs yield identical method changes,
+     * so each distinct pair is analyzed once.
+     */
+    private static List<List<ChangedFile>> groupByBlobPair(List<ChangedFile> changedFiles) {
+        Map<String, List<ChangedFile>> filesByBlobPair = new LinkedHashMap<>();
+        for (ChangedFile changedFile : changedFiles) {
+            filesByBlobPair.computeIfAbsent(changedFile.getBlobPairKey(), k -> new ArrayList<>())
+                           .add(changedFile);
+        }
+        return new ArrayList<>(filesByBlobPair.values());
+    }
+    
+    /**
+     * Waits for every task, cancelling the rest as soon as one fails
+     * 
+     * @param what what the tasks analyze, for error messages
+     */
+    private static void awaitAll(List<Future<?>> futures, String what) throws IOException {
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            futures.forEach(future -> future.cancel(true));
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while analyzing " + what, e);
+        } catch (ExecutionException e) {
+            futures.forEach(future -> future.cancel(true));
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Failed to analyze " + what, cause);
+        }
+    }
+    
+    /**
+     * Gets list of changed Java files in scope between two commits, with the blob ids of both revisions
+     * Package-private for the benchmarks module.
+     */
+    List<ChangedFile> getChangedJavaFiles(ObjectReader reader, ObjectId oldId, ObjectId newId)
+            throws IOException, GitAPIException {
+        List<ChangedFile> changedFiles = new ArrayList<>();
         
-        Set<String> deletedFunctions = new HashSet<>(oldFunctions);
-        deletedFunctions.removeAll(newFunctions);
+        // The scan is the single walk over both trees; it yields the blob ids of every changed Java file in scope
+        for (DiffEntry diff : scanChangedPaths(reader, oldId, newId, scope, detectRenames)) {
+            // The missing side of an add or delete is /dev/null, so a deleted file is known by its old path
+            DiffEntry.ChangeType changeType = diff.getChangeType();
+            String filePath = changeType == DiffEntry.ChangeType.DELETE ? diff.getOldPath() : diff.getNewPath();
+            String oldPath = changeType == DiffEntry.ChangeType.ADD ? diff.getNewPath() : diff.getOldPath();
+            
+            logger.debug("Including Java file for analysis: {} ({})", filePath, changeType);
+            changedFiles.add(new ChangedFile(changeType, oldPath, filePath,
+                                             diff.getOldId().toObjectId(), diff.getNewId().toObjectId()));
+        }
         
-        Set<String> commonFunctions = new HashSet<>(oldFunctions);
-        commonFunctions.retainAll(newFunctions);
+        return changedFiles;
+    }
+    
+    /**
+     * Creates the tree filter passing the Java files in scope. The scope comes first, so that the walk
+     * does not enter trees outside it; the suffix filter then drops every other file.
+     */
+    private static TreeFilter analyzedFilesFilter(AnalysisScope scope) {
+        return AndTreeFilter.create(scope.toTreeFilter(), PathSuffixFilter.create(".java"));
+    }
+    
+    /**
+     * Analyzes a list of distinct blob pairs, each given as the files that share it, and merges the
+     * changes into the result
+     */
+    private void analyzeBlobPairs(ObjectReader reader, List<List<ChangedFile>> blobPairs,
+                                  FunctionChangeResult result, FunctionChangeListener listener) throws IOException {
+        List<ChangedFile> representatives = new ArrayList<>(blobPairs.size());
+        for (List<ChangedFile> files : blobPairs) {
+            representatives.add(files.get(0));
+        }
+        Map<ObjectId, MethodIndex> indexes = loadMethodIndexes(reader, representatives, result.getMetrics());
+        
+        for (List<ChangedFile> files : blobPairs) {
+            long compareStart = System.nanoTime();
+            MethodDelta delta = analyzeFileFunctionChanges(files.get(0), indexes, result.getMetrics());
+            result.getMetrics().addPhaseTime(AnalysisMetrics.Phase.COMPARE, System.nanoTime() - compareStart);
+            for (ChangedFile changedFile : files) {
+                delta.applyTo(changedFile, result);
+                listener.onFileAnalyzed(changedFile, delta);
+            }
+        }
+    }
+    
+    /**
+     * Spreads the blob pairs across the executor in batches. ObjectReader is not thread-safe,
+     * so each batch reads through its own reader.
+     */
+    private void analyzeBlobPairsInParallel(List<List<ChangedFile>> blobPairs, FunctionChangeResult result,
+                                            FunctionChangeListener listener) throws IOException {
+        int batchCount = Math.min(blobPairs.size(), parallelism * BATCHES_PER_THREAD);
+        int batchSize = (blobPairs.size() + batchCount - 1) / batchCount;
+        logger.info("Analyzing {} blob pairs in parallel ({} threads, batches of {})",
+                   blobPairs.size(), parallelism, batchSize);
+        
+        List<Future<?>> futures = new ArrayList<>();
+        for (int start = 0; start < blobPairs.size(); start += batchSize) {
+            List<List<ChangedFile>> batch = blobPairs.subList(start, Math.min(start + batchSize, blobPairs.size()));
+            futures.add(executor.submit(() -> {
+                try (ObjectReader reader = repository.newObjectReader()) {
+                    analyzeBlobPairs(reader, batch, result, listener);
+                }
+                return null;
+            }));
+        }
+        awaitAll(futures, "files");
+    }
+    
+    /**
+     * Analyzes function changes in a specific Java file
+     */
+    private MethodDelta analyzeFileFunctionChanges(ChangedFile changedFile, Map<ObjectId, MethodIndex> indexes,
+                                                   AnalysisMetrics metrics) {
+        String javaFile = changedFile.getPath();
+        logger.debug("Analyzing function changes in file: {}", javaFile);
         
-        // Add results
-        for (String function : addedFunctions) {
-            result.addAddedFunction(javaFile + "::" + function);
+        // Same blob on both sides (e.g. a mode-only change) cannot change any method, unless it moved
+        if (changedFile.getOldBlobId().equals(changedFile.getNewBlobId()) && !changedFile.isMoved()) {
+            return MethodDelta.EMPTY;
         }
         
-        for (String function : deletedFunctions) {
-            result.addDeletedFunction(javaFile + "::" + function);
+        // A missing revision (added or deleted file) has no methods
+        MethodIndex oldIndex = changedFile.hasOldBlob()
+            ? indexes.getOrDefault(changedFile.getOldBlobId(), MethodIndex.EMPTY) : MethodIndex.EMPTY;
+        MethodIndex newIndex = changedFile.hasNewBlob()
+            ? indexes.getOrDefault(changedFile.getNewBlobId(), MethodIndex.EMPTY) : MethodIndex.EMPTY;
+        
+        // Find added, deleted, and changed functions
+        MethodDelta delta = new MethodDelta();
+        int compared = 0;
+        for (String function : newIndex.keys()) {
+            if (!oldIndex.contains(function)) {
+                delta.addAdded(function);
+            }
         }
         
-        // For changed functions, we need to compare method signatures more deeply
-        for (String function : commonFunctions) {
-            if (hasFunctionChanged(javaFile, function, oldContent, newContent)) {
-                result.addChangedFunction(javaFile + "::" + function);
+        for (String function : oldIndex.keys()) {
+            if (!newIndex.contains(function)) {
+                // The source of a copy still exists
+                if (changedFile.getChangeType() != DiffEntry.ChangeType.COPY) {
+                    delta.addDeleted(function);
+                }
+            } else {
+                compared++;
+                if (hasFunctionChanged(function, oldIndex, newIndex)) {
+                    delta.addChanged(function);
+                } else if (changedFile.isMoved()) {
+                    delta.addMoved(function);
+                }
             }
         }
+        metrics.addMethodsCompared(compared);
+        
+        return delta;
     }
     
     /**
-     * Gets file content for a specific commit
+     * Gets the method indexes of every blob referenced by the changed files.
+     * Only the revisions that exist are read: the old blob of a delete, the new blob of an add and both of a modify.
+     * Cached blobs are not read at all; the rest are loaded in one batch through the shared reader
+     * and parsed as they arrive, so no more than one file's content is held at a time.
      */
-    private String getFileContent(String filePath, ObjectId commitId) throws IOException {
-        logger.debug("Getting file content for: {} at commit: {}", filePath, commitId.getName());
+    private Map<ObjectId, MethodIndex> loadMethodIndexes(ObjectReader reader, List<ChangedFile> changedFiles,
+                                                         AnalysisMetrics metrics) throws IOException {
+        Map<ObjectId, MethodIndex> indexes = new HashMap<>();
+        Map<ObjectId, String> pathsToRead = new LinkedHashMap<>();
         
-        try (RevWalk revWalk = new RevWalk(repository);
-             ObjectReader reader = repository.newObjectReader()) {
-            
-            RevCommit commit = revWalk.parseCommit(commitId);
-            
-            // Use a more efficient approach to find the file
-            try {
-                // Try to get the file directly from the tree
-                ObjectId treeId = commit.getTree().getId();
-                org.eclipse.jgit.treewalk.TreeWalk treeWalk = new org.eclipse.jgit.treewalk.TreeWalk(repository);
-                treeWalk.addTree(treeId);
-                treeWalk.setRecursive(true);
-                treeWalk.setFilter(org.eclipse.jgit.treewalk.filter.PathFilter.create(filePath));
-                
-                if (treeWalk.next()) {
-                    logger.debug("Found file: {}", filePath);
-                    byte[] content = reader.open(treeWalk.getObjectId(0)).getBytes();
-                    treeWalk.close();
-                    return new String(content);
+        for (ChangedFile changedFile : changedFiles) {
+            if (changedFile.hasOldBlob()) {
+                collectBlob(changedFile.getOldBlobId(), changedFile.getOldPath(), indexes, pathsToRead, metrics);
+            }
+            if (changedFile.hasNewBlob()) {
+                collectBlob(changedFile.getNewBlobId(), changedFile.getPath(), indexes, pathsToRead, metrics);
+            }
+        }
+        logger.debug("Method indexes: {} cached, {} blobs to read", indexes.size(), pathsToRead.size());
+        
+        if (pathsToRead.isEmpty()) {
+            return indexes;
+        }
+        
+        // Batch open lets the object database order and prefetch the reads instead of seeking per path
+        AsyncObjectLoaderQueue<ObjectId> queue = reader.open(pathsToRead.keySet(), false);
+        try {
+            while (true) {
+                long readStart = System.nanoTime();
+                BlobReadEvent readEvent = new BlobReadEvent();
+                readEvent.begin();
+                if (!queue.next()) {
+                    break;
+                }
+                ObjectId blobId = queue.getCurrent();
+                String filePath = pathsToRead.get(blobId);
+                MethodIndex index;
+                try {
+                    ObjectLoader loader = queue.open();
+                    String content = getFileContent(filePath, loader);
+                    commitBlobReadEvent(readEvent, filePath, blobId, loader.getSize());
+                    metrics.addBlobRead(loader.getSize());
+                    metrics.addPhaseTime(AnalysisMetrics.Phase.BLOB_READ, System.nanoTime() - readStart);
+                    
+                    long parseStart = System.nanoTime();
+                    index = parseFunctions(filePath, content, loader.getSize(), metrics);
+                    metrics.addPhaseTime(AnalysisMetrics.Phase.PARSE, System.nanoTime() - parseStart);
+                } catch (MissingObjectException e) {
+                    // E.g. a shallow or partial clone; the blob may be fetched later
+                    logger.warn("Blob {} of file {} is missing", blobId.getName(), filePath);
+                    index = null;
+                }
+                if (index != null) {
+                    indexCache.put(blobId, index);
                 } else {
-                    logger.debug("File not found: {}", filePath);
-                    treeWalk.close();
-                    return null;
+                    // Not cached, so that the blob is read again once it is present or the parser copes with it
+                    index = MethodIndex.EMPTY;
                 }
-            } catch (Exception e) {
-                logger.warn("Error finding file {}: {}", filePath, e.getMessage());
-                return null;
+                indexes.put(blobId, index);
             }
+        } finally {
+            queue.release();
+        }
+        
+        return indexes;
+    }
+    
+    private void collectBlob(ObjectId blobId, String filePath, Map<ObjectId, MethodIndex> indexes,
+                             Map<ObjectId, String> pathsToRead, AnalysisMetrics metrics) {
+        if (indexes.containsKey(blobId) || pathsToRead.containsKey(blobId)) {
+            return;
+        }
+        MethodIndex index = indexCache.get(blobId);
+        if (index != null) {
+            logger.debug("Method index cache hit for: {} ({})", filePath, blobId.getName());
+            metrics.addIndexCacheHit();
+            indexes.put(blobId, index);
+        } else {
+            pathsToRead.put(blobId, filePath);
+        }
+    }
+    
+    private static void commitBlobReadEvent(BlobReadEvent event, String filePath, ObjectId blobId, long bytes) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.path = filePath;
+            event.blobId = blobId.getName();
+            event.bytes = bytes;
+            event.commit();
         }
     }
     
     /**
-     * Parses functions from Java source code
+     * Gets file content from a loaded blob
+     * Package-private for the benchmarks module.
      */
-    private Set<String> parseFunctions(String javaContent) {
-        Set<String> functions = new HashSet<>();
+    String getFileContent(String filePath, ObjectLoader loader) throws IOException {
+        logger.debug("Getting file content for: {} ({} bytes)", filePath, loader.getSize());
+        return new String(loader.getCachedBytes(Integer.MAX_VALUE), StandardCharsets.UTF_8);
+    }
+    
+    /**
+     * Parses functions from Java source code into a method index.
+     * The whole file is visited once and every method's signature and body are fingerprinted.
+     * Package-private for the benchmarks module.
+     */
+    MethodIndex parseFunctions(String javaContent) {
+        MethodIndex index = parseFunctions(null, javaContent, javaContent != null ? javaContent.length() : 0,
+                                           new AnalysisMetrics());
+        return index != null ? index : MethodIndex.EMPTY;
+    }
+    
+    /**
+     * @return the method index, or null if the content could not be parsed
+     */
+    private MethodIndex parseFunctions(String filePath, String javaContent, long bytes, AnalysisMetrics metrics) {
+        MethodIndex index = new MethodIndex();
         
         if (javaContent == null || javaContent.trim().isEmpty()) {
-            return functions;
+            return index;
         }
         
+        FileParseEvent event = new FileParseEvent();
+        event.begin();
+        boolean parsed = false;
         try {
-            ParseResult<CompilationUnit> parseResult = javaParser.parse(javaContent);
+            ParseResult<CompilationUnit> parseResult = javaParser.get().parse(javaContent);
             
             if (parseResult.isSuccessful() && parseResult.getResult().isPresent()) {
                 CompilationUnit cu = parseResult.getResult().get();
                 
-                // Visit all classes and extract method names
-                cu.accept(new VoidVisitorAdapter<Void>() {
+                // Visit all types and index their members
+                MemberExtractor.extract(cu, new MemberExtractor.MemberHandler() {
+                    @Override
+                    public void member(String typeKey, String memberKey, String name, Node declaration, Node body) {
+                        index.add(memberKey, MethodFingerprint.signatureOf(declaration, body), MethodFingerprint.of(body));
+                    }
+                    
                     @Override
-                    public void visit(ClassOrInterfaceDeclaration n, Void arg) {
-                        super.visit(n, arg);
-                        
-                        // Get all methods in this class
-                        n.getMethods().forEach(method -> {
-                            String methodName = method.getNameAsString();
-                            String className = n.getNameAsString();
-                            functions.add(className + "." + methodName);
-                        });
+                    public void unsupported(String typeKey, BodyDeclaration<?> member) {
+                        reportUnsupportedMember(filePath, typeKey, member);
+                        metrics.addUnsupportedMember();
                     }
-                }, null);
+                });
+                parsed = true;
             }
-        } catch (Exception e) {
-            logger.warn("Failed to parse Java content: {}", e.getMessage());
+        } catch (Exception | StackOverflowError e) {
+            // Deeply nested code can overflow JavaParser's recursive descent
+            logger.warn("Failed to parse Java content of {}: {}", filePath != null ? filePath : "<source>", e.toString());
         }
+        metrics.addFileParsed(parsed);
+        commitFileParseEvent(event, filePath, bytes, parsed);
         
-        return functions;
+        return parsed ? index : null;
+    }
+    
+    private void reportUnsupportedMember(String filePath, String typeKey, BodyDeclaration<?> member) {
+        logger.warn("Unsupported member kind {} in {} of {} (line {})", member.getClass().getSimpleName(), typeKey,
+                    filePath != null ? filePath : "<source>",
+                    member.getBegin().map(position -> String.valueOf(position.line)).orElse("?"));
+    }
+    
+    private static void commitFileParseEvent(FileParseEvent event, String filePath, long bytes, boolean success) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.path = filePath;
+            event.bytes = bytes;
+            event.success = success;
+            event.commit();
+        }
     }
     
     /**
-     * Checks if a function has changed between two versions
+     * Checks if a function has changed between two indexed versions
+     * Package-private for the benchmarks module.
      */
-    private boolean hasFunctionChanged(String filePath, String functionName, String oldContent, String newContent) {
-        // Check if the method signature or body has changed
+    boolean hasFunctionChanged(String functionName, MethodIndex oldIndex, MethodIndex newIndex) {
+        MethodIndex.Entry oldEntry = oldIndex.get(functionName);
+        MethodIndex.Entry newEntry = newIndex.get(functionName);
         
-        try {
-            Set<String> oldMethodSignatures = extractMethodSignatures(oldContent, functionName);
-            Set<String> newMethodSignatures = extractMethodSignatures(newContent, functionName);
+        // First check if signatures are different
+        if (oldEntry.getSignatureFingerprint() != newEntry.getSignatureFingerprint()) {
+            logger.debug("Function {} signature changed", functionName);
+            return true;
+        }
+        
+        // If signatures are the same, check if method body has changed
+        if (oldEntry.getBodyFingerprint() != newEntry.getBodyFingerprint()) {
+            logger.debug("Function {} body changed", functionName);
+            return true;
+        }
+        
+        return false;
+    }
+    
+    /**
+     * Builds the reverse call graph of a commit in one pass over its Java files
+     * 
+     * @param commitId the commit whose source tree is indexed
+     * @return ReferrerIndex mapping each method to its callers
+     */
+    public ReferrerIndex buildReferrerIndex(String commitId) {
+        logger.info("Building referrer index for commit: {}", commitId);
+        
+        try (ObjectReader reader = repository.newObjectReader();
+             RevWalk revWalk = new RevWalk(reader);
+             TreeWalk treeWalk = new TreeWalk(reader)) {
             
-            // First check if signatures are different
-            if (!oldMethodSignatures.equals(newMethodSignatures)) {
-                logger.debug("Function {} signature changed", functionName);
-                return true;
+            ObjectId commit = repository.resolve(commitId);
+            if (commit == null) {
+                throw new IllegalArgumentException("Invalid commit ID provided");
             }
             
-            // If signatures are the same, check if method body has changed
-            Set<String> oldMethodBodies = extractMethodBodies(oldContent, functionName);
-            Set<String> newMethodBodies = extractMethodBodies(newContent, functionName);
+            // Collect every analyzed file of the tree in one walk
+            treeWalk.addTree(revWalk.parseCommit(commit).getTree());
+            treeWalk.setRecursive(true);
+            AnalysisScope scope = this.scope;
+            treeWalk.setFilter(analyzedFilesFilter(scope));
             
-            if (!oldMethodBodies.equals(newMethodBodies)) {
-                logger.debug("Function {} body changed", functionName);
-                return true;
+            Map<ObjectId, List<String>> pathsByBlob = new LinkedHashMap<>();
+            while (treeWalk.next()) {
+                pathsByBlob.computeIfAbsent(treeWalk.getObjectId(0), k -> new ArrayList<>())
+                           .add(treeWalk.getPathString());
             }
             
-            return false;
+            ReferrerIndex index = new ReferrerIndex();
+            putFileReferences(reader, pathsByBlob, index);
+            
+            logger.info("Referrer index built. Files: {}, Methods: {}", index.getFileCount(), index.getMethodCount());
+            referrerStore.store(commit, scope.getId(), index);
+            return index;
+            
         } catch (Exception e) {
-            logger.warn("Failed to compare function changes for {}: {}", functionName, e.getMessage());
-            return false;
+            logger.error("Error building referrer index", e);
+            throw new RuntimeException("Failed to build referrer index", e);
         }
     }
     
     /**
-     * Extracts method signatures for comparison
+     * Gets the reverse call graph of a commit, derived from the stored graph of a base commit when possible.
+     * Only the files changed between the two commits are re-parsed, so the cost follows the diff size.
+     * Without a stored graph for either commit, the base graph is built in full first.
+     * 
+     * @param commitId the commit whose call graph is requested
+     * @param baseCommitId a commit whose graph is (or will be) stored, typically the old commit of an analysis
+     * @return ReferrerIndex of the requested commit
      */
-    private Set<String> extractMethodSignatures(String javaContent, String functionName) {
-        Set<String> signatures = new HashSet<>();
-        
-        if (javaContent == null || javaContent.trim().isEmpty()) {
-            return signatures;
-        }
-        
+    public ReferrerIndex getReferrerIndex(String commitId, String baseCommitId) {
         try {
-            ParseResult<CompilationUnit> parseResult = javaParser.parse(javaContent);
+            ObjectId commit = repository.resolve(commitId);
+            ObjectId baseCommit = repository.resolve(baseCommitId);
+            if (commit == null || baseCommit == null) {
+                throw new IllegalArgumentException("Invalid commit IDs provided");
+            }
             
-            if (parseResult.isSuccessful() && parseResult.getResult().isPresent()) {
-                CompilationUnit cu = parseResult.getResult().get();
-                
-                cu.accept(new VoidVisitorAdapter<Void>() {
-                    @Override
-                    public void visit(MethodDeclaration n, Void arg) {
-                        super.visit(n, arg);
-                        
-                        String className = n.findAncestor(ClassOrInterfaceDeclaration.class)
-                                         .map(ClassOrInterfaceDeclaration::getNameAsString)
-                                         .orElse("");
-                        String methodName = n.getNameAsString();
-                        
-                        if ((className + "." + methodName).equals(functionName)) {
-                            // Create a signature that includes parameters and return type
-                            String signature = n.getDeclarationAsString();
-                            signatures.add(signature);
-                        }
-                    }
-                }, null);
+            // Graphs cover only the files in scope, so they are stored per scope
+            String scopeId = scope.getId();
+            ReferrerIndex index = referrerStore.load(commit, scopeId);
+            if (index != null) {
+                logger.info("Loaded stored referrer index for commit: {}", commitId);
+                return index;
             }
-        } catch (Exception e) {
-            logger.warn("Failed to extract method signatures: {}", e.getMessage());
+            
+            index = referrerStore.load(baseCommit, scopeId);
+            if (index == null) {
+                index = buildReferrerIndex(baseCommitId);
+            }
+            if (!commit.equals(baseCommit)) {
+                List<String> removedPaths = new ArrayList<>();
+                List<ReferrerIndex.FileReferences> changedFiles =
+                    updateReferrerIndex(index, baseCommit, commit, removedPaths);
+                // Written as the changes to the base graph, which was loaded or built above
+                referrerStore.storeDerived(commit, scopeId, index, baseCommit, removedPaths, changedFiles);
+            }
+            return index;
+            
+        } catch (IOException e) {
+            logger.error("Error getting referrer index", e);
+            throw new RuntimeException("Failed to get referrer index", e);
+        }
+    }
+    
+    /**
+     * Patches a call graph of one commit into the graph of another by replacing the contributions of changed files
+     * 
+     * @param removedPaths receives the paths whose contributions were removed
+     * @return the contributions added after the removals
+     */
+    private List<ReferrerIndex.FileReferences> updateReferrerIndex(ReferrerIndex index, ObjectId baseCommit,
+                                                                  ObjectId commit, List<String> removedPaths)
+            throws IOException {
+        try (ObjectReader reader = repository.newObjectReader()) {
+            Map<ObjectId, List<String>> pathsByBlob = new LinkedHashMap<>();
+            
+            // Graph contributions are per path, so renames need no pairing here
+            for (DiffEntry diff : scanChangedPaths(reader, baseCommit, commit, scope, false)) {
+                if (diff.getChangeType() != DiffEntry.ChangeType.ADD) {
+                    index.removeFile(diff.getOldPath());
+                    removedPaths.add(diff.getOldPath());
+                }
+                if (diff.getChangeType() != DiffEntry.ChangeType.DELETE) {
+                    pathsByBlob.computeIfAbsent(diff.getNewId().toObjectId(), k -> new ArrayList<>())
+                               .add(diff.getNewPath());
+                }
+            }
+            List<ReferrerIndex.FileReferences> changedFiles = putFileReferences(reader, pathsByBlob, index);
+            
+            logger.info("Referrer index updated {} -> {}. Files removed: {}, re-parsed: {}",
+                       baseCommit.getName(), commit.getName(), removedPaths.size(), changedFiles.size());
+            return changedFiles;
+        }
+    }
+    
+    /**
+     * Gets the diff entries of the Java files in scope between two commits.
+     * The filter is applied during the tree comparison, together with its skipping of subtrees whose ids
+     * are equal on both sides, so neither unchanged nor out-of-scope trees are read.
+     * 
+     * @param scope the scope of the files to report
+     * @param renames whether to pair deleted and added files into renames and copies
+     */
+    private List<DiffEntry> scanChangedPaths(ObjectReader reader, ObjectId oldId, ObjectId newId,
+                                             AnalysisScope scope, boolean renames)
+            throws IOException {
+        try (RevWalk revWalk = new RevWalk(reader);
+             DiffFormatter diffFormatter = new DiffFormatter(DisabledOutputStream.INSTANCE)) {
+            
+            // A zero old id stands for the empty tree, which a root commit is compared with
+            AbstractTreeIterator oldTree = new EmptyTreeIterator();
+            if (!ObjectId.zeroId().equals(oldId)) {
+                CanonicalTreeParser oldParser = new CanonicalTreeParser();
+                oldParser.reset(reader, revWalk.parseCommit(oldId).getTree());
+                oldTree = oldParser;
+            }
+            CanonicalTreeParser newTree = new CanonicalTreeParser();
+            newTree.reset(reader, revWalk.parseCommit(newId).getTree());
+            
+            diffFormatter.setReader(reader, repository.getConfig());
+            diffFormatter.setPathFilter(analyzedFilesFilter(scope));
+            if (renames) {
+                diffFormatter.setDetectRenames(true);
+                diffFormatter.getRenameDetector().setRenameScore(renameScore);
+                if (renameLimit >= 0) {
+                    diffFormatter.getRenameDetector().setRenameLimit(renameLimit);
+                }
+            }
+            
+            DiffScanEvent event = new DiffScanEvent();
+            event.begin();
+            List<DiffEntry> diffs = diffFormatter.scan(oldTree, newTree);
+            event.end();
+            if (event.shouldCommit()) {
+                event.oldCommitId = oldId.getName();
+                event.newCommitId = newId.getName();
+                event.changedPaths = diffs.size();
+                event.commit();
+            }
+            return diffs;
+        }
+    }
+    
+    /**
+     * Reads the given blobs through one reader and adds their references to the index
+     * 
+     * @return the added references, one per path of a blob that could be read
+     */
+    private List<ReferrerIndex.FileReferences> putFileReferences(ObjectReader reader,
+                                                                 Map<ObjectId, List<String>> pathsByBlob,
+                                                                 ReferrerIndex index) throws IOException {
+        List<ReferrerIndex.FileReferences> added = new ArrayList<>();
+        if (pathsByBlob.isEmpty()) {
+            return added;
         }
         
-        return signatures;
+        AsyncObjectLoaderQueue<ObjectId> queue = reader.open(pathsByBlob.keySet(), false);
+        try {
+            while (true) {
+                BlobReadEvent readEvent = new BlobReadEvent();
+                readEvent.begin();
+                if (!queue.next()) {
+                    break;
+                }
+                ObjectId blobId = queue.getCurrent();
+                List<String> filePaths = pathsByBlob.get(blobId);
+                ObjectLoader loader;
+                String content;
+                try {
+                    loader = queue.open();
+                    content = getFileContent(filePaths.get(0), loader);
+                } catch (MissingObjectException e) {
+                    // E.g. a shallow or partial clone; the file contributes no references
+                    logger.warn("Blob {} of file {} is missing", blobId.getName(), filePaths.get(0));
+                    continue;
+                }
+                commitBlobReadEvent(readEvent, filePaths.get(0), blobId, loader.getSize());
+                for (String filePath : filePaths) {
+                    ReferrerIndex.FileReferences references = parseReferences(filePath, content, loader.getSize());
+                    index.putFile(references);
+                    added.add(references);
+                }
+            }
+        } finally {
+            queue.release();
+        }
+        return added;
+    }
+    
+    /**
+     * Finds the transitive referrers of every changed function, using the call graph of the new commit.
+     * The graph is derived incrementally from the stored graph of the old commit.
+     * 
+     * @param result a completed function change analysis
+     * @return map from each changed function to all methods that directly or indirectly call it
+     */
+    public Map<String, Set<String>> findReferrers(FunctionChangeResult result) {
+        return findReferrers(getReferrerIndex(result.getNewCommitId(), result.getOldCommitId()), result);
+    }
+    
+    /**
+     * Finds the transitive referrers of every changed function in an existing referrer index
+     */
+    public Map<String, Set<String>> findReferrers(ReferrerIndex index, FunctionChangeResult result) {
+        Map<String, Set<String>> referrers = new TreeMap<>();
+        for (String function : result.getChangedFunctions()) {
+            referrers.put(function, index.getTransitiveReferrers(function));
+        }
+        return referrers;
     }
     
     /**
-     * Extracts method bodies for comparison
+     * Parses the method declarations and call sites of a Java file for the referrer index
      */
-    private Set<String> extractMethodBodies(String javaContent, String functionName) {
-        Set<String> bodies = new HashSet<>();
+    private ReferrerIndex.FileReferences parseReferences(String filePath, String javaContent, long bytes) {
+        ReferrerIndex.FileReferences references = new ReferrerIndex.FileReferences(filePath);
         
         if (javaContent == null || javaContent.trim().isEmpty()) {
-            return bodies;
+            return references;
         }
         
+        FileParseEvent event = new FileParseEvent();
+        event.begin();
+        boolean parsed = false;
         try {
-            ParseResult<CompilationUnit> parseResult = javaParser.parse(javaContent);
+            ParseResult<CompilationUnit> parseResult = javaParser.get().parse(javaContent);
             
             if (parseResult.isSuccessful() && parseResult.getResult().isPresent()) {
                 CompilationUnit cu = parseResult.getResult().get();
                 
-                cu.accept(new VoidVisitorAdapter<Void>() {
+                MemberExtractor.extract(cu, new MemberExtractor.MemberHandler() {
+                    @Override
+                    public void member(String typeKey, String memberKey, String name, Node declaration, Node body) {
+                        references.addMethod(typeKey, memberKey, name);
+                    }
+                    
+                    // Calls, constructor invocations and method references made from a member
                     @Override
-                    public void visit(MethodDeclaration n, Void arg) {
-                        super.visit(n, arg);
-                        
-                        String className = n.findAncestor(ClassOrInterfaceDeclaration.class)
-                                         .map(ClassOrInterfaceDeclaration::getNameAsString)
-                                         .orElse("");
-                        String methodName = n.getNameAsString();
-                        
-                        if ((className + "." + methodName).equals(functionName)) {
-                            // Extract the method body (everything between the braces)
-                            if (n.getBody().isPresent()) {
-                                String body = n.getBody().get().toString();
-                                bodies.add(body);
-                            }
-                        }
+                    public void callSite(String typeKey, String memberKey, String calleeName, boolean unqualified) {
+                        references.addCallSite(typeKey, memberKey, calleeName, unqualified);
                     }
-                }, null);
+                    
+                    @Override
+                    public void unsupported(String typeKey, BodyDeclaration<?> member) {
+                        reportUnsupportedMember(filePath, typeKey, member);
+                    }
+                });
+                parsed = true;
             }
-        } catch (Exception e) {
-            logger.warn("Failed to extract method bodies: {}", e.getMessage());
+        } catch (Exception | StackOverflowError e) {
+            // Deeply nested code can overflow JavaParser's recursive descent
+            logger.warn("Failed to parse references in {}: {}", filePath, e.toString());
         }
+        commitFileParseEvent(event, filePath, bytes, parsed);
         
-        return bodies;
+        return references;
     }
     
     /**
-     * Closes the repository
+     * Closes the repository and any executor owned by this analyzer
      */
     public void close() {
+        if (ownsExecutor) {
+            executor.shutdown();
+        }
+        synchronized (this) {
+            if (historyIndexer != null) {
+                historyIndexer.shutdownNow();
+            }
+        }
+        indexStore.close();
         if (repository != null) {
             try {
                 repository.close();
@@ -412,24 +1568,59 @@ public class GitFunctionAnalyzer {
     
     /**
      * Result class for function change analysis
+     * Safe for concurrent additions from parallel analysis threads
      */
     public static class FunctionChangeResult {
-        private String oldCommitId;
-        private String newCommitId;
-        private final Set<String> addedFunctions = new HashSet<>();
-        private final Set<String> deletedFunctions = new HashSet<>();
-        private final Set<String> changedFunctions = new HashSet<>();
+        private volatile String oldCommitId;
+        private volatile String newCommitId;
+        private final boolean retainFunctions;
+        private final Set<String> addedFunctions = ConcurrentHashMap.newKeySet();
+        private final Set<String> deletedFunctions = ConcurrentHashMap.newKeySet();
+        private final Set<String> changedFunctions = ConcurrentHashMap.newKeySet();
+        private final AtomicInteger addedCount = new AtomicInteger();
+        private final AtomicInteger deletedCount = new AtomicInteger();
+        private final AtomicInteger changedCount = new AtomicInteger();
+        // Moved function id at the new path -> id at the old path
+        private final Map<String, String> movedFunctions = new ConcurrentHashMap<>();
+        private final AtomicInteger movedCount = new AtomicInteger();
+        private final AnalysisMetrics metrics = new AnalysisMetrics();
+        
+        public FunctionChangeResult() {
+            this(true);
+        }
+        
+        /**
+         * @param retainFunctions false to only count changes, e.g. when they are streamed to a listener
+         */
+        public FunctionChangeResult(boolean retainFunctions) {
+            this.retainFunctions = retainFunctions;
+        }
         
         public void addAddedFunction(String function) {
-            addedFunctions.add(function);
+            if (!retainFunctions || addedFunctions.add(function)) {
+                addedCount.incrementAndGet();
+            }
         }
         
         public void addDeletedFunction(String function) {
-            deletedFunctions.add(function);
+            if (!retainFunctions || deletedFunctions.add(function)) {
+                deletedCount.incrementAndGet();
+            }
         }
         
         public void addChangedFunction(String function) {
-            changedFunctions.add(function);
+            if (!retainFunctions || changedFunctions.add(function)) {
+                changedCount.incrementAndGet();
+            }
+        }
+        
+        /**
+         * Records a function that is unchanged but now lives in a renamed or copied file
+         */
+        public void addMovedFunction(String fromFunction, String toFunction) {
+            if (!retainFunctions || movedFunctions.putIfAbsent(toFunction, fromFunction) == null) {
+                movedCount.incrementAndGet();
+            }
         }
         
         // Getters and setters
@@ -442,11 +1633,23 @@ public class GitFunctionAnalyzer {
         public Set<String> getAddedFunctions() { return new HashSet<>(addedFunctions); }
         public Set<String> getDeletedFunctions() { return new HashSet<>(deletedFunctions); }
         public Set<String> getChangedFunctions() { return new HashSet<>(changedFunctions); }
+        /** Moved functions, from the id at the new path to the id at the old path */
+        public Map<String, String> getMovedFunctions() { return new HashMap<>(movedFunctions); }
+        
+        public int getAddedCount() { return addedCount.get(); }
+        public int getDeletedCount() { return deletedCount.get(); }
+        public int getChangedCount() { return changedCount.get(); }
+        public int getMovedCount() { return movedCount.get(); }
+        
+        /**
+         * Gets the timings and counters of the analysis that produced this result
+         */
+        public AnalysisMetrics getMetrics() { return metrics; }
         
         @Override
         public String toString() {
-            return String.format("FunctionChangeResult{oldCommit='%s', newCommit='%s', added=%d, deleted=%d, changed=%d}",
-                    oldCommitId, newCommitId, addedFunctions.size(), deletedFunctions.size(), changedFunctions.size());
+            return String.format("FunctionChangeResult{oldCommit='%s', newCommit='%s', added=%d, deleted=%d, changed=%d, moved=%d}",
+                    oldCommitId, newCommitId, getAddedCount(), getDeletedCount(), getChangedCount(), getMovedCount());
         }
     }
 }
@@ -3,7 +3,15 @@ package net.gaeco.referrerfinder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 //TIP To <b>Run</b> code, press <shortcut actionId="Run"/> or
@@ -30,14 +38,54 @@ public class Main {
         
         // Check if we have the required arguments
         if (args.length < 3) {
-            log.error("Usage: java Main <repository-path> <old-commit-id> <new-commit-id>");
-            log.error("Example: java Main /path/to/repo abc123 def456");
+            log.error("Usage: java Main <repository-path> <old-commit-id> <new-commit-id> [--threads=N] [--referrers] [--ndjson] [--range]"
+                      + " [--no-renames] [--rename-score=PERCENT] [--rename-limit=N] [--include=RULES] [--exclude=RULES]");
+            log.error("Example: java Main /path/to/repo abc123 def456 --threads=8 --referrers");
+            log.error("  --ndjson streams one JSON line per function change to stdout as files complete");
+            log.error("  --range lists, for each function, the commits of old..new that touched it");
+            log.error("  --rename-score and --rename-limit tune rename detection, --no-renames turns it off");
+            log.error("  --include and --exclude take comma-separated packages (com.example.app) or path globs"
+                      + " (services/*/src/main/java, **/generated); they may be repeated");
             System.exit(1);
         }
         
         String repositoryPath = args[0];
         String oldCommitId = args[1];
         String newCommitId = args[2];
+        int threads = 1;
+        boolean showReferrers = false;
+        boolean ndjson = false;
+        boolean range = false;
+        boolean detectRenames = true;
+        Integer renameScore = null;
+        Integer renameLimit = null;
+        List<String> includes = new ArrayList<>();
+        List<String> excludes = new ArrayList<>();
+        
+        // Optional flags after the positional arguments
+        for (int i = 3; i < args.length; i++) {
+            if (args[i].startsWith("--threads=")) {
+                threads = Integer.parseInt(args[i].substring("--threads=".length()));
+            } else if ("--referrers".equals(args[i])) {
+                showReferrers = true;
+            } else if ("--ndjson".equals(args[i])) {
+                ndjson = true;
+            } else if ("--range".equals(args[i])) {
+                range = true;
+            } else if ("--no-renames".equals(args[i])) {
+                detectRenames = false;
+            } else if (args[i].startsWith("--rename-score=")) {
+                renameScore = Integer.parseInt(args[i].substring("--rename-score=".length()));
+            } else if (args[i].startsWith("--rename-limit=")) {
+                renameLimit = Integer.parseInt(args[i].substring("--rename-limit=".length()));
+            } else if (args[i].startsWith("--include=")) {
+                addRules(includes, args[i].substring("--include=".length()));
+            } else if (args[i].startsWith("--exclude=")) {
+                addRules(excludes, args[i].substring("--exclude=".length()));
+            } else {
+                log.warn("Ignoring unknown option: {}", args[i]);
+            }
+        }
         
         log.info("Analyzing repository: {}", repositoryPath);
         log.info("Comparing commits: {} -> {}", oldCommitId, newCommitId);
@@ -45,7 +93,45 @@ public class Main {
         GitFunctionAnalyzer analyzer = null;
         try {
             // Initialize the analyzer
-            analyzer = new GitFunctionAnalyzer(repositoryPath);
+            analyzer = new GitFunctionAnalyzer(repositoryPath, threads);
+            analyzer.setRenameDetection(detectRenames);
+            if (renameScore != null) {
+                analyzer.setRenameScore(renameScore);
+            }
+            if (renameLimit != null) {
+                analyzer.setRenameLimit(renameLimit);
+            }
+            if (!includes.isEmpty() || !excludes.isEmpty()) {
+                analyzer.setScope(AnalysisScope.of(includes, excludes));
+                log.info("Scope: {}", analyzer.getScope());
+            }
+            
+            if (range) {
+                displayCommitRange(analyzer.analyzeCommitRange(oldCommitId, newCommitId));
+                return;
+            }
+            
+            if (ndjson) {
+                // Logs go to stderr, so stdout carries only the JSON lines
+                NdjsonFunctionChangeWriter writer = new NdjsonFunctionChangeWriter(
+                    new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8)));
+                try {
+                    GitFunctionAnalyzer.FunctionChangeResult summary = 
+                        analyzer.streamFunctionChanges(oldCommitId, newCommitId, writer);
+                    writer.writeSummary(summary.getOldCommitId(), summary.getNewCommitId(),
+                        summary.getAddedCount(), summary.getDeletedCount(), summary.getChangedCount(),
+                        summary.getMovedCount());
+                } catch (Exception e) {
+                    // Consumers of the stream see the failure instead of a stream without a SUMMARY line
+                    try {
+                        writer.writeError("Failed to analyze changes: " + e.getMessage());
+                    } catch (UncheckedIOException writeFailure) {
+                        e.addSuppressed(writeFailure);
+                    }
+                    throw e;
+                }
+                return;
+            }
             
             // Analyze function changes
             GitFunctionAnalyzer.FunctionChangeResult result = analyzer.analyzeFunctionChanges(oldCommitId, newCommitId);
@@ -53,6 +139,10 @@ public class Main {
             // Display results
             displayResults(result);
             
+            if (showReferrers) {
+                displayReferrers(analyzer.findReferrers(result));
+            }
+            
         } catch (IOException e) {
             log.error("Failed to initialize Git repository: {}", e.getMessage());
             System.exit(1);
@@ -68,6 +158,14 @@ public class Main {
         }
     }
     
+    private static void addRules(List<String> rules, String value) {
+        for (String rule : value.split(",")) {
+            if (!rule.trim().isEmpty()) {
+                rules.add(rule.trim());
+            }
+        }
+    }
+    
     /**
      * Displays the analysis results in a formatted way
      */
@@ -101,12 +199,44 @@ public class Main {
                 log.info("  * {}", function));
         }
         
+        // Display functions that only moved with their file
+        if (!result.getMovedFunctions().isEmpty()) {
+            log.info("=== MOVED Functions ({}) ===", result.getMovedFunctions().size());
+            result.getMovedFunctions().forEach((function, from) -> 
+                log.info("  > {} (from {})", function, from));
+        }
+        
         if (result.getAddedFunctions().isEmpty() && 
             result.getDeletedFunctions().isEmpty() && 
-            result.getChangedFunctions().isEmpty()) {
+            result.getChangedFunctions().isEmpty() &&
+            result.getMovedFunctions().isEmpty()) {
             log.info("No function changes detected in the target package");
         }
         
         log.info("=== Analysis Complete ===");
     }
+    
+    /**
+     * Displays the commits that touched each function of a commit range
+     */
+    private static void displayCommitRange(CommitRangeResult result) {
+        log.info("=== Commit Range {}..{} ===", result.getOldCommitId(), result.getNewCommitId());
+        log.info("Commits analyzed: {}, skipped merge and root commits: {}", result.getCommits().size(), result.getSkippedCommits());
+        result.getTouchesByFunction().forEach((function, touches) -> {
+            log.info("  {} ({} commits)", function, touches.size());
+            touches.forEach(touch -> log.info("      {} {}", touch.getCommitId(), touch.getKind()));
+        });
+        log.info("=== Analysis Complete ===");
+    }
+    
+    /**
+     * Displays the transitive referrers of each changed function
+     */
+    private static void displayReferrers(Map<String, Set<String>> referrers) {
+        log.info("=== Referrers of CHANGED Functions ===");
+        referrers.forEach((function, callers) -> {
+            log.info("  * {} ({} referrers)", function, callers.size());
+            callers.forEach(caller -> log.info("      <- {}", caller));
+        });
+    }
 }
\ No newline at end of file
@@ -0,0 +1,282 @@
+package net.gaeco.referrerfinder;
+
+import com.github.javaparser.ast.CompilationUnit;
+import com.github.javaparser.ast.Node;
+import com.github.javaparser.ast.NodeList;
+import com.github.javaparser.ast.body.AnnotationDeclaration;
+import com.github.javaparser.ast.body.AnnotationMemberDeclaration;
+import com.github.javaparser.ast.body.BodyDeclaration;
+import com.github.javaparser.ast.body.ClassOrInterfaceDeclaration;
+import com.github.javaparser.ast.body.CompactConstructorDeclaration;
+import com.github.javaparser.ast.body.ConstructorDeclaration;
+import com.github.javaparser.ast.body.EnumConstantDeclaration;
+import com.github.javaparser.ast.body.EnumDeclaration;
+import com.github.javaparser.ast.body.FieldDeclaration;
+import com.github.javaparser.ast.body.InitializerDeclaration;
+import com.github.javaparser.ast.body.MethodDeclaration;
+import com.github.javaparser.ast.body.Parameter;
+import com.github.javaparser.ast.body.RecordDeclaration;
+import com.github.javaparser.ast.body.TypeDeclaration;
+import com.github.javaparser.ast.expr.MethodCallExpr;
+import com.github.javaparser.ast.expr.MethodReferenceExpr;
+import com.github.javaparser.ast.expr.ObjectCreationExpr;
+import com.github.javaparser.ast.stmt.ExplicitConstructorInvocationStmt;
+import com.github.javaparser.ast.visitor.VoidVisitorAdapter;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Extracts every executable member of a compilation unit in a single traversal.
+ *
+ * Members are methods, constructors, record compact constructors, annotation members and
+ * initializer blocks of classes, interfaces, enums, records and annotation types, including nested,
+ * local and anonymous types. Type keys are qualified by their enclosing types so that equally named
+ * nested types never collide:
+ * <ul>
+ *   <li>nested types: {@code Outer.Inner}</li>
+ *   <li>enum constant bodies: {@code Color.RED}</li>
+ *   <li>anonymous types, numbered per enclosing type in source order: {@code Outer$1}</li>
+ *   <li>local types: {@code Outer$1Local}</li>
+ * </ul>
+ * Member keys append the member to its type key: {@code Outer.Inner.run(int)}, {@code Outer.Outer()}
+ * for constructors, {@code Outer.<clinit>} and {@code Outer.<init>} for static and instance initializers.
+ */
+public final class MemberExtractor {
+
+    /**
+     * Receives the members and call sites found by the extractor
+     */
+    public interface MemberHandler {
+
+        /**
+         * Called for every executable member
+         *
+         * @param typeKey key of the declaring type
+         * @param memberKey key of the member within the file
+         * @param name simple name, used to match call sites (the type name for constructors)
+         * @param declaration the whole member declaration
+         * @param body the body or default value, or null if the member has none
+         */
+        void member(String typeKey, String memberKey, String name, Node declaration, Node body);
+
+        /**
+         * Called for every call, constructor invocation or method reference, once for the member that
+         * contains it and once for each member enclosing that member's type (e.g. the method declaring
+         * an anonymous class)
+         *
+         * @param unqualified whether the call has no scope or is scoped by {@code this}
+         */
+        default void callSite(String typeKey, String memberKey, String calleeName, boolean unqualified) {
+        }
+
+        /**
+         * Called for type members of a kind the extractor does not know
+         */
+        default void unsupported(String typeKey, BodyDeclaration<?> member) {
+        }
+    }
+
+    private MemberExtractor() {
+    }
+
+    /**
+     * Reports the members of a compilation unit to the handler
+     */
+    public static void extract(CompilationUnit cu, MemberHandler handler) {
+        cu.accept(new Visitor(handler), new Context(null, null, null, null));
+    }
+
+    /**
+     * Where the traversal is: the innermost type, the member being visited, if any, and the
+     * member context enclosing the innermost type
+     */
+    private static final class Context {
+        private final String typeKey;
+        private final String typeName;
+        private final String memberKey;
+        private final Context outer;
+
+        Context(String typeKey, String typeName, String memberKey, Context outer) {
+            this.typeKey = typeKey;
+            this.typeName = typeName;
+            this.memberKey = memberKey;
+            this.outer = outer;
+        }
+
+        Context enterType(String key, String name) {
+            return new Context(key, name, null, memberKey != null ? this : outer);
+        }
+
+        Context enterMember(String key) {
+            return new Context(typeKey, typeName, key, outer);
+        }
+    }
+
+    private static final class Visitor extends VoidVisitorAdapter<Context> {
+        private final MemberHandler handler;
+        private final Map<String, Integer> localTypeCounters = new HashMap<>();
+
+        Visitor(MemberHandler handler) {
+            this.handler = handler;
+        }
+
+        @Override
+        public void visit(ClassOrInterfaceDeclaration n, Context context) {
+            super.visit(n, enterType(n, context));
+        }
+
+        @Override
+        public void visit(EnumDeclaration n, Context context) {
+            super.visit(n, enterType(n, context));
+        }
+
+        @Override
+        public void visit(RecordDeclaration n, Context context) {
+            super.visit(n, enterType(n, context));
+        }
+
+        @Override
+        public void visit(AnnotationDeclaration n, Context context) {
+            super.visit(n, enterType(n, context));
+        }
+
+        private Context enterType(TypeDeclaration<?> type, Context context) {
+            String name = type.getNameAsString();
+            String key;
+            if (context.typeKey == null) {
+                key = name;
+            } else if (isMemberType(type)) {
+                key = context.typeKey + "." + name;
+            } else {
+                key = context.typeKey + "$" + nextLocalTypeIndex(context.typeKey) + name;
+            }
+            checkMembers(key, type.getMembers());
+            return context.enterType(key, name);
+        }
+
+        private boolean isMemberType(TypeDeclaration<?> type) {
+            Node parent = type.getParentNode().orElse(null);
+            return parent instanceof TypeDeclaration || parent instanceof EnumConstantDeclaration
+                   || parent instanceof ObjectCreationExpr;
+        }
+
+        private int nextLocalTypeIndex(String typeKey) {
+            return localTypeCounters.merge(typeKey, 1, Integer::sum);
+        }
+
+        private void checkMembers(String typeKey, NodeList<BodyDeclaration<?>> members) {
+            for (BodyDeclaration<?> member : members) {
+                if (!(member instanceof MethodDeclaration || member instanceof ConstructorDeclaration
+                      || member instanceof CompactConstructorDeclaration || member instanceof InitializerDeclaration
+                      || member instanceof AnnotationMemberDeclaration || member instanceof FieldDeclaration
+                      || member instanceof TypeDeclaration || member instanceof EnumConstantDeclaration)) {
+                    handler.unsupported(typeKey, member);
+                }
+            }
+        }
+
+        @Override
+        public void visit(MethodDeclaration n, Context context) {
+            String key = MethodIndex.keyOf(context.typeKey, n);
+            handler.member(context.typeKey, key, n.getNameAsString(), n, n.getBody().orElse(null));
+            super.visit(n, context.enterMember(key));
+        }
+
+        @Override
+        public void visit(ConstructorDeclaration n, Context context) {
+            String key = MethodIndex.keyOf(context.typeKey, n);
+            handler.member(context.typeKey, key, n.getNameAsString(), n, n.getBody());
+            super.visit(n, context.enterMember(key));
+        }
+
+        @Override
+        public void visit(CompactConstructorDeclaration n, Context context) {
+            // The compact form declares the canonical constructor, whose parameters are the record components
+            RecordDeclaration record = (RecordDeclaration) n.getParentNode().orElse(null);
+            NodeList<Parameter> parameters =
+                record != null ? record.getParameters() : new NodeList<>();
+            String key = MethodIndex.keyOf(context.typeKey, n.getNameAsString(), parameters, n);
+            handler.member(context.typeKey, key, n.getNameAsString(), n, n.getBody());
+            super.visit(n, context.enterMember(key));
+        }
+
+        @Override
+        public void visit(InitializerDeclaration n, Context context) {
+            // All blocks of one kind fold into one member, as they run as one unit
+            String name = n.isStatic() ? "<clinit>" : "<init>";
+            String key = context.typeKey + "." + name;
+            handler.member(context.typeKey, key, name, n, n.getBody());
+            super.visit(n, context.enterMember(key));
+        }
+
+        @Override
+        public void visit(AnnotationMemberDeclaration n, Context context) {
+            String key = context.typeKey + "." + n.getNameAsString() + "()";
+            handler.member(context.typeKey, key, n.getNameAsString(), n, n.getDefaultValue().orElse(null));
+            super.visit(n, context.enterMember(key));
+        }
+
+        @Override
+        public void visit(EnumConstantDeclaration n, Context context) {
+            n.getArguments().forEach(argument -> argument.accept(this, context));
+            if (n.getClassBody().isNonEmpty()) {
+                String key = context.typeKey + "." + n.getNameAsString();
+                checkMembers(key, n.getClassBody());
+                Context bodyContext = context.enterType(key, null);
+                n.getClassBody().forEach(member -> member.accept(this, bodyContext));
+            }
+        }
+
+        @Override
+        public void visit(ObjectCreationExpr n, Context context) {
+            emitCallSite(context, n.getType().getNameAsString(), false);
+            n.getScope().ifPresent(scope -> scope.accept(this, context));
+            n.getArguments().forEach(argument -> argument.accept(this, context));
+            n.getAnonymousClassBody().ifPresent(body -> {
+                String key = context.typeKey + "$" + nextLocalTypeIndex(context.typeKey);
+                checkMembers(key, body);
+                Context bodyContext = context.enterType(key, null);
+                body.forEach(member -> member.accept(this, bodyContext));
+            });
+        }
+
+        @Override
+        public void visit(MethodCallExpr n, Context context) {
+            emitCallSite(context, n.getNameAsString(),
+                         !n.getScope().isPresent() || n.getScope().get().isThisExpr());
+            super.visit(n, context);
+        }
+
+        @Override
+        public void visit(MethodReferenceExpr n, Context context) {
+            if ("new".equals(n.getIdentifier())) {
+                // Foo::new refers to the constructors of Foo
+                if (n.getScope().isTypeExpr() && n.getScope().asTypeExpr().getType().isClassOrInterfaceType()) {
+                    emitCallSite(context,
+                        n.getScope().asTypeExpr().getType().asClassOrInterfaceType().getNameAsString(), false);
+                }
+            } else {
+                emitCallSite(context, n.getIdentifier(), n.getScope().isThisExpr());
+            }
+            super.visit(n, context);
+        }
+
+        @Override
+        public void visit(ExplicitConstructorInvocationStmt n, Context context) {
+            if (n.isThis() && context.typeName != null) {
+                emitCallSite(context, context.typeName, true);
+            }
+            super.visit(n, context);
+        }
+
+        private void emitCallSite(Context context, String calleeName, boolean unqualified) {
+            // Field initializers have no member; their calls are not attributed
+            for (Context c = context; c != null; c = c.outer) {
+                if (c.memberKey != null) {
+                    handler.callSite(c.typeKey, c.memberKey, calleeName, unqualified);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package net.gaeco.referrerfinder;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Method-level blame of a revision: every function mapped to the commit that last changed its fingerprint,
+ * i.e. the commit that added it or last changed its signature or body. Moving a method with its file does
+ * not change its fingerprint, so the blame follows renames.
+ */
+public class MethodBlameResult {
+
+    /**
+     * The commit a function is attributed to
+     */
+    public static class BlameEntry {
+        private final String commitId;
+        private final int commitTime;
+
+        BlameEntry(String commitId, int commitTime) {
+            this.commitId = commitId;
+            this.commitTime = commitTime;
+        }
+
+        public String getCommitId() { return commitId; }
+        /** Commit time in seconds since the epoch */
+        public int getCommitTime() { return commitTime; }
+
+        @Override
+        public String toString() {
+            return commitId;
+        }
+    }
+
+    private final String commitId;
+    private final Map<String, BlameEntry> entries = new TreeMap<>();
+    private final AnalysisMetrics metrics = new AnalysisMetrics();
+    private int commitsInspected;
+    private int filesCompared;
+
+    public MethodBlameResult(String commitId) {
+        this.commitId = commitId;
+    }
+
+    void blame(String function, String commitId, int commitTime) {
+        entries.put(function, new BlameEntry(commitId, commitTime));
+    }
+
+    void addCommitInspected() { commitsInspected++; }
+    void addFilesCompared(int count) { filesCompared += count; }
+
+    /** The blamed revision */
+    public String getCommitId() { return commitId; }
+
+    /** Every function of the revision with the commit it is attributed to */
+    public Map<String, BlameEntry> getEntries() { return Collections.unmodifiableMap(entries); }
+
+    /** The commit a function is attributed to, or null if the function is not in the revision */
+    public BlameEntry getEntry(String function) { return entries.get(function); }
+
+    /** Commits whose trees were compared with their parents; commits touching no blamed file are skipped */
+    public int getCommitsInspected() { return commitsInspected; }
+
+    /** Files whose method indexes were compared, i.e. whose blob differed from the parent's */
+    public int getFilesCompared() { return filesCompared; }
+
+    public AnalysisMetrics getMetrics() { return metrics; }
+
+    /**
+     * Converts the blame to a map of function id to commit id for JSON responses
+     */
+    public Map<String, Object> toMap() {
+        Map<String, Object> map = new LinkedHashMap<>();
+        entries.forEach((function, entry) -> map.put(function, entry.getCommitId()));
+        return map;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("MethodBlameResult{commit='%s', functions=%d, commitsInspected=%d, filesCompared=%d}",
+                commitId, entries.size(), commitsInspected, filesCompared);
+    }
+}
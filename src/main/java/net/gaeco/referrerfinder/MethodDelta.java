@@ -0,0 +1,66 @@
+package net.gaeco.referrerfinder;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Added, deleted, changed and moved method keys between two method indexes.
+ * Independent of the file path, so it can be shared by every path holding the same blob pair.
+ * Moved keys are only collected for renamed or copied files: they are the methods whose
+ * fingerprints are unchanged at the new path.
+ */
+public class MethodDelta {
+
+    public static final MethodDelta EMPTY = new MethodDelta();
+
+    private final List<String> added = new ArrayList<>();
+    private final List<String> deleted = new ArrayList<>();
+    private final List<String> changed = new ArrayList<>();
+    private final List<String> moved = new ArrayList<>();
+
+    void addAdded(String function) {
+        added.add(function);
+    }
+
+    void addDeleted(String function) {
+        deleted.add(function);
+    }
+
+    void addChanged(String function) {
+        changed.add(function);
+    }
+
+    void addMoved(String function) {
+        moved.add(function);
+    }
+
+    /**
+     * Reports this delta for one file into the result.
+     * Deleted methods are reported at the old path, all others at the new path.
+     */
+    public void applyTo(ChangedFile changedFile, GitFunctionAnalyzer.FunctionChangeResult result) {
+        String javaFile = changedFile.getPath();
+        for (String function : added) {
+            result.addAddedFunction(javaFile + "::" + function);
+        }
+        for (String function : deleted) {
+            result.addDeletedFunction(changedFile.getOldPath() + "::" + function);
+        }
+        for (String function : changed) {
+            result.addChangedFunction(javaFile + "::" + function);
+        }
+        for (String function : moved) {
+            result.addMovedFunction(changedFile.getOldPath() + "::" + function, javaFile + "::" + function);
+        }
+    }
+
+    public List<String> getAdded() { return Collections.unmodifiableList(added); }
+    public List<String> getDeleted() { return Collections.unmodifiableList(deleted); }
+    public List<String> getChanged() { return Collections.unmodifiableList(changed); }
+    public List<String> getMoved() { return Collections.unmodifiableList(moved); }
+
+    public boolean isEmpty() {
+        return added.isEmpty() && deleted.isEmpty() && changed.isEmpty() && moved.isEmpty();
+    }
+}
@@ -0,0 +1,112 @@
+package net.gaeco.referrerfinder;
+
+import com.github.javaparser.JavaToken;
+import com.github.javaparser.TokenRange;
+import com.github.javaparser.ast.Node;
+import com.github.javaparser.ast.expr.AnnotationExpr;
+import com.github.javaparser.ast.nodeTypes.NodeWithAnnotations;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Computes normalized 64-bit fingerprints over the JavaParser token stream.
+ * Comments and whitespace are dropped, so formatting-only edits keep the same fingerprint,
+ * and no pretty-printed source string is ever materialized.
+ */
+public final class MethodFingerprint {
+
+    /** Fingerprint of an absent node, e.g. the body of an abstract method */
+    public static final long NONE = 0L;
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private MethodFingerprint() {
+    }
+
+    /**
+     * Fingerprints all tokens of a node
+     */
+    public static long of(Node node) {
+        if (node == null || !node.getTokenRange().isPresent()) {
+            return NONE;
+        }
+        TokenRange range = node.getTokenRange().get();
+        return hash(range.getBegin(), range.getEnd(), null, null);
+    }
+
+    /**
+     * Fingerprints the signature of a member declaration: its tokens up to the body, without the member's
+     * own annotations. Adding or removing e.g. {@code @Override} or {@code @Deprecated} does not change
+     * what the member does, so it keeps the same fingerprint; parameter annotations are kept.
+     */
+    public static long signatureOf(Node declaration, Node body) {
+        if (!declaration.getTokenRange().isPresent()) {
+            return NONE;
+        }
+        List<TokenRange> skipped = null;
+        if (declaration instanceof NodeWithAnnotations) {
+            skipped = new ArrayList<>();
+            for (AnnotationExpr annotation : ((NodeWithAnnotations<?>) declaration).getAnnotations()) {
+                annotation.getTokenRange().ifPresent(skipped::add);
+            }
+        }
+        TokenRange range = declaration.getTokenRange().get();
+        JavaToken stop = body != null && body.getTokenRange().isPresent() ? body.getTokenRange().get().getBegin() : null;
+        return hash(range.getBegin(), range.getEnd(), stop, skipped);
+    }
+
+    /**
+     * Combines fingerprints independently of their order
+     */
+    public static long combine(long accumulated, long fingerprint) {
+        return accumulated + mix(fingerprint);
+    }
+
+    private static long hash(JavaToken begin, JavaToken end, JavaToken stop, List<TokenRange> skipped) {
+        long h = FNV_OFFSET;
+        JavaToken token = begin;
+        while (token != null && token != stop) {
+            TokenRange skip = skippedAt(token, skipped);
+            if (skip != null) {
+                token = skip.getEnd();
+            } else if (!token.getCategory().isWhitespaceOrComment()) {
+                String text = token.getText();
+                for (int i = 0; i < text.length(); i++) {
+                    h ^= text.charAt(i);
+                    h *= FNV_PRIME;
+                }
+                // Token separator so that "a b" and "ab" differ
+                h ^= 0xff;
+                h *= FNV_PRIME;
+            }
+            if (token == end) {
+                break;
+            }
+            token = token.getNextToken().orElse(null);
+        }
+        long mixed = mix(h);
+        return mixed == NONE ? 1L : mixed;
+    }
+
+    private static TokenRange skippedAt(JavaToken token, List<TokenRange> skipped) {
+        if (skipped != null) {
+            for (TokenRange range : skipped) {
+                if (range.getBegin() == token) {
+                    return range;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 64-bit finalizer (splitmix64) to spread FNV output over all bits
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
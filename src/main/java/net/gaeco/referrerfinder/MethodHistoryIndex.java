@@ -0,0 +1,373 @@
+package net.gaeco.referrerfinder;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * History of every function of a repository: the commits in which it was added, deleted, changed
+ * (its fingerprint differs from the parent's) or moved with its file.
+ *
+ * The index is kept in memory and backed by an append-only log, so indexing new commits never rewrites
+ * what is already stored. Commits are appended in topological order, oldest first, so the last change
+ * recorded for a function is its most recent one. A second file lists the tips whose whole ancestry
+ * is indexed, which is where the next incremental update stops walking.
+ *
+ * Log format: magic, then per commit its raw id, commit time, change count and per change its kind
+ * and UTF-8 function id. A block cut short by a crash is dropped on load and the log truncated to
+ * the last whole block.
+ */
+public class MethodHistoryIndex {
+
+    private static final Logger logger = LoggerFactory.getLogger(MethodHistoryIndex.class);
+
+    private static final int MAGIC = 0x52464d48; // "RFMH"
+    private static final int FORMAT_VERSION = 2;
+    private static final String LOG_FILE = "log";
+    private static final String TIPS_FILE = "tips";
+
+    private static final CommitRangeResult.ChangeKind[] KINDS = CommitRangeResult.ChangeKind.values();
+
+    /**
+     * One commit touching one function
+     */
+    public static class Change {
+        private final ObjectId commitId;
+        private final int commitTime;
+        private final CommitRangeResult.ChangeKind kind;
+
+        Change(ObjectId commitId, int commitTime, CommitRangeResult.ChangeKind kind) {
+            this.commitId = commitId;
+            this.commitTime = commitTime;
+            this.kind = kind;
+        }
+
+        public String getCommitId() { return commitId.name(); }
+        /** Commit time in seconds since the epoch */
+        public int getCommitTime() { return commitTime; }
+        public CommitRangeResult.ChangeKind getKind() { return kind; }
+
+        @Override
+        public String toString() {
+            return commitId.name() + " " + kind;
+        }
+    }
+
+    private final Path directory;
+    private final List<ObjectId> commits = new ArrayList<>();
+    private final List<Integer> commitTimes = new ArrayList<>();
+    private final Set<ObjectId> indexedCommits = new HashSet<>();
+    // Function id -> changes, each packed as commit position * KINDS.length + kind
+    private final Map<String, int[]> changesByFunction = new HashMap<>();
+    private final Set<ObjectId> tips = new HashSet<>();
+
+    private MethodHistoryIndex(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Opens a stored history; its directory is created on the first append
+     *
+     * @param historyId identifies what the history depends on, i.e. the analysis scope and rename settings
+     */
+    public static MethodHistoryIndex open(File baseDirectory, String historyId) {
+        deleteOlderVersions(baseDirectory.toPath());
+        Path directory = baseDirectory.toPath().resolve("history-v" + FORMAT_VERSION).resolve(historyId);
+        MethodHistoryIndex index = new MethodHistoryIndex(directory);
+        index.loadLog();
+        index.loadTips();
+        return index;
+    }
+
+    private static void deleteOlderVersions(Path baseDirectory) {
+        for (int version = 1; version < FORMAT_VERSION; version++) {
+            Path old = baseDirectory.resolve("history-v" + version);
+            if (!Files.isDirectory(old)) {
+                continue;
+            }
+            logger.info("Deleting method histories of format version {}", version);
+            try (Stream<Path> paths = Files.walk(old)) {
+                paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            } catch (IOException e) {
+                logger.warn("Failed to delete {}: {}", old, e.getMessage());
+            }
+        }
+    }
+
+    private void loadLog() {
+        Path file = directory.resolve(LOG_FILE);
+        if (!Files.isRegularFile(file)) {
+            return;
+        }
+
+        long validLength = 0;
+        long length = 0;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            length = channel.size();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            if (buffer.getInt() != MAGIC) {
+                throw new IllegalStateException("Bad magic");
+            }
+            validLength = buffer.position();
+            byte[] rawId = new byte[Constants.OBJECT_ID_LENGTH];
+            while (buffer.hasRemaining()) {
+                try {
+                    buffer.get(rawId);
+                    ObjectId commitId = ObjectId.fromRaw(rawId);
+                    int commitTime = buffer.getInt();
+                    int count = buffer.getInt();
+                    List<String> functions = new ArrayList<>(count);
+                    List<CommitRangeResult.ChangeKind> kinds = new ArrayList<>(count);
+                    for (int i = 0; i < count; i++) {
+                        kinds.add(KINDS[buffer.get()]);
+                        byte[] function = new byte[buffer.getInt()];
+                        buffer.get(function);
+                        functions.add(new String(function, StandardCharsets.UTF_8));
+                    }
+                    addCommit(commitId, commitTime, functions, kinds);
+                    validLength = buffer.position();
+                } catch (BufferUnderflowException | NegativeArraySizeException | ArrayIndexOutOfBoundsException e) {
+                    break;
+                }
+            }
+        } catch (IOException | BufferUnderflowException | IllegalStateException e) {
+            // Start over, as nothing can be appended to a log that cannot be read
+            logger.warn("Discarding unreadable method history {}: {}", file, e.getMessage());
+            clear();
+            try {
+                Files.deleteIfExists(file);
+                Files.deleteIfExists(directory.resolve(TIPS_FILE));
+            } catch (IOException deleteFailure) {
+                logger.warn("Failed to delete method history {}: {}", file, deleteFailure.getMessage());
+            }
+            return;
+        }
+
+        // Appends must continue right after the last whole block
+        if (validLength < length) {
+            logger.warn("Dropping incomplete block at the end of method history {}", file);
+            truncate(file, validLength);
+        }
+        logger.info("Loaded method history: {} commits, {} functions", commits.size(), changesByFunction.size());
+    }
+
+    private void loadTips() {
+        Path file = directory.resolve(TIPS_FILE);
+        if (!Files.isRegularFile(file)) {
+            return;
+        }
+        try {
+            for (String line : Files.readAllLines(file, StandardCharsets.US_ASCII)) {
+                if (ObjectId.isId(line.trim())) {
+                    tips.add(ObjectId.fromString(line.trim()));
+                }
+            }
+        } catch (IOException e) {
+            logger.warn("Ignoring unreadable method history tips {}: {}", file, e.getMessage());
+        }
+    }
+
+    private void clear() {
+        commits.clear();
+        commitTimes.clear();
+        indexedCommits.clear();
+        changesByFunction.clear();
+    }
+
+    private void addCommit(ObjectId commitId, int commitTime, List<String> functions,
+                           List<CommitRangeResult.ChangeKind> kinds) {
+        // Every commit is recorded once, however often it is appended
+        if (!indexedCommits.add(commitId)) {
+            return;
+        }
+        int position = commits.size();
+        commits.add(commitId);
+        commitTimes.add(commitTime);
+        for (int i = 0; i < functions.size(); i++) {
+            int packed = position * KINDS.length + kinds.get(i).ordinal();
+            changesByFunction.merge(functions.get(i), new int[] { packed }, (existing, added) -> {
+                int[] merged = Arrays.copyOf(existing, existing.length + 1);
+                merged[existing.length] = added[0];
+                return merged;
+            });
+        }
+    }
+
+    /**
+     * Appends the changes of commits, in topological order with parents first, to the log and the index.
+     * The index only takes the commits once the whole batch is written; if writing fails, the log is cut
+     * back to where it was, so it never holds commits the index does not.
+     *
+     * @param commitIds the commits
+     * @param commitTimes their commit times
+     * @param changes their changes against their parent, or null entries for merges, which record no changes
+     */
+    public synchronized void append(List<ObjectId> commitIds, List<Integer> commitTimes,
+                                    List<GitFunctionAnalyzer.FunctionChangeResult> changes) throws IOException {
+        Files.createDirectories(directory);
+        Path file = directory.resolve(LOG_FILE);
+        long originalLength = Files.exists(file) ? Files.size(file) : 0;
+
+        List<ObjectId> appendedIds = new ArrayList<>();
+        List<Integer> appendedTimes = new ArrayList<>();
+        List<List<String>> appendedFunctions = new ArrayList<>();
+        List<List<CommitRangeResult.ChangeKind>> appendedKinds = new ArrayList<>();
+        Set<ObjectId> batch = new HashSet<>();
+        try (OutputStream stream = Files.newOutputStream(file, StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+            if (originalLength == 0) {
+                out.writeInt(MAGIC);
+            }
+            byte[] rawId = new byte[Constants.OBJECT_ID_LENGTH];
+            for (int i = 0; i < commitIds.size(); i++) {
+                ObjectId commitId = commitIds.get(i);
+                if (indexedCommits.contains(commitId) || !batch.add(commitId)) {
+                    continue;
+                }
+                List<String> functions = new ArrayList<>();
+                List<CommitRangeResult.ChangeKind> kinds = new ArrayList<>();
+                GitFunctionAnalyzer.FunctionChangeResult result = changes.get(i);
+                if (result != null) {
+                    collect(result.getAddedFunctions(), CommitRangeResult.ChangeKind.ADDED, functions, kinds);
+                    collect(result.getDeletedFunctions(), CommitRangeResult.ChangeKind.DELETED, functions, kinds);
+                    collect(result.getChangedFunctions(), CommitRangeResult.ChangeKind.CHANGED, functions, kinds);
+                    collect(result.getMovedFunctions().keySet(), CommitRangeResult.ChangeKind.MOVED, functions, kinds);
+                }
+
+                commitId.copyRawTo(rawId, 0);
+                out.write(rawId);
+                out.writeInt(commitTimes.get(i));
+                out.writeInt(functions.size());
+                for (int j = 0; j < functions.size(); j++) {
+                    byte[] function = functions.get(j).getBytes(StandardCharsets.UTF_8);
+                    out.writeByte(kinds.get(j).ordinal());
+                    out.writeInt(function.length);
+                    out.write(function);
+                }
+                appendedIds.add(commitId.copy());
+                appendedTimes.add(commitTimes.get(i));
+                appendedFunctions.add(functions);
+                appendedKinds.add(kinds);
+            }
+            out.flush();
+        } catch (IOException e) {
+            truncate(file, originalLength);
+            throw e;
+        }
+
+        for (int i = 0; i < appendedIds.size(); i++) {
+            addCommit(appendedIds.get(i), appendedTimes.get(i), appendedFunctions.get(i), appendedKinds.get(i));
+        }
+    }
+
+    private static void truncate(Path file, long length) {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(length);
+        } catch (IOException e) {
+            // The next load drops the incomplete block instead
+            logger.warn("Failed to truncate method history {}: {}", file, e.getMessage());
+        }
+    }
+
+    private static void collect(Collection<String> functions, CommitRangeResult.ChangeKind kind,
+                                List<String> allFunctions, List<CommitRangeResult.ChangeKind> kinds) {
+        for (String function : functions) {
+            allFunctions.add(function);
+            kinds.add(kind);
+        }
+    }
+
+    /**
+     * Replaces the tips whose whole ancestry is indexed
+     */
+    public synchronized void setTips(Collection<ObjectId> newTips) throws IOException {
+        Files.createDirectories(directory);
+        StringBuilder content = new StringBuilder();
+        for (ObjectId tip : newTips) {
+            content.append(tip.name()).append('\n');
+        }
+        Path tempFile = Files.createTempFile(directory, TIPS_FILE, ".tmp");
+        try {
+            Files.write(tempFile, content.toString().getBytes(StandardCharsets.US_ASCII));
+            try {
+                Files.move(tempFile, directory.resolve(TIPS_FILE), StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tempFile, directory.resolve(TIPS_FILE), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+        tips.clear();
+        for (ObjectId tip : newTips) {
+            tips.add(tip.copy());
+        }
+    }
+
+    public synchronized Set<ObjectId> getTips() {
+        return new HashSet<>(tips);
+    }
+
+    public synchronized boolean isIndexed(ObjectId commitId) {
+        return indexedCommits.contains(commitId);
+    }
+
+    /**
+     * Gets the changes of a function, oldest first, or an empty list if it is not in the index
+     *
+     * @param function the function id ({@code path::Class.method(Params)})
+     */
+    public synchronized List<Change> getHistory(String function) {
+        int[] packed = changesByFunction.get(function);
+        if (packed == null) {
+            return Collections.emptyList();
+        }
+        List<Change> changes = new ArrayList<>(packed.length);
+        for (int value : packed) {
+            changes.add(unpack(value));
+        }
+        return changes;
+    }
+
+    /**
+     * Gets the most recent change of a function, or null if it is not in the index
+     */
+    public synchronized Change getLastChange(String function) {
+        int[] packed = changesByFunction.get(function);
+        return packed != null ? unpack(packed[packed.length - 1]) : null;
+    }
+
+    private Change unpack(int value) {
+        int position = value / KINDS.length;
+        return new Change(commits.get(position), commitTimes.get(position), KINDS[value % KINDS.length]);
+    }
+
+    public synchronized int getCommitCount() { return commits.size(); }
+    public synchronized int getFunctionCount() { return changesByFunction.size(); }
+}
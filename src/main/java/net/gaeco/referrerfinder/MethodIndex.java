@@ -0,0 +1,139 @@
+package net.gaeco.referrerfinder;
+
+import com.github.javaparser.ast.Node;
+import com.github.javaparser.ast.NodeList;
+import com.github.javaparser.ast.body.CallableDeclaration;
+import com.github.javaparser.ast.body.Parameter;
+import com.github.javaparser.ast.nodeTypes.NodeWithTypeParameters;
+import com.github.javaparser.ast.type.ArrayType;
+import com.github.javaparser.ast.type.ClassOrInterfaceType;
+import com.github.javaparser.ast.type.Type;
+import com.github.javaparser.ast.type.TypeParameter;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Index of the methods and other executable members (see {@link MemberExtractor}) declared in one
+ * revision of a Java source file.
+ * Built in a single pass over the parsed compilation unit, so a file is parsed once per revision
+ * no matter how many of its methods are compared. Each method is kept only as fixed-size
+ * fingerprints (see {@link MethodFingerprint}), never as source text.
+ */
+public class MethodIndex {
+
+    public static final MethodIndex EMPTY = new MethodIndex();
+
+    private final Map<String, Entry> entries = new LinkedHashMap<>();
+
+    /**
+     * Key of a method within its file, shared by the index and the referrer graph,
+     * e.g. "ClassName.methodName(int,List,String[])".
+     * Parameter types are erased without type resolution: type arguments are dropped, names are
+     * reduced to their simple form and type variables are replaced by their first bound (or Object),
+     * so every overload gets its own key and import style does not affect it.
+     */
+    public static String keyOf(String className, CallableDeclaration<?> method) {
+        return keyOf(className, method.getNameAsString(), method.getParameters(), method);
+    }
+
+    /**
+     * Key of a member with the given parameters, whose type variables are resolved from the declaration's scope
+     */
+    static String keyOf(String className, String name, NodeList<Parameter> parameters, Node declaration) {
+        Map<String, String> typeVariables = typeVariablesOf(declaration);
+        StringBuilder key = new StringBuilder(className).append('.').append(name).append('(');
+        for (int i = 0; i < parameters.size(); i++) {
+            Parameter parameter = parameters.get(i);
+            if (i > 0) {
+                key.append(',');
+            }
+            key.append(erasure(parameter.getType(), typeVariables));
+            if (parameter.isVarArgs()) {
+                key.append("[]");
+            }
+        }
+        return key.append(')').toString();
+    }
+
+    private static String erasure(Type type, Map<String, String> typeVariables) {
+        if (type instanceof ArrayType) {
+            return erasure(((ArrayType) type).getComponentType(), typeVariables) + "[]";
+        }
+        if (type instanceof ClassOrInterfaceType) {
+            String name = ((ClassOrInterfaceType) type).getNameAsString();
+            return typeVariables.getOrDefault(name, name);
+        }
+        return type.asString();
+    }
+
+    /**
+     * Maps the type variables visible to a method to their erasure, inner declarations shadowing outer ones
+     */
+    private static Map<String, String> typeVariablesOf(Node declaration) {
+        Map<String, String> typeVariables = new HashMap<>();
+        Optional<Node> node = Optional.of(declaration);
+        while (node.isPresent()) {
+            if (node.get() instanceof NodeWithTypeParameters) {
+                for (TypeParameter typeParameter : ((NodeWithTypeParameters<?>) node.get()).getTypeParameters()) {
+                    String bound = typeParameter.getTypeBound().isEmpty()
+                        ? "Object" : typeParameter.getTypeBound().get(0).getNameAsString();
+                    typeVariables.putIfAbsent(typeParameter.getNameAsString(), bound);
+                }
+            }
+            node = node.get().getParentNode();
+        }
+        return typeVariables;
+    }
+
+    /**
+     * Records one member declaration under the given key (e.g. "Outer.Inner.methodName(int)").
+     * Declarations sharing a key are folded together independently of their order.
+     */
+    void add(String key, long signatureFingerprint, long bodyFingerprint) {
+        Entry entry = entries.computeIfAbsent(key, k -> new Entry());
+        entry.signatureFingerprint = MethodFingerprint.combine(entry.signatureFingerprint, signatureFingerprint);
+        entry.bodyFingerprint = MethodFingerprint.combine(entry.bodyFingerprint, bodyFingerprint);
+    }
+
+    /**
+     * Restores a previously computed entry, e.g. when loading from {@link MethodIndexStore}
+     */
+    void put(String key, long signatureFingerprint, long bodyFingerprint) {
+        Entry entry = new Entry();
+        entry.signatureFingerprint = signatureFingerprint;
+        entry.bodyFingerprint = bodyFingerprint;
+        entries.put(key, entry);
+    }
+
+    public Set<String> keys() {
+        return Collections.unmodifiableSet(entries.keySet());
+    }
+
+    public Entry get(String key) {
+        return entries.get(key);
+    }
+
+    public boolean contains(String key) {
+        return entries.containsKey(key);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Signature and body fingerprints of all declarations sharing one key
+     */
+    public static class Entry {
+        private long signatureFingerprint;
+        private long bodyFingerprint;
+
+        public long getSignatureFingerprint() { return signatureFingerprint; }
+        public long getBodyFingerprint() { return bodyFingerprint; }
+    }
+}
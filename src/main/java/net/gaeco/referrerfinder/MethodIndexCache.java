@@ -0,0 +1,68 @@
+package net.gaeco.referrerfinder;
+
+import org.eclipse.jgit.lib.ObjectId;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cache of method indexes keyed by Git blob id.
+ * A blob's content never changes, so an entry is valid for as long as it is kept.
+ * Recently used indexes are held in memory; an optional {@link MethodIndexStore} persists every
+ * index across runs and is consulted lazily on a memory miss.
+ */
+public class MethodIndexCache {
+
+    private static final int DEFAULT_MAX_ENTRIES = 10_000;
+
+    private final Map<ObjectId, MethodIndex> entries;
+    private final MethodIndexStore store;
+
+    public MethodIndexCache(MethodIndexStore store) {
+        this(DEFAULT_MAX_ENTRIES, store);
+    }
+
+    public MethodIndexCache(int maxEntries, MethodIndexStore store) {
+        this.store = store;
+        // Access-ordered map evicting the least recently used index
+        this.entries = new LinkedHashMap<ObjectId, MethodIndex>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<ObjectId, MethodIndex> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Returns the cached index of a blob, or null if it has not been indexed yet
+     */
+    public MethodIndex get(ObjectId blobId) {
+        synchronized (this) {
+            MethodIndex index = entries.get(blobId);
+            if (index != null || store == null) {
+                return index;
+            }
+        }
+
+        MethodIndex index = store.load(blobId);
+        if (index != null) {
+            synchronized (this) {
+                entries.put(blobId.copy(), index);
+            }
+        }
+        return index;
+    }
+
+    public void put(ObjectId blobId, MethodIndex index) {
+        synchronized (this) {
+            entries.put(blobId.copy(), index);
+        }
+        if (store != null) {
+            store.store(blobId, index);
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+}
@@ -0,0 +1,422 @@
+package net.gaeco.referrerfinder;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * On-disk store of method indexes keyed by blob id, packed into append-only files.
+ * Blobs are immutable, so stored entries never need to be invalidated; the format version is part
+ * of the directory name so that a changed index format starts from an empty store, and the
+ * directories of older versions are deleted.
+ *
+ * The store is capped in size by keeping two generations of pack files: new entries are appended to
+ * {@code current}, and once it reaches half the cap it becomes {@code previous}, replacing the one
+ * before it. An entry found in {@code previous} is copied to {@code current}, so indexes still in use
+ * survive the rotation while the others are dropped with their pack. Entries are read with plain
+ * positional reads, as most of them are a few hundred bytes.
+ *
+ * Pack format: magic, then per entry the raw blob id, the length of the index and the index.
+ * An entry cut short by a crash is dropped on load and the pack truncated to the last whole entry.
+ * Several processes may share the store; each sees the entries that were in the packs when it opened
+ * them plus its own.
+ * Index format: magic, entry count, then per entry a front-coded UTF-8 key
+ * (shared prefix length, suffix length, suffix bytes) followed by the two 64-bit fingerprints.
+ */
+public class MethodIndexStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(MethodIndexStore.class);
+
+    private static final int MAGIC = 0x52464d49; // "RFMI"
+    private static final int PACK_MAGIC = 0x52464d50; // "RFMP"
+    private static final int FORMAT_VERSION = 5;
+    private static final long DEFAULT_MAX_BYTES = 256L * 1024 * 1024;
+    private static final int ENTRY_HEADER_LENGTH = Constants.OBJECT_ID_LENGTH + 4;
+
+    private final Path baseDirectory;
+    private final Path directory;
+    private final long maxPackBytes;
+    private Pack current;
+    private Pack previous;
+    private boolean opened;
+
+    public MethodIndexStore(File baseDirectory) {
+        this(baseDirectory, DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * @param maxBytes the most disk space the store may take
+     */
+    public MethodIndexStore(File baseDirectory, long maxBytes) {
+        this.baseDirectory = baseDirectory.toPath();
+        this.directory = this.baseDirectory.resolve("index-v" + FORMAT_VERSION);
+        this.maxPackBytes = Math.max(1, maxBytes / 2);
+    }
+
+    /**
+     * Loads the stored index of a blob, or returns null if the blob has not been stored
+     */
+    public MethodIndex load(ObjectId blobId) {
+        Pack pack;
+        Location location;
+        synchronized (this) {
+            if (!open()) {
+                return null;
+            }
+            pack = current;
+            location = current.locations.get(blobId);
+            if (location == null && previous != null) {
+                pack = previous;
+                location = previous.locations.get(blobId);
+            }
+            if (location == null) {
+                return null;
+            }
+        }
+
+        try {
+            byte[] bytes = pack.read(location);
+            MethodIndex index = decode(ByteBuffer.wrap(bytes));
+            if (pack != current) {
+                // Still in use, so it is kept past the next rotation
+                append(blobId, bytes);
+            }
+            return index;
+        } catch (IOException | BufferUnderflowException | IllegalStateException e) {
+            logger.warn("Ignoring unreadable method index of blob {}: {}", blobId.name(), e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Stores the index of a blob. Existing entries are left untouched since they cannot differ.
+     */
+    public void store(ObjectId blobId, MethodIndex index) {
+        synchronized (this) {
+            if (!open() || current.locations.containsKey(blobId)) {
+                return;
+            }
+        }
+        try {
+            append(blobId, encode(index));
+        } catch (IOException e) {
+            logger.warn("Failed to store method index for blob {}: {}", blobId.name(), e.getMessage());
+        }
+    }
+
+    private synchronized void append(ObjectId blobId, byte[] bytes) {
+        if (!open() || current.locations.containsKey(blobId)) {
+            return;
+        }
+        try {
+            if (current.size >= maxPackBytes) {
+                rotate();
+            }
+            current.append(blobId, bytes);
+        } catch (IOException e) {
+            logger.warn("Failed to store method index for blob {}: {}", blobId.name(), e.getMessage());
+        }
+    }
+
+    /**
+     * Opens the packs on first use
+     *
+     * @return whether the store is usable
+     */
+    private boolean open() {
+        if (opened) {
+            return current != null;
+        }
+        opened = true;
+        deleteOlderVersions();
+        try {
+            Files.createDirectories(directory);
+            current = Pack.open(directory.resolve("current"));
+            Path previousFile = directory.resolve("previous");
+            if (Files.isRegularFile(previousFile)) {
+                previous = Pack.open(previousFile);
+            }
+            logger.debug("Method index store opened: {} + {} entries", current.locations.size(),
+                         previous != null ? previous.locations.size() : 0);
+        } catch (IOException e) {
+            logger.warn("Method index store {} is unusable: {}", directory, e.getMessage());
+            close();
+        }
+        return current != null;
+    }
+
+    /**
+     * Makes the current pack the previous one, dropping the previous pack's entries
+     */
+    private void rotate() throws IOException {
+        logger.info("Method index store reached {} bytes, dropping the oldest entries", current.size);
+        Path currentFile = directory.resolve("current");
+        Path previousFile = directory.resolve("previous");
+        if (previous != null) {
+            previous.close();
+        }
+        current.close();
+        Files.move(currentFile, previousFile, StandardCopyOption.REPLACE_EXISTING);
+        previous = Pack.open(previousFile);
+        current = Pack.open(currentFile);
+    }
+
+    private void deleteOlderVersions() {
+        for (int version = 1; version < FORMAT_VERSION; version++) {
+            Path old = baseDirectory.resolve("index-v" + version);
+            if (!Files.isDirectory(old)) {
+                continue;
+            }
+            logger.info("Deleting method indexes of format version {}", version);
+            try (Stream<Path> paths = Files.walk(old)) {
+                paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            } catch (IOException e) {
+                logger.warn("Failed to delete {}: {}", old, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Closes the pack files; the store reopens them on next use
+     */
+    public synchronized void close() {
+        if (current != null) {
+            current.close();
+        }
+        if (previous != null) {
+            previous.close();
+        }
+        current = null;
+        previous = null;
+        opened = false;
+    }
+
+    private static final class Location {
+        private final long offset;
+        private final int length;
+
+        Location(long offset, int length) {
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    /**
+     * One pack file and the location of every entry in it. Other processes may append to the same file,
+     * so appends and truncation happen under a file lock, and every append goes to the current end of
+     * the file rather than the end this process last saw.
+     */
+    private static final class Pack {
+        // File locks are held per JVM, so threads of one JVM take turns before locking
+        private static final Map<Path, Object> FILE_LOCKS = new ConcurrentHashMap<>();
+
+        private final Path file;
+        private final FileChannel channel;
+        private final Map<ObjectId, Location> locations = new HashMap<>();
+        private long size;
+
+        private Pack(Path file, FileChannel channel) {
+            this.file = file;
+            this.channel = channel;
+        }
+
+        static Pack open(Path file) throws IOException {
+            FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                                                   StandardOpenOption.WRITE);
+            Pack pack = new Pack(file, channel);
+            try {
+                synchronized (FILE_LOCKS.computeIfAbsent(file, k -> new Object())) {
+                    try (FileLock lock = channel.lock()) {
+                        pack.scan();
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+            return pack;
+        }
+
+        private void scan() throws IOException {
+            long length = channel.size();
+            byte[] magic = length >= 4 ? readFully(0, 4) : null;
+            if (magic == null || ByteBuffer.wrap(magic).getInt() != PACK_MAGIC) {
+                if (length > 0) {
+                    logger.warn("Discarding unreadable method index pack {}", file);
+                }
+                channel.truncate(0);
+                writeFully(ByteBuffer.wrap(ByteBuffer.allocate(4).putInt(PACK_MAGIC).array()), 0);
+                size = 4;
+                return;
+            }
+
+            long position = 4;
+            byte[] rawId = new byte[Constants.OBJECT_ID_LENGTH];
+            while (position + ENTRY_HEADER_LENGTH <= length) {
+                ByteBuffer header = ByteBuffer.wrap(readFully(position, ENTRY_HEADER_LENGTH));
+                header.get(rawId);
+                int entryLength = header.getInt();
+                long end = position + ENTRY_HEADER_LENGTH + entryLength;
+                if (entryLength < 0 || end > length) {
+                    break;
+                }
+                locations.put(ObjectId.fromRaw(rawId), new Location(position + ENTRY_HEADER_LENGTH, entryLength));
+                position = end;
+            }
+            // Appends must continue right after the last whole entry
+            if (position < length) {
+                logger.warn("Dropping incomplete entry at the end of method index pack {}", file);
+                channel.truncate(position);
+            }
+            size = position;
+        }
+
+        byte[] read(Location location) throws IOException {
+            byte[] bytes = readFully(location.offset, location.length);
+            if (bytes == null) {
+                throw new IOException("Unexpected end of pack");
+            }
+            return bytes;
+        }
+
+        void append(ObjectId blobId, byte[] bytes) throws IOException {
+            byte[] entry = new byte[ENTRY_HEADER_LENGTH + bytes.length];
+            blobId.copyRawTo(entry, 0);
+            ByteBuffer.wrap(entry, Constants.OBJECT_ID_LENGTH, 4).putInt(bytes.length);
+            System.arraycopy(bytes, 0, entry, ENTRY_HEADER_LENGTH, bytes.length);
+
+            synchronized (FILE_LOCKS.computeIfAbsent(file, k -> new Object())) {
+                try (FileLock lock = channel.lock()) {
+                    long position = channel.size();
+                    writeFully(ByteBuffer.wrap(entry), position);
+                    locations.put(blobId.copy(), new Location(position + ENTRY_HEADER_LENGTH, bytes.length));
+                    size = position + entry.length;
+                }
+            }
+        }
+
+        /**
+         * Reads bytes at a position, or returns null if the file ends before
+         */
+        private byte[] readFully(long position, int length) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(length);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, position + buffer.position()) < 0) {
+                    return null;
+                }
+            }
+            return buffer.array();
+        }
+
+        private void writeFully(ByteBuffer buffer, long position) throws IOException {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer, position + buffer.position());
+            }
+        }
+
+        void close() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                logger.debug("Failed to close method index pack {}: {}", file, e.getMessage());
+            }
+        }
+    }
+
+    static byte[] encode(MethodIndex index) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + index.size() * 32);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        writeVarInt(out, index.size());
+
+        byte[] previous = new byte[0];
+        for (String key : index.keys()) {
+            byte[] current = key.getBytes(StandardCharsets.UTF_8);
+            int shared = sharedPrefixLength(previous, current);
+            writeVarInt(out, shared);
+            writeVarInt(out, current.length - shared);
+            out.write(current, shared, current.length - shared);
+
+            MethodIndex.Entry entry = index.get(key);
+            out.writeLong(entry.getSignatureFingerprint());
+            out.writeLong(entry.getBodyFingerprint());
+            previous = current;
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    static MethodIndex decode(ByteBuffer buffer) {
+        if (buffer.getInt() != MAGIC) {
+            throw new IllegalStateException("bad magic");
+        }
+        int count = readVarInt(buffer);
+
+        MethodIndex index = new MethodIndex();
+        byte[] key = new byte[64];
+        for (int i = 0; i < count; i++) {
+            int shared = readVarInt(buffer);
+            int suffix = readVarInt(buffer);
+            if (shared + suffix > key.length) {
+                byte[] grown = new byte[Math.max(shared + suffix, key.length * 2)];
+                System.arraycopy(key, 0, grown, 0, shared);
+                key = grown;
+            }
+            buffer.get(key, shared, suffix);
+            long signatureFingerprint = buffer.getLong();
+            long bodyFingerprint = buffer.getLong();
+            index.put(new String(key, 0, shared + suffix, StandardCharsets.UTF_8),
+                      signatureFingerprint, bodyFingerprint);
+        }
+        return index;
+    }
+
+    private static int sharedPrefixLength(byte[] a, byte[] b) {
+        int max = Math.min(a.length, b.length);
+        int i = 0;
+        while (i < max && a[i] == b[i]) {
+            i++;
+        }
+        return i;
+    }
+
+    private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7f) != 0) {
+            out.writeByte((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVarInt(ByteBuffer buffer) {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte b = buffer.get();
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalStateException("malformed varint");
+    }
+}
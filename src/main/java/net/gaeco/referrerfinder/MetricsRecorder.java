@@ -0,0 +1,31 @@
+package net.gaeco.referrerfinder;
+
+/**
+ * Sink for analysis metrics, e.g. an adapter onto a Micrometer MeterRegistry
+ * ({@code registry.timer(name).record(nanos, TimeUnit.NANOSECONDS)} and
+ * {@code registry.counter(name).increment(amount)}).
+ * Called once per completed analysis, possibly from several threads at once.
+ */
+public interface MetricsRecorder {
+
+    /** Recorder that discards everything */
+    MetricsRecorder NONE = new MetricsRecorder() {
+        @Override
+        public void recordTime(String name, long nanos) {
+        }
+
+        @Override
+        public void increment(String name, long amount) {
+        }
+    };
+
+    /**
+     * Records one duration of a timer
+     */
+    void recordTime(String name, long nanos);
+
+    /**
+     * Adds to a counter
+     */
+    void increment(String name, long amount);
+}
@@ -0,0 +1,113 @@
+package net.gaeco.referrerfinder;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Writes function changes as newline-delimited JSON, one line per function, flushed after each file.
+ *
+ * Line types: ADDED, DELETED and CHANGED carry "file", "function" and "id" ("file::function");
+ * MOVED additionally carries "from", the id at the old path of a renamed or copied file;
+ * SUMMARY closes a successful stream with the change counts and ERROR reports a failure.
+ */
+public class NdjsonFunctionChangeWriter implements FunctionChangeListener {
+
+    private final Writer writer;
+
+    public NdjsonFunctionChangeWriter(Writer writer) {
+        this.writer = writer;
+    }
+
+    @Override
+    public synchronized void onFileAnalyzed(ChangedFile changedFile, MethodDelta delta) {
+        if (delta.isEmpty()) {
+            return;
+        }
+        String javaFile = changedFile.getPath();
+        delta.getAdded().forEach(function -> writeFunction("ADDED", javaFile, function));
+        delta.getDeleted().forEach(function -> writeFunction("DELETED", changedFile.getOldPath(), function));
+        delta.getChanged().forEach(function -> writeFunction("CHANGED", javaFile, function));
+        delta.getMoved().forEach(function -> writeMoved(changedFile.getOldPath() + "::" + function,
+                                                        javaFile + "::" + function));
+        flush();
+    }
+
+    /**
+     * Writes one function line from a "file::function" id, e.g. when replaying a stored result
+     */
+    public synchronized void writeFunction(String type, String functionId) {
+        writeLine(functionLine(type, functionId));
+    }
+
+    /**
+     * Writes one MOVED line from the ids at the old and new path
+     */
+    public synchronized void writeMoved(String fromId, String functionId) {
+        Map<String, Object> line = functionLine("MOVED", functionId);
+        line.put("from", fromId);
+        writeLine(line);
+    }
+
+    public synchronized void writeSummary(String oldCommitId, String newCommitId, int added, int deleted, int changed,
+                                          int moved) {
+        Map<String, Object> line = new LinkedHashMap<>();
+        line.put("type", "SUMMARY");
+        line.put("oldCommit", oldCommitId);
+        line.put("newCommit", newCommitId);
+        line.put("added", added);
+        line.put("deleted", deleted);
+        line.put("changed", changed);
+        line.put("moved", moved);
+        writeLine(line);
+        flush();
+    }
+
+    public synchronized void writeError(String message) {
+        Map<String, Object> line = new LinkedHashMap<>();
+        line.put("type", "ERROR");
+        line.put("message", message);
+        writeLine(line);
+        flush();
+    }
+
+    private void writeFunction(String type, String javaFile, String function) {
+        writeLine(functionLine(type, javaFile, function));
+    }
+
+    private static Map<String, Object> functionLine(String type, String functionId) {
+        int separator = functionId.indexOf("::");
+        if (separator < 0) {
+            return functionLine(type, "", functionId);
+        }
+        return functionLine(type, functionId.substring(0, separator), functionId.substring(separator + 2));
+    }
+
+    private static Map<String, Object> functionLine(String type, String javaFile, String function) {
+        Map<String, Object> line = new LinkedHashMap<>();
+        line.put("type", type);
+        line.put("file", javaFile);
+        line.put("function", function);
+        line.put("id", javaFile + "::" + function);
+        return line;
+    }
+
+    private void writeLine(Map<String, Object> line) {
+        try {
+            writer.write(JsonWriter.toJson(line));
+            writer.write('\n');
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void flush() {
+        try {
+            writer.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package net.gaeco.referrerfinder;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Reverse call graph of one revision: maps each method to the methods that call it.
+ * Method ids have the same form as the analyzer's results ("path::ClassName.methodName(int,String)").
+ *
+ * Calls are matched to declarations by method name without type resolution. An unqualified call
+ * is bound to the caller's own class when that class declares a method of the same name; any
+ * other call may refer to every method of that name, which errs on the side of reporting a referrer.
+ * The graph is stored per file, so a file's contribution can be replaced without touching the rest.
+ */
+public class ReferrerIndex {
+
+    private final Map<String, FileReferences> files = new HashMap<>();
+    private final Map<String, Set<MethodRef>> declarationsByName = new HashMap<>();
+    private final Map<String, MethodRef> declarationsById = new HashMap<>();
+    private final Map<String, List<CallSite>> callSitesByName = new HashMap<>();
+
+    /**
+     * Adds the declarations and call sites of one file, replacing any previous contribution of that path
+     */
+    public synchronized void putFile(FileReferences references) {
+        removeFile(references.path);
+        files.put(references.path, references);
+
+        for (MethodRef method : references.methods) {
+            declarationsByName.computeIfAbsent(method.name, k -> new HashSet<>()).add(method);
+            declarationsById.put(method.id, method);
+        }
+        for (CallSite callSite : references.callSites) {
+            callSitesByName.computeIfAbsent(callSite.calleeName, k -> new ArrayList<>()).add(callSite);
+        }
+    }
+
+    /**
+     * Removes everything a file contributed to the graph
+     */
+    public synchronized void removeFile(String path) {
+        FileReferences references = files.remove(path);
+        if (references == null) {
+            return;
+        }
+
+        for (MethodRef method : references.methods) {
+            Set<MethodRef> declarations = declarationsByName.get(method.name);
+            if (declarations != null) {
+                declarations.remove(method);
+                if (declarations.isEmpty()) {
+                    declarationsByName.remove(method.name);
+                }
+            }
+            declarationsById.remove(method.id, method);
+        }
+        Set<String> calleeNames = new HashSet<>();
+        for (CallSite callSite : references.callSites) {
+            calleeNames.add(callSite.calleeName);
+        }
+        for (String calleeName : calleeNames) {
+            List<CallSite> callSites = callSitesByName.get(calleeName);
+            if (callSites != null) {
+                callSites.removeIf(site -> site.callerPath.equals(path));
+                if (callSites.isEmpty()) {
+                    callSitesByName.remove(calleeName);
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the methods that directly call the given method
+     */
+    public synchronized Set<String> getReferrers(String methodId) {
+        MethodRef target = declarationsById.get(methodId);
+        if (target == null) {
+            return Collections.emptySet();
+        }
+
+        Set<String> referrers = new LinkedHashSet<>();
+        for (CallSite callSite : callSitesByName.getOrDefault(target.name, Collections.emptyList())) {
+            if (callSite.unqualified && !callSite.callerClassId.equals(target.classId)
+                && declaresInClass(callSite.callerClassId, target.name)) {
+                // An unqualified call resolves to the caller's own method of that name
+                continue;
+            }
+            referrers.add(callSite.callerId);
+        }
+        return referrers;
+    }
+
+    /**
+     * Gets every method that reaches the given method through one or more calls
+     */
+    public synchronized Set<String> getTransitiveReferrers(String methodId) {
+        Set<String> visited = new LinkedHashSet<>();
+        Deque<String> pending = new ArrayDeque<>();
+        pending.add(methodId);
+
+        while (!pending.isEmpty()) {
+            for (String referrer : getReferrers(pending.poll())) {
+                if (!referrer.equals(methodId) && visited.add(referrer)) {
+                    pending.add(referrer);
+                }
+            }
+        }
+        return visited;
+    }
+
+    /**
+     * Gets the per-file contributions, e.g. for persisting the graph
+     */
+    public synchronized Collection<FileReferences> getFiles() {
+        return new ArrayList<>(files.values());
+    }
+
+    public synchronized int getFileCount() {
+        return files.size();
+    }
+
+    public synchronized int getMethodCount() {
+        return declarationsById.size();
+    }
+
+    private boolean declaresInClass(String classId, String methodName) {
+        for (MethodRef method : declarationsByName.getOrDefault(methodName, Collections.emptySet())) {
+            if (method.classId.equals(classId)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Declarations and call sites contributed by one source file
+     */
+    public static class FileReferences {
+        private final String path;
+        private final List<MethodRef> methods = new ArrayList<>();
+        private final List<CallSite> callSites = new ArrayList<>();
+
+        public FileReferences(String path) {
+            this.path = path;
+        }
+
+        /**
+         * Records a declared method
+         *
+         * @param classKey the enclosing class as used in method keys, e.g. "ClassName"
+         * @param methodKey the method key within the file, e.g. "ClassName.methodName(int,String)"
+         * @param name the simple method name
+         */
+        public void addMethod(String classKey, String methodKey, String name) {
+            methods.add(new MethodRef(path + "::" + methodKey, path + "::" + classKey, name));
+        }
+
+        /**
+         * Records a call made from a declared method
+         *
+         * @param unqualified whether the call has no scope or is scoped by {@code this}
+         */
+        public void addCallSite(String classKey, String callerMethodKey, String calleeName, boolean unqualified) {
+            callSites.add(new CallSite(path + "::" + callerMethodKey, path + "::" + classKey, path,
+                                       calleeName, unqualified));
+        }
+
+        public String getPath() { return path; }
+        public List<MethodRef> getMethods() { return Collections.unmodifiableList(methods); }
+        public List<CallSite> getCallSites() { return Collections.unmodifiableList(callSites); }
+    }
+
+    /**
+     * A declared method
+     */
+    public static class MethodRef {
+        private final String id;
+        private final String classId;
+        private final String name;
+
+        MethodRef(String id, String classId, String name) {
+            this.id = id;
+            this.classId = classId;
+            this.name = name;
+        }
+
+        public String getId() { return id; }
+        public String getClassId() { return classId; }
+        public String getName() { return name; }
+    }
+
+    /**
+     * A call or method reference by name from inside a declared method
+     */
+    public static class CallSite {
+        private final String callerId;
+        private final String callerClassId;
+        private final String callerPath;
+        private final String calleeName;
+        private final boolean unqualified;
+
+        CallSite(String callerId, String callerClassId, String callerPath, String calleeName, boolean unqualified) {
+            this.callerId = callerId;
+            this.callerClassId = callerClassId;
+            this.callerPath = callerPath;
+            this.calleeName = calleeName;
+            this.unqualified = unqualified;
+        }
+
+        public String getCallerId() { return callerId; }
+        public String getCallerClassId() { return callerClassId; }
+        public String getCalleeName() { return calleeName; }
+        public boolean isUnqualified() { return unqualified; }
+    }
+}
@@ -0,0 +1,298 @@
+package net.gaeco.referrerfinder;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * On-disk store of referrer indexes, one file per commit id and analysis scope.
+ * A stored graph is the base from which the graph of a later commit is derived incrementally.
+ * A derived graph is stored as its changes to the stored graph of its base, so deriving costs writes
+ * proportional to the diff; after a chain of {@value #MAX_DELTA_CHAIN} such changes a full graph is
+ * written again. Only the most recently stored or loaded graphs are kept; the least recently used ones
+ * are deleted once there are more than the limit, as any of them can be derived again from another base.
+ * Loading a derived graph also marks its bases as used, and a derived graph whose base has been deleted
+ * is treated as not stored.
+ *
+ * File format (gzip): magic, chain depth (0 for a full graph), and for a derived graph the base commit id
+ * and the removed paths; then the file count, and per file its path, its declared methods
+ * (class key, method key, name) and its call sites (class key, caller key, callee name, unqualified).
+ */
+public class ReferrerIndexStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReferrerIndexStore.class);
+
+    private static final int MAGIC = 0x52464349; // "RFCI"
+    private static final int FORMAT_VERSION = 4;
+    private static final int DEFAULT_MAX_GRAPHS = 16;
+    private static final int MAX_DELTA_CHAIN = 8;
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final Path directory;
+    private final int maxGraphs;
+
+    public ReferrerIndexStore(File baseDirectory) {
+        this(baseDirectory, DEFAULT_MAX_GRAPHS);
+    }
+
+    /**
+     * @param maxGraphs the number of graphs kept on disk
+     */
+    public ReferrerIndexStore(File baseDirectory, int maxGraphs) {
+        this.directory = baseDirectory.toPath().resolve("referrers-v" + FORMAT_VERSION);
+        this.maxGraphs = Math.max(1, maxGraphs);
+    }
+
+    /**
+     * Loads the stored graph of a commit for an analysis scope, or returns null if none has been stored
+     */
+    public ReferrerIndex load(ObjectId commitId, String scopeId) {
+        return load(commitId, scopeId, MAX_DELTA_CHAIN);
+    }
+
+    /**
+     * Loads a graph whose chain of bases is at most the given depth
+     */
+    private ReferrerIndex load(ObjectId commitId, String scopeId, int maxDepth) {
+        Path file = pathOf(commitId, scopeId);
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+
+        try (InputStream in = Files.newInputStream(file)) {
+            DataInputStream data = new DataInputStream(new BufferedInputStream(new GZIPInputStream(in)));
+            int depth = readHeader(data);
+            if (depth > maxDepth) {
+                throw new IllegalStateException("chain too long");
+            }
+
+            ReferrerIndex index;
+            if (depth == 0) {
+                index = new ReferrerIndex();
+            } else {
+                ObjectId baseCommitId = ObjectId.fromString(data.readUTF());
+                index = load(baseCommitId, scopeId, depth - 1);
+                if (index == null) {
+                    logger.debug("Base {} of referrer index {} is no longer stored", baseCommitId.name(), file);
+                    return null;
+                }
+                int removedCount = data.readInt();
+                for (int i = 0; i < removedCount; i++) {
+                    index.removeFile(data.readUTF());
+                }
+            }
+            readFiles(data, index);
+            // The modification time orders graphs by last use for eviction
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+            return index;
+        } catch (IOException | IllegalStateException e) {
+            logger.warn("Ignoring unreadable referrer index {}: {}", file, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Stores the graph of a commit for an analysis scope, replacing any previous copy
+     */
+    public void store(ObjectId commitId, String scopeId, ReferrerIndex index) {
+        write(commitId, scopeId, out -> {
+            out.writeInt(0);
+            writeFiles(out, index.getFiles());
+        });
+    }
+
+    /**
+     * Stores the graph of a commit that was derived from the graph of a base commit.
+     * If the base graph is stored and its chain is short enough, only the changes are written;
+     * otherwise the full graph is.
+     *
+     * @param index the derived graph
+     * @param removedPaths the paths whose contributions were removed from the base graph
+     * @param changedFiles the contributions added to the base graph after the removals
+     */
+    public void storeDerived(ObjectId commitId, String scopeId, ReferrerIndex index, ObjectId baseCommitId,
+                             Collection<String> removedPaths, Collection<ReferrerIndex.FileReferences> changedFiles) {
+        int baseDepth = depthOf(baseCommitId, scopeId);
+        if (baseDepth < 0 || baseDepth + 1 > MAX_DELTA_CHAIN) {
+            store(commitId, scopeId, index);
+            return;
+        }
+
+        write(commitId, scopeId, out -> {
+            out.writeInt(baseDepth + 1);
+            out.writeUTF(baseCommitId.name());
+            out.writeInt(removedPaths.size());
+            for (String path : removedPaths) {
+                out.writeUTF(path);
+            }
+            writeFiles(out, changedFiles);
+        });
+        logger.debug("Stored referrer index for commit {} as {} changes to {}",
+                     commitId.name(), removedPaths.size() + changedFiles.size(), baseCommitId.name());
+    }
+
+    /**
+     * Gets the chain depth of a stored graph, or -1 if it is not stored or unreadable
+     */
+    private int depthOf(ObjectId commitId, String scopeId) {
+        Path file = pathOf(commitId, scopeId);
+        if (!Files.isRegularFile(file)) {
+            return -1;
+        }
+
+        try (InputStream in = Files.newInputStream(file)) {
+            return readHeader(new DataInputStream(new BufferedInputStream(new GZIPInputStream(in))));
+        } catch (IOException | IllegalStateException e) {
+            return -1;
+        }
+    }
+
+    private interface Writer {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private void write(ObjectId commitId, String scopeId, Writer writer) {
+        Path file = pathOf(commitId, scopeId);
+        Path tempFile = null;
+        try {
+            Files.createDirectories(directory);
+            tempFile = Files.createTempFile(directory, commitId.name(), TEMP_SUFFIX);
+            try (OutputStream out = Files.newOutputStream(tempFile)) {
+                GZIPOutputStream gzip = new GZIPOutputStream(out);
+                DataOutputStream data = new DataOutputStream(new BufferedOutputStream(gzip));
+                data.writeInt(MAGIC);
+                writer.write(data);
+                data.flush();
+                gzip.finish();
+            }
+            try {
+                Files.move(tempFile, file, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+            tempFile = null;
+        } catch (IOException e) {
+            logger.warn("Failed to store referrer index for commit {}: {}", commitId.name(), e.getMessage());
+        } finally {
+            if (tempFile != null) {
+                try {
+                    Files.deleteIfExists(tempFile);
+                } catch (IOException e) {
+                    logger.debug("Failed to delete temporary file {}", tempFile);
+                }
+            }
+        }
+        evict();
+    }
+
+    /**
+     * Deletes the least recently used graphs beyond the limit
+     */
+    private void evict() {
+        List<Path> graphs = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                if (!file.getFileName().toString().endsWith(TEMP_SUFFIX)) {
+                    graphs.add(file);
+                }
+            }
+        } catch (IOException e) {
+            logger.warn("Failed to list referrer indexes in {}: {}", directory, e.getMessage());
+            return;
+        }
+        if (graphs.size() <= maxGraphs) {
+            return;
+        }
+
+        Map<Path, Long> lastUsed = new HashMap<>();
+        for (Path graph : graphs) {
+            lastUsed.put(graph, graph.toFile().lastModified());
+        }
+        graphs.sort(Comparator.comparing(lastUsed::get));
+        for (Path graph : graphs.subList(0, graphs.size() - maxGraphs)) {
+            try {
+                Files.deleteIfExists(graph);
+                logger.debug("Evicted referrer index {}", graph.getFileName());
+            } catch (IOException e) {
+                logger.warn("Failed to delete referrer index {}: {}", graph, e.getMessage());
+            }
+        }
+    }
+
+    private Path pathOf(ObjectId commitId, String scopeId) {
+        return directory.resolve(commitId.name() + "-" + scopeId);
+    }
+
+    private static int readHeader(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IllegalStateException("bad magic");
+        }
+        return in.readInt();
+    }
+
+    private static void writeFiles(DataOutputStream out, Collection<ReferrerIndex.FileReferences> files)
+            throws IOException {
+        out.writeInt(files.size());
+
+        for (ReferrerIndex.FileReferences references : files) {
+            String prefix = references.getPath() + "::";
+            out.writeUTF(references.getPath());
+
+            out.writeInt(references.getMethods().size());
+            for (ReferrerIndex.MethodRef method : references.getMethods()) {
+                out.writeUTF(method.getClassId().substring(prefix.length()));
+                out.writeUTF(method.getId().substring(prefix.length()));
+                out.writeUTF(method.getName());
+            }
+
+            out.writeInt(references.getCallSites().size());
+            for (ReferrerIndex.CallSite callSite : references.getCallSites()) {
+                out.writeUTF(callSite.getCallerClassId().substring(prefix.length()));
+                out.writeUTF(callSite.getCallerId().substring(prefix.length()));
+                out.writeUTF(callSite.getCalleeName());
+                out.writeBoolean(callSite.isUnqualified());
+            }
+        }
+    }
+
+    private static void readFiles(DataInputStream in, ReferrerIndex index) throws IOException {
+        int fileCount = in.readInt();
+        for (int i = 0; i < fileCount; i++) {
+            ReferrerIndex.FileReferences references = new ReferrerIndex.FileReferences(in.readUTF());
+
+            int methodCount = in.readInt();
+            for (int m = 0; m < methodCount; m++) {
+                references.addMethod(in.readUTF(), in.readUTF(), in.readUTF());
+            }
+
+            int callSiteCount = in.readInt();
+            for (int c = 0; c < callSiteCount; c++) {
+                references.addCallSite(in.readUTF(), in.readUTF(), in.readUTF(), in.readBoolean());
+            }
+            index.putFile(references);
+        }
+    }
+}
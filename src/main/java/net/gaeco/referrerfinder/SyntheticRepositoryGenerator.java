@@ -0,0 +1,371 @@
+package net.gaeco.referrerfinder;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheBuilder;
+import org.eclipse.jgit.dircache.DirCacheEntry;
+import org.eclipse.jgit.lib.CommitBuilder;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.TimeZone;
+
+/**
+ * Builds deterministic synthetic repositories for scale testing, so that analyzer throughput can be
+ * measured without a real repository or network access.
+ *
+ * The first commit adds every class under {@code src/main/java/com/example/myapp/moduleN}; each later
+ * commit rewrites the bodies of some methods in a fixed share of the classes. Objects are written
+ * straight into the object database of a bare repository, and the same settings always produce
+ * the same commit ids.
+ */
+public class SyntheticRepositoryGenerator {
+
+    private static final Logger logger = LoggerFactory.getLogger(SyntheticRepositoryGenerator.class);
+
+    public static final String BASE_PACKAGE = "com.example.myapp";
+    private static final String SOURCE_ROOT = "src/main/java/";
+    private static final String[] PARAMETER_TYPES = {"int", "String", "long", "java.util.List<String>", "double"};
+    private static final int NESTED_CLASS_METHODS = 2;
+    private static final long EPOCH_MILLIS = 1_600_000_000_000L;
+
+    private int packages = 10;
+    private int classesPerPackage = 10;
+    private int methodsPerClass = 10;
+    private int overloadsPerMethod = 1;
+    private int nestedClassesPerClass = 0;
+    private int commits = 1;
+    private double classChurn = 0.1;
+    private double methodChurn = 0.2;
+    private long seed = 42L;
+
+    /** Number of packages below {@value #BASE_PACKAGE} */
+    public void setPackages(int packages) {
+        this.packages = requirePositive("packages", packages);
+    }
+
+    public void setClassesPerPackage(int classesPerPackage) {
+        this.classesPerPackage = requirePositive("classesPerPackage", classesPerPackage);
+    }
+
+    /** Number of distinct method names in each top-level class */
+    public void setMethodsPerClass(int methodsPerClass) {
+        this.methodsPerClass = requirePositive("methodsPerClass", methodsPerClass);
+    }
+
+    /** Number of declarations sharing each method name, told apart by their parameter count */
+    public void setOverloadsPerMethod(int overloadsPerMethod) {
+        this.overloadsPerMethod = requirePositive("overloadsPerMethod", overloadsPerMethod);
+    }
+
+    /** Number of static nested classes in each top-level class, each declaring two methods */
+    public void setNestedClassesPerClass(int nestedClassesPerClass) {
+        if (nestedClassesPerClass < 0) {
+            throw new IllegalArgumentException("nestedClassesPerClass must not be negative");
+        }
+        this.nestedClassesPerClass = nestedClassesPerClass;
+    }
+
+    /** Number of commits after the initial one */
+    public void setCommits(int commits) {
+        if (commits < 0) {
+            throw new IllegalArgumentException("commits must not be negative");
+        }
+        this.commits = commits;
+    }
+
+    /**
+     * Sets how much each commit after the initial one changes
+     *
+     * @param classChurn share of all classes modified by each commit, between 0 and 1
+     * @param methodChurn share of the methods modified in each of those classes, between 0 and 1
+     */
+    public void setChurn(double classChurn, double methodChurn) {
+        if (classChurn < 0 || classChurn > 1 || methodChurn < 0 || methodChurn > 1) {
+            throw new IllegalArgumentException("Churn must be between 0 and 1");
+        }
+        this.classChurn = classChurn;
+        this.methodChurn = methodChurn;
+    }
+
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    public int getClassCount() {
+        return packages * classesPerPackage;
+    }
+
+    /**
+     * Number of method declarations in each generated class, including overloads and nested classes
+     */
+    public int getMethodSlotCount() {
+        return methodsPerClass * overloadsPerMethod + nestedClassesPerClass * NESTED_CLASS_METHODS;
+    }
+
+    /**
+     * Creates a bare repository in the given directory and generates its history
+     *
+     * @return the ids of the generated commits, oldest first
+     */
+    public List<ObjectId> generate(File directory) throws IOException {
+        try (Git git = Git.init().setBare(true).setDirectory(directory).call()) {
+            return generate(git.getRepository());
+        } catch (GitAPIException e) {
+            throw new IOException("Failed to create repository in " + directory, e);
+        }
+    }
+
+    /**
+     * Generates the history on top of an existing, empty repository and points HEAD at the last commit
+     *
+     * @return the ids of the generated commits, oldest first
+     */
+    public List<ObjectId> generate(Repository repository) throws IOException {
+        int classCount = getClassCount();
+        int slots = getMethodSlotCount();
+        int[][] revisions = new int[classCount][slots];
+        ObjectId[] blobIds = new ObjectId[classCount];
+        String[] paths = new String[classCount];
+        for (int c = 0; c < classCount; c++) {
+            paths[c] = SOURCE_ROOT + packageName(c).replace('.', '/') + "/" + className(c) + ".java";
+        }
+
+        Random random = new Random(seed);
+        List<ObjectId> commitIds = new ArrayList<>();
+        int changedClasses = (int) Math.round(classCount * classChurn);
+        int changedMethods = Math.max(1, (int) Math.round(slots * methodChurn));
+        int[] classOrder = identity(classCount);
+        int[] slotOrder = identity(slots);
+        ObjectId parent = null;
+
+        try (ObjectInserter inserter = repository.newObjectInserter()) {
+            for (int commit = 0; commit <= commits; commit++) {
+                if (commit == 0) {
+                    for (int c = 0; c < classCount; c++) {
+                        blobIds[c] = insertClass(inserter, c, revisions[c]);
+                    }
+                } else {
+                    // The first changedClasses entries of a partial shuffle are the classes to modify
+                    shuffle(classOrder, changedClasses, random);
+                    for (int i = 0; i < changedClasses; i++) {
+                        int c = classOrder[i];
+                        shuffle(slotOrder, changedMethods, random);
+                        for (int m = 0; m < changedMethods; m++) {
+                            revisions[c][slotOrder[m]] = commit;
+                        }
+                        blobIds[c] = insertClass(inserter, c, revisions[c]);
+                    }
+                }
+
+                ObjectId treeId = writeTree(inserter, paths, blobIds);
+                parent = insertCommit(inserter, treeId, parent, commit, commit == 0 ? classCount : changedClasses);
+                commitIds.add(parent);
+            }
+            inserter.flush();
+        }
+
+        RefUpdate update = repository.updateRef(Constants.HEAD);
+        update.setNewObjectId(parent);
+        update.forceUpdate();
+
+        logger.info("Generated {} commits over {} classes in {}", commitIds.size(), classCount,
+                    repository.getDirectory());
+        return commitIds;
+    }
+
+    /**
+     * Generates the source of one class; a method whose revision changes gets a different body.
+     * Exposed so that single-file benchmarks use the same shape of code as the generated repositories.
+     *
+     * @param revisions one entry per declaration, see {@link #getMethodSlotCount()}
+     */
+    public String generateClass(String packageName, String className, String calleeClassName, int[] revisions) {
+        if (revisions.length != getMethodSlotCount()) {
+            throw new IllegalArgumentException("Expected " + getMethodSlotCount() + " revisions");
+        }
+
+        StringBuilder source = new StringBuilder(revisions.length * 200 + 256);
+        source.append("package ").append(packageName).append(";\n\n");
+        source.append("import java.util.List;\n\n");
+        source.append("/**\n * Generated class ").append(className).append("\n */\n");
+        source.append("public class ").append(className).append(" {\n\n");
+        source.append("    private int counter;\n\n");
+
+        int slot = 0;
+        for (int m = 0; m < methodsPerClass; m++) {
+            for (int o = 0; o < overloadsPerMethod; o++) {
+                appendMethod(source, "    ", "method" + m, o + 1, revisions[slot++], m, calleeClassName);
+            }
+        }
+
+        for (int n = 0; n < nestedClassesPerClass; n++) {
+            source.append("    public static class Nested").append(n).append(" {\n\n");
+            for (int m = 0; m < NESTED_CLASS_METHODS; m++) {
+                appendMethod(source, "        ", "nested" + m, 1, revisions[slot++], -1, null);
+            }
+            source.append("    }\n\n");
+        }
+
+        source.append("}\n");
+        return source.toString();
+    }
+
+    private void appendMethod(StringBuilder source, String indent, String name, int parameterCount,
+                              int revision, int methodNumber, String calleeClassName) {
+        source.append(indent).append("// ").append(name).append(" revision ").append(revision).append('\n');
+        source.append(indent).append("public int ").append(name).append('(');
+        for (int p = 0; p < parameterCount; p++) {
+            if (p > 0) {
+                source.append(", ");
+            }
+            source.append(PARAMETER_TYPES[p % PARAMETER_TYPES.length]).append(" p").append(p);
+        }
+        source.append(") {\n");
+        source.append(indent).append("    int result = ").append(revision * 31 + parameterCount).append(";\n");
+        source.append(indent).append("    for (int i = 0; i < ").append(parameterCount + 2).append("; i++) {\n");
+        source.append(indent).append("        result += i * ").append(revision + 1).append(";\n");
+        source.append(indent).append("    }\n");
+        if (methodNumber > 0) {
+            source.append(indent).append("    result += method").append(methodNumber - 1).append("(result);\n");
+        } else if (methodNumber == 0 && calleeClassName != null) {
+            source.append(indent).append("    result += new ").append(calleeClassName).append("().method0(result);\n");
+        }
+        source.append(indent).append("    return result;\n");
+        source.append(indent).append("}\n\n");
+    }
+
+    private ObjectId insertClass(ObjectInserter inserter, int classIndex, int[] revisions) throws IOException {
+        // Every class calls into the next class of its package, so the referrer graph has edges
+        int next = classIndex - classIndex % classesPerPackage + (classIndex + 1) % classesPerPackage;
+        String source = generateClass(packageName(classIndex), className(classIndex),
+                                      next == classIndex ? null : className(next), revisions);
+        return inserter.insert(Constants.OBJ_BLOB, source.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private ObjectId writeTree(ObjectInserter inserter, String[] paths, ObjectId[] blobIds) throws IOException {
+        DirCache index = DirCache.newInCore();
+        DirCacheBuilder builder = index.builder();
+        for (int c = 0; c < paths.length; c++) {
+            DirCacheEntry entry = new DirCacheEntry(paths[c]);
+            entry.setFileMode(FileMode.REGULAR_FILE);
+            entry.setObjectId(blobIds[c]);
+            builder.add(entry);
+        }
+        // The builder sorts the entries
+        builder.finish();
+        return index.writeTree(inserter);
+    }
+
+    private ObjectId insertCommit(ObjectInserter inserter, ObjectId treeId, ObjectId parent,
+                                  int commit, int changedClasses) throws IOException {
+        // Fixed timestamps keep the commit ids reproducible
+        PersonIdent ident = new PersonIdent("Synthetic", "synthetic@example.com",
+                                            new Date(EPOCH_MILLIS + commit * 60_000L), TimeZone.getTimeZone("UTC"));
+        CommitBuilder builder = new CommitBuilder();
+        builder.setTreeId(treeId);
+        if (parent != null) {
+            builder.setParentId(parent);
+        }
+        builder.setAuthor(ident);
+        builder.setCommitter(ident);
+        builder.setMessage("Synthetic commit " + commit + ": " + changedClasses + " classes\n");
+        return inserter.insert(builder);
+    }
+
+    private String packageName(int classIndex) {
+        return BASE_PACKAGE + ".module" + classIndex / classesPerPackage;
+    }
+
+    private String className(int classIndex) {
+        return "Generated" + classIndex % classesPerPackage;
+    }
+
+    private static int[] identity(int size) {
+        int[] values = new int[size];
+        for (int i = 0; i < size; i++) {
+            values[i] = i;
+        }
+        return values;
+    }
+
+    /**
+     * Moves a random selection of {@code count} values to the front of the array
+     */
+    private static void shuffle(int[] values, int count, Random random) {
+        for (int i = 0; i < count; i++) {
+            int j = i + random.nextInt(values.length - i);
+            int value = values[i];
+            values[i] = values[j];
+            values[j] = value;
+        }
+    }
+
+    private static int requirePositive(String name, int value) {
+        if (value < 1) {
+            throw new IllegalArgumentException(name + " must be at least 1");
+        }
+        return value;
+    }
+
+    /**
+     * Generates a repository from the command line, e.g. for scale tests of the CLI or the REST API
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: java SyntheticRepositoryGenerator <directory> [--packages=N] [--classes=N]"
+                               + " [--methods=N] [--overloads=N] [--nested=N] [--commits=N]"
+                               + " [--class-churn=F] [--method-churn=F] [--seed=N]");
+            System.exit(1);
+        }
+
+        SyntheticRepositoryGenerator generator = new SyntheticRepositoryGenerator();
+        double classChurn = generator.classChurn;
+        double methodChurn = generator.methodChurn;
+        for (int i = 1; i < args.length; i++) {
+            String option = args[i];
+            String value = option.substring(option.indexOf('=') + 1);
+            if (option.startsWith("--packages=")) {
+                generator.setPackages(Integer.parseInt(value));
+            } else if (option.startsWith("--classes=")) {
+                generator.setClassesPerPackage(Integer.parseInt(value));
+            } else if (option.startsWith("--methods=")) {
+                generator.setMethodsPerClass(Integer.parseInt(value));
+            } else if (option.startsWith("--overloads=")) {
+                generator.setOverloadsPerMethod(Integer.parseInt(value));
+            } else if (option.startsWith("--nested=")) {
+                generator.setNestedClassesPerClass(Integer.parseInt(value));
+            } else if (option.startsWith("--commits=")) {
+                generator.setCommits(Integer.parseInt(value));
+            } else if (option.startsWith("--class-churn=")) {
+                classChurn = Double.parseDouble(value);
+            } else if (option.startsWith("--method-churn=")) {
+                methodChurn = Double.parseDouble(value);
+            } else if (option.startsWith("--seed=")) {
+                generator.setSeed(Long.parseLong(value));
+            } else {
+                logger.warn("Ignoring unknown option: {}", option);
+            }
+        }
+        generator.setChurn(classChurn, methodChurn);
+
+        for (ObjectId commitId : generator.generate(new File(args[0]))) {
+            System.out.println(commitId.name());
+        }
+    }
+}
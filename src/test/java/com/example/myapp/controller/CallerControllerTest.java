@@ -0,0 +1,72 @@
+package com.example.myapp.controller;
+
+import com.example.myapp.service.CallerService;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class CallerControllerTest {
+
+    private final CallerController controller = new CallerController();
+    private final Map<String, Object> analysis = new HashMap<>();
+    private final CallerService callerService = new CallerService() {
+        @Override
+        public Map<String, Object> analyzeFunctionChanges(String oldCommitId, String newCommitId) {
+            analysis.put("oldCommit", oldCommitId);
+            analysis.put("newCommit", newCommitId);
+            return analysis;
+        }
+    };
+
+    @Before
+    public void setUp() {
+        ReflectionTestUtils.setField(controller, "callerService", callerService);
+    }
+
+    @After
+    public void tearDown() {
+        callerService.destroy();
+    }
+
+    private static Map<String, String> request(String oldCommit, String newCommit) {
+        Map<String, String> request = new HashMap<>();
+        request.put("oldCommit", oldCommit);
+        request.put("newCommit", newCommit);
+        return request;
+    }
+
+    @Test
+    public void analyzeReturnsServiceResponse() {
+        analysis.put("status", "success");
+
+        ResponseEntity<Map<String, Object>> response = controller.analyzeChanges(request("HEAD~1", "HEAD"));
+        assertEquals(HttpStatus.OK, response.getStatusCode());
+        assertSame(analysis, response.getBody());
+        assertEquals("HEAD~1", analysis.get("oldCommit"));
+        assertEquals("HEAD", analysis.get("newCommit"));
+    }
+
+    @Test
+    public void analyzeRequiresBothCommits() {
+        ResponseEntity<Map<String, Object>> response = controller.analyzeChanges(request("HEAD~1", null));
+        assertEquals(HttpStatus.BAD_REQUEST, response.getStatusCode());
+        assertEquals("error", response.getBody().get("status"));
+    }
+
+    @Test
+    public void analyzeReportsFailedAnalysis() {
+        analysis.put("status", "error");
+
+        ResponseEntity<Map<String, Object>> response = controller.analyzeChanges(request("HEAD~1", "HEAD"));
+        assertEquals(HttpStatus.INTERNAL_SERVER_ERROR, response.getStatusCode());
+    }
+}
@@ -0,0 +1,86 @@
+package com.example.myapp.service;
+
+import net.gaeco.referrerfinder.FunctionChangeListener;
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class AnalysisJobServiceTest {
+
+    private final AnalysisJobService service = new AnalysisJobService();
+    private final CallerService callerService = new CallerService() {
+        @Override
+        public Map<String, Object> analyzeFunctionChanges(String oldCommitId, String newCommitId,
+                                                          FunctionChangeListener listener) {
+            throw new StackOverflowError();
+        }
+    };
+
+    @After
+    public void tearDown() {
+        service.destroy();
+        callerService.destroy();
+    }
+
+    @Test
+    public void thrownErrorFailsJob() throws Exception {
+        ReflectionTestUtils.setField(service, "callerService", callerService);
+
+        AnalysisJob job = service.submit("HEAD~1", "HEAD", null);
+        job.getCompletion().get(10, TimeUnit.SECONDS);
+
+        assertEquals(AnalysisJob.Status.FAILED, job.getStatus());
+        assertTrue(job.getErrorMessage(), job.getErrorMessage().contains("StackOverflowError"));
+    }
+
+    @Test
+    public void acceptsPublicCallbackUrls() {
+        AnalysisJobService.validateCallbackUrl(null);
+        AnalysisJobService.validateCallbackUrl("https://93.184.216.34/hook");
+        AnalysisJobService.validateCallbackUrl("http://[2606:2800:220:1::1]:8080/hook");
+    }
+
+    @Test
+    public void rejectsInternalCallbackUrls() {
+        assertRejected("ftp://93.184.216.34/hook");
+        assertRejected("http://127.0.0.1:8080/hook");
+        assertRejected("http://localhost/hook");
+        assertRejected("http://0.0.0.0/hook");
+        assertRejected("http://10.1.2.3/hook");
+        assertRejected("http://172.16.0.1/hook");
+        assertRejected("http://192.168.1.1/hook");
+        assertRejected("http://169.254.169.254/latest/meta-data");
+        assertRejected("http://100.64.0.1/hook");
+        assertRejected("http://[::1]/hook");
+        assertRejected("http://[fe80::1]/hook");
+        assertRejected("http://[fd00::1]/hook");
+    }
+
+    @Test
+    public void allowlistRestrictsCallbackHosts() {
+        System.setProperty(AnalysisJobService.CALLBACK_HOSTS_PROPERTY, "hooks.internal, 10.1.2.3");
+        try {
+            AnalysisJobService.validateCallbackUrl("http://10.1.2.3/hook");
+            AnalysisJobService.validateCallbackUrl("https://HOOKS.internal/hook");
+            assertRejected("https://93.184.216.34/hook");
+        } finally {
+            System.clearProperty(AnalysisJobService.CALLBACK_HOSTS_PROPERTY);
+        }
+    }
+
+    private static void assertRejected(String callbackUrl) {
+        try {
+            AnalysisJobService.validateCallbackUrl(callbackUrl);
+            fail("Accepted " + callbackUrl);
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.example.myapp.service;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class AnalysisResultCacheTest {
+
+    @Test
+    public void failingComputationIsReportedToEveryCaller() throws Exception {
+        AnalysisResultCache cache = new AnalysisResultCache(4);
+        Error failure = new StackOverflowError();
+        AtomicInteger computations = new AtomicInteger();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicReference<Thread> waiter = new AtomicReference<>();
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<Throwable> first = executor.submit(() -> call(cache, () -> {
+                computations.incrementAndGet();
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                throw failure;
+            }));
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+            Future<Throwable> second = executor.submit(() -> {
+                waiter.set(Thread.currentThread());
+                return call(cache, () -> {
+                    computations.incrementAndGet();
+                    return Collections.emptyMap();
+                });
+            });
+
+            // Fail only once the second caller waits for the first computation
+            long deadline = System.currentTimeMillis() + 10_000;
+            while ((waiter.get() == null || waiter.get().getState() != Thread.State.WAITING)
+                   && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            release.countDown();
+
+            assertSame(failure, first.get(10, TimeUnit.SECONDS));
+            assertSame(failure, second.get(10, TimeUnit.SECONDS));
+            assertEquals(1, computations.get());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // The failure is not cached
+        Map<String, Object> result = Collections.singletonMap("status", "success");
+        assertSame(result, cache.get("key", () -> result));
+        assertEquals(1, cache.size());
+    }
+
+    private static Throwable call(AnalysisResultCache cache, Supplier<Map<String, Object>> computation) {
+        try {
+            cache.get("key", computation);
+            return null;
+        } catch (RuntimeException | Error e) {
+            return e;
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package net.gaeco.referrerfinder;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.AndTreeFilter;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AnalysisScopeTest {
+
+    private static final String A = "src/main/java/com/example/myapp/A.java";
+    private static final String B = "src/main/java/com/example/myapp/sub/B.java";
+    private static final String C = "src/main/java/com/example/myapplication/C.java";
+    private static final String A_TEST = "src/test/java/com/example/myapp/ATest.java";
+    private static final String D = "services/orders/src/main/java/com/example/myapp/D.java";
+    private static final String E = "services/orders/src/generated/E.java";
+    private static final String F = "lib/generated/F.java";
+    private static final String G = "generated/G.java";
+    private static final String MAIN = "tools/Main.java";
+
+    private TestRepository repository;
+    private ObjectId commit;
+
+    @Before
+    public void setUp() throws IOException {
+        repository = new TestRepository();
+        commit = repository.commit(TestRepository.files(A, "", B, "", C, "", A_TEST, "", D, "", E, "", F, "", G, "",
+                                                        MAIN, ""));
+    }
+
+    @After
+    public void tearDown() {
+        repository.close();
+    }
+
+    /**
+     * Walks the commit's tree through the scope's filter, as the analyzer does
+     */
+    private List<String> select(AnalysisScope scope) throws IOException {
+        List<String> paths = new ArrayList<>();
+        try (RevWalk revWalk = new RevWalk(repository.getRepository());
+             TreeWalk treeWalk = new TreeWalk(repository.getRepository())) {
+            treeWalk.addTree(revWalk.parseCommit(commit).getTree());
+            treeWalk.setRecursive(true);
+            treeWalk.setFilter(scope.toTreeFilter());
+            while (treeWalk.next()) {
+                paths.add(treeWalk.getPathString());
+            }
+        }
+        Collections.sort(paths);
+        return paths;
+    }
+
+    private static List<String> paths(String... paths) {
+        List<String> sorted = new ArrayList<>(Arrays.asList(paths));
+        Collections.sort(sorted);
+        return sorted;
+    }
+
+    private static AnalysisScope include(String... rules) {
+        return AnalysisScope.of(Arrays.asList(rules), Collections.emptyList());
+    }
+
+    @Test
+    public void packageRulesMatchUnderAnySourceRoot() throws IOException {
+        assertEquals(paths(A, B, A_TEST, D), select(AnalysisScope.ofPackages("com.example.myapp")));
+        assertEquals(paths(B), select(AnalysisScope.ofPackages("com.example.myapp.sub")));
+    }
+
+    @Test
+    public void noRulesCoverTheWholeRepository() throws IOException {
+        assertEquals(paths(A, B, C, A_TEST, D, E, F, G, MAIN), select(AnalysisScope.ALL));
+    }
+
+    @Test
+    public void leadingDoubleStarMatchesAtAnyDepth() throws IOException {
+        assertEquals(paths(E, F, G), select(include("**/generated")));
+    }
+
+    @Test
+    public void middleDoubleStarMatchesAnyNumberOfDirectories() throws IOException {
+        assertEquals(paths(D), select(include("services/**/java")));
+        assertEquals(paths(A, B, A_TEST), select(include("src/**/myapp")));
+        // Including none at all
+        assertEquals(paths(A, B), select(include("src/main/**/java/com/example/myapp")));
+    }
+
+    @Test
+    public void trailingDoubleStarMatchesEverythingBeneath() throws IOException {
+        assertEquals(paths(D, E), select(include("services/**")));
+        assertEquals(select(include("services")), select(include("services/**")));
+    }
+
+    @Test
+    public void globsMatchWithinOneName() throws IOException {
+        assertEquals(paths(D), select(include("services/*/src/main/java")));
+        assertEquals(paths(A, B, C, A_TEST), select(include("src/*/java/com/example/my*")));
+        assertEquals(paths(A, B), select(include("src/main/java/com/example/mya?p")));
+    }
+
+    @Test
+    public void excludesApplyWithinIncludes() throws IOException {
+        AnalysisScope scope = AnalysisScope.of(Arrays.asList("com.example.myapp"),
+                                               Arrays.asList("src/test/**", "com.example.myapp.sub"));
+        assertEquals(paths(A, D), select(scope));
+
+        assertEquals(paths(A, B, C, A_TEST, D, MAIN),
+                     select(AnalysisScope.of(Collections.emptyList(), Arrays.asList("**/generated"))));
+    }
+
+    @Test
+    public void plainPathsUsePathFilterGroup() throws IOException {
+        AnalysisScope scope = include("src/main/java", "tools/");
+        assertTrue(scope.toTreeFilter().getClass().getName().startsWith("org.eclipse.jgit.treewalk.filter.PathFilterGroup"));
+        assertEquals(paths(A, B, C, MAIN), select(scope));
+
+        AnalysisScope excluding = AnalysisScope.of(Arrays.asList("src/main/java", "tools/"),
+                                                   Arrays.asList("com.example.myapp.sub"));
+        assertTrue(excluding.toTreeFilter() instanceof AndTreeFilter);
+        assertEquals(paths(A, C, MAIN), select(excluding));
+    }
+
+    @Test
+    public void packagesAndGlobsUseTheScopeFilter() {
+        TreeFilter filter = include("src/main/java", "com.example.myapp").toTreeFilter();
+        assertFalse(filter.getClass().getName().startsWith("org.eclipse.jgit.treewalk.filter."));
+        assertFalse(include("src/*/java").toTreeFilter().getClass().getName()
+                        .startsWith("org.eclipse.jgit.treewalk.filter."));
+        // A rule without a slash is a package, even if it names a top-level directory
+        assertFalse(include("src/main/java", "tools").toTreeFilter().getClass().getName()
+                        .startsWith("org.eclipse.jgit.treewalk.filter."));
+    }
+
+    @Test
+    public void idDependsOnTheRules() {
+        assertEquals(AnalysisScope.ofPackages("com.example.myapp").getId(),
+                     AnalysisScope.ofPackages("com.example.myapp").getId());
+        assertNotEquals(AnalysisScope.ofPackages("com.example.myapp").getId(), AnalysisScope.ALL.getId());
+        assertNotEquals(AnalysisScope.of(Arrays.asList("a"), Collections.emptyList()).getId(),
+                        AnalysisScope.of(Collections.emptyList(), Arrays.asList("a")).getId());
+        assertNotEquals(AnalysisScope.of(Arrays.asList("a", "b"), Collections.emptyList()).getId(),
+                        AnalysisScope.of(Arrays.asList("ab"), Collections.emptyList()).getId());
+    }
+}
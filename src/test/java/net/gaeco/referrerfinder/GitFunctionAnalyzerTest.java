@@ -0,0 +1,357 @@
+package net.gaeco.referrerfinder;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static net.gaeco.referrerfinder.TestRepository.files;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class GitFunctionAnalyzerTest {
+
+    private static final String PATH = "src/main/java/com/example/myapp/A.java";
+
+    private TestRepository repository;
+    private GitFunctionAnalyzer analyzer;
+
+    @Before
+    public void setUp() throws IOException {
+        repository = new TestRepository();
+        analyzer = new GitFunctionAnalyzer(repository.getDirectory().getPath());
+    }
+
+    @After
+    public void tearDown() {
+        analyzer.close();
+        repository.close();
+    }
+
+    private static ObjectId blobIdOf(String content) {
+        return new ObjectInserter.Formatter().idFor(Constants.OBJ_BLOB, content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private MethodIndexStore openStore() {
+        return new MethodIndexStore(new File(repository.getRepository().getDirectory(), "referrer-finder"));
+    }
+
+    @Test
+    public void reportsAddedDeletedAndChangedFunctions() throws IOException {
+        ObjectId first = repository.commit(files(PATH, "class A { void keep() { } void drop() { } void edit() { a(); } }"));
+        ObjectId second = repository.commit(files(PATH, "class A { void keep() { } void edit() { b(); } void add() { } }"),
+                                            first);
+
+        GitFunctionAnalyzer.FunctionChangeResult result = analyzer.analyzeFunctionChanges(first.name(), second.name());
+        assertEquals(Collections.singleton(PATH + "::A.add()"), result.getAddedFunctions());
+        assertEquals(Collections.singleton(PATH + "::A.drop()"), result.getDeletedFunctions());
+        assertEquals(Collections.singleton(PATH + "::A.edit()"), result.getChangedFunctions());
+    }
+
+    @Test
+    public void parallelAnalysisMatchesSequentialAnalysis() throws IOException {
+        Map<String, String> oldFiles = new HashMap<>();
+        Map<String, String> newFiles = new HashMap<>();
+        for (int i = 0; i < 20; i++) {
+            String path = "src/main/java/com/example/myapp/C" + i + ".java";
+            oldFiles.put(path, "class C" + i + " { void a() { } void b() { x(); } }");
+            newFiles.put(path, "class C" + i + " { void b() { y(); } void c() { } }");
+        }
+        ObjectId first = repository.commit(oldFiles);
+        ObjectId second = repository.commit(newFiles, first);
+
+        GitFunctionAnalyzer.FunctionChangeResult sequential = analyzer.analyzeFunctionChanges(first.name(), second.name());
+        GitFunctionAnalyzer parallel = new GitFunctionAnalyzer(repository.getDirectory().getPath(), 4);
+        try {
+            GitFunctionAnalyzer.FunctionChangeResult result = parallel.analyzeFunctionChanges(first.name(), second.name());
+            assertEquals(20, result.getAddedCount());
+            assertEquals(sequential.getAddedFunctions(), result.getAddedFunctions());
+            assertEquals(sequential.getDeletedFunctions(), result.getDeletedFunctions());
+            assertEquals(sequential.getChangedFunctions(), result.getChangedFunctions());
+        } finally {
+            parallel.close();
+        }
+    }
+
+    @Test
+    public void sharedExecutorIsNotShutDownByClose() throws IOException {
+        Map<String, String> oldFiles = new HashMap<>();
+        Map<String, String> newFiles = new HashMap<>();
+        for (int i = 0; i < 20; i++) {
+            String path = "src/main/java/com/example/myapp/C" + i + ".java";
+            oldFiles.put(path, "class C" + i + " { void a() { } void b() { x(); } }");
+            newFiles.put(path, "class C" + i + " { void b() { y(); } void c() { } }");
+        }
+        ObjectId first = repository.commit(oldFiles);
+        ObjectId second = repository.commit(newFiles, first);
+
+        GitFunctionAnalyzer.FunctionChangeResult sequential = analyzer.analyzeFunctionChanges(first.name(), second.name());
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            for (int run = 0; run < 2; run++) {
+                // The analyzer closes the repository it is given, so each one gets its own
+                GitFunctionAnalyzer shared =
+                    new GitFunctionAnalyzer(Git.open(repository.getDirectory()).getRepository(), executor, 4);
+                try {
+                    GitFunctionAnalyzer.FunctionChangeResult result =
+                        shared.analyzeFunctionChanges(first.name(), second.name());
+                    assertEquals(sequential.getAddedFunctions(), result.getAddedFunctions());
+                    assertEquals(sequential.getDeletedFunctions(), result.getDeletedFunctions());
+                    assertEquals(sequential.getChangedFunctions(), result.getChangedFunctions());
+                } finally {
+                    shared.close();
+                }
+                assertFalse(executor.isShutdown());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void failedParsesAreNotPersisted() throws IOException {
+        String valid = "class A { void run() { } }";
+        String broken = "class A { void run( { }";
+        ObjectId first = repository.commit(files(PATH, valid));
+        ObjectId second = repository.commit(files(PATH, broken), first);
+
+        analyzer.analyzeFunctionChanges(first.name(), second.name());
+
+        MethodIndexStore store = openStore();
+        assertNotNull(store.load(blobIdOf(valid)));
+        assertNull(store.load(blobIdOf(broken)));
+        store.close();
+    }
+
+    @Test
+    public void missingBlobsAreNotCached() throws IOException {
+        String old = "class A { void run() { } }";
+        String changed = "class A { void run() { a(); } }";
+        ObjectId first = repository.commit(files(PATH, old));
+        ObjectId second = repository.commit(files(PATH, changed), first);
+
+        // As in a partial clone, where the blob has not been fetched yet
+        String name = blobIdOf(old).name();
+        File object = new File(repository.getRepository().getDirectory(), "objects/" +
+                               name.substring(0, 2) + "/" + name.substring(2));
+        byte[] content = Files.readAllBytes(object.toPath());
+        Files.delete(object.toPath());
+
+        GitFunctionAnalyzer.FunctionChangeResult result = analyzer.analyzeFunctionChanges(first.name(), second.name());
+        assertEquals(Collections.singleton(PATH + "::A.run()"), result.getAddedFunctions());
+
+        // Once the blob is back, the change is reported correctly
+        Files.write(object.toPath(), content);
+        result = analyzer.analyzeFunctionChanges(first.name(), second.name());
+        assertEquals(Collections.emptySet(), result.getAddedFunctions());
+        assertEquals(Collections.singleton(PATH + "::A.run()"), result.getChangedFunctions());
+
+        MethodIndexStore store = openStore();
+        assertNotNull(store.load(blobIdOf(old)));
+        store.close();
+    }
+
+    @Test
+    public void findsTransitiveReferrersOfChangedFunctions() throws IOException {
+        String caller = "src/main/java/com/example/myapp/B.java";
+        String indirectCaller = "src/main/java/com/example/myapp/C.java";
+        String newCaller = "src/main/java/com/example/myapp/D.java";
+        Map<String, String> oldFiles = new HashMap<>();
+        oldFiles.put(PATH, "class A { void run() { x(); } }");
+        oldFiles.put(caller, "class B { void start(A a) { a.run(); } }");
+        oldFiles.put(indirectCaller, "class C { void go(B b) { b.start(null); } }");
+        ObjectId first = repository.commit(oldFiles);
+        Map<String, String> newFiles = new HashMap<>(oldFiles);
+        newFiles.put(PATH, "class A { void run() { y(); } }");
+        newFiles.put(newCaller, "class D { void call(A a) { a.run(); } }");
+        ObjectId second = repository.commit(newFiles, first);
+
+        GitFunctionAnalyzer.FunctionChangeResult result = analyzer.analyzeFunctionChanges(first.name(), second.name());
+        Set<String> expected = new HashSet<>(Arrays.asList(caller + "::B.start(A)", indirectCaller + "::C.go(B)",
+                                                           newCaller + "::D.call(A)"));
+
+        // Derived from the graph of the old commit
+        Map<String, Set<String>> referrers = analyzer.findReferrers(result);
+        assertEquals(Collections.singleton(PATH + "::A.run()"), referrers.keySet());
+        assertEquals(expected, referrers.get(PATH + "::A.run()"));
+
+        // Built from scratch
+        ReferrerIndex index = analyzer.buildReferrerIndex(second.name());
+        assertEquals(expected, analyzer.findReferrers(index, result).get(PATH + "::A.run()"));
+    }
+
+    @Test
+    public void referrerIndexSkipsMissingBlobs() throws IOException {
+        String caller = "src/main/java/com/example/myapp/B.java";
+        String callerSource = "class B { void start(A a) { a.run(); } }";
+        Map<String, String> files = new HashMap<>();
+        files.put(PATH, "class A { void run() { } }");
+        files.put(caller, callerSource);
+        ObjectId commit = repository.commit(files);
+
+        String name = blobIdOf(callerSource).name();
+        Files.delete(new File(repository.getRepository().getDirectory(), "objects/" +
+                              name.substring(0, 2) + "/" + name.substring(2)).toPath());
+
+        ReferrerIndex index = analyzer.buildReferrerIndex(commit.name());
+        assertEquals(1, index.getFileCount());
+        assertEquals(Collections.emptySet(), index.getReferrers(PATH + "::A.run()"));
+    }
+
+    private static String renamableSource(String editedBody) {
+        // Enough lines for the rename detector's similarity score
+        StringBuilder source = new StringBuilder("package com.example.myapp;\n\nclass A {\n");
+        for (int i = 0; i < 8; i++) {
+            source.append("    void m").append(i).append("() {\n        call").append(i).append("();\n    }\n");
+        }
+        source.append("    void edit() {\n        ").append(editedBody).append("\n    }\n}\n");
+        return source.toString();
+    }
+
+    private static Set<String> functions(String path, String... keys) {
+        Set<String> functions = new HashSet<>();
+        for (String key : keys) {
+            functions.add(path + "::" + key);
+        }
+        return functions;
+    }
+
+    @Test
+    public void renamedFileReportsMovedFunctions() throws IOException {
+        String moved = "src/main/java/com/example/myapp/moved/A.java";
+        String edited = "src/main/java/com/example/myapp/edited/A.java";
+        ObjectId first = repository.commit(files(PATH, renamableSource("a();")));
+        ObjectId renamed = repository.commit(files(moved, renamableSource("a();")), first);
+        ObjectId renamedAndEdited = repository.commit(files(edited, renamableSource("b();")), first);
+        String[] unchanged = {"A.m0()", "A.m1()", "A.m2()", "A.m3()", "A.m4()", "A.m5()", "A.m6()", "A.m7()"};
+
+        GitFunctionAnalyzer.FunctionChangeResult result = analyzer.analyzeFunctionChanges(first.name(), renamed.name());
+        Map<String, String> expectedMoves = new HashMap<>();
+        for (String key : unchanged) {
+            expectedMoves.put(moved + "::" + key, PATH + "::" + key);
+        }
+        expectedMoves.put(moved + "::A.edit()", PATH + "::A.edit()");
+        assertEquals(expectedMoves, result.getMovedFunctions());
+        assertEquals(Collections.emptySet(), result.getAddedFunctions());
+        assertEquals(Collections.emptySet(), result.getDeletedFunctions());
+        assertEquals(Collections.emptySet(), result.getChangedFunctions());
+
+        // An edited method of a renamed file is changed at its new path; the rest moved
+        result = analyzer.analyzeFunctionChanges(first.name(), renamedAndEdited.name());
+        expectedMoves.clear();
+        for (String key : unchanged) {
+            expectedMoves.put(edited + "::" + key, PATH + "::" + key);
+        }
+        assertEquals(expectedMoves, result.getMovedFunctions());
+        assertEquals(Collections.singleton(edited + "::A.edit()"), result.getChangedFunctions());
+        assertEquals(Collections.emptySet(), result.getAddedFunctions());
+        assertEquals(Collections.emptySet(), result.getDeletedFunctions());
+
+        // Without rename detection the file is deleted and another one added
+        analyzer.setRenameDetection(false);
+        result = analyzer.analyzeFunctionChanges(first.name(), renamed.name());
+        assertEquals(Collections.emptyMap(), result.getMovedFunctions());
+        assertEquals(Collections.emptySet(), result.getChangedFunctions());
+        String[] all = Arrays.copyOf(unchanged, unchanged.length + 1);
+        all[unchanged.length] = "A.edit()";
+        assertEquals(functions(PATH, all), result.getDeletedFunctions());
+        assertEquals(functions(moved, all), result.getAddedFunctions());
+    }
+
+    @Test
+    public void deletedFileReportsAllItsFunctions() throws IOException {
+        String kept = "src/main/java/com/example/myapp/B.java";
+        String unrelated = "src/main/java/com/example/myapp/other/C.java";
+        Map<String, String> oldFiles = new HashMap<>();
+        oldFiles.put(PATH, renamableSource("a();"));
+        oldFiles.put(kept, "class B { void stay() { } }");
+        ObjectId first = repository.commit(oldFiles);
+        ObjectId deleted = repository.commit(files(kept, "class B { void stay() { } }"), first);
+        // An unrelated file added in the same commit is not paired with the deleted one
+        Map<String, String> newFiles = new HashMap<>();
+        newFiles.put(kept, "class B { void stay() { } }");
+        newFiles.put(unrelated, "interface C {\n    int size();\n}\n");
+        ObjectId replaced = repository.commit(newFiles, first);
+        Set<String> expected = functions(PATH, "A.m0()", "A.m1()", "A.m2()", "A.m3()", "A.m4()", "A.m5()",
+                                         "A.m6()", "A.m7()", "A.edit()");
+
+        for (boolean detectRenames : new boolean[] {true, false}) {
+            analyzer.setRenameDetection(detectRenames);
+
+            GitFunctionAnalyzer.FunctionChangeResult result = analyzer.analyzeFunctionChanges(first.name(),
+                                                                                              deleted.name());
+            assertEquals(expected, result.getDeletedFunctions());
+            assertEquals(Collections.emptySet(), result.getAddedFunctions());
+            assertEquals(Collections.emptyMap(), result.getMovedFunctions());
+
+            result = analyzer.analyzeFunctionChanges(first.name(), replaced.name());
+            assertEquals(expected, result.getDeletedFunctions());
+            assertEquals(Collections.singleton(unrelated + "::C.size()"), result.getAddedFunctions());
+            assertEquals(Collections.emptyMap(), result.getMovedFunctions());
+        }
+    }
+
+    @Test
+    public void methodHistoryIsKeptPerRenameSettings() throws IOException {
+        String moved = "src/main/java/com/example/myapp/moved/A.java";
+        String source = "class A { void run() { x(); } }";
+        ObjectId first = repository.commit(files(PATH, source));
+        ObjectId second = repository.commit(files(moved, source), first);
+
+        MethodHistoryIndex.Change withRenames = analyzer.getMethodHistory(second.name()).getLastChange(moved + "::A.run()");
+        assertEquals(second.name(), withRenames.getCommitId());
+        assertEquals(CommitRangeResult.ChangeKind.MOVED, withRenames.getKind());
+
+        analyzer.setRenameDetection(false);
+        MethodHistoryIndex.Change withoutRenames =
+            analyzer.getMethodHistory(second.name()).getLastChange(moved + "::A.run()");
+        assertEquals(CommitRangeResult.ChangeKind.ADDED, withoutRenames.getKind());
+
+        analyzer.setRenameDetection(true);
+        assertEquals(CommitRangeResult.ChangeKind.MOVED,
+                     analyzer.getIndexedMethodHistory().getLastChange(moved + "::A.run()").getKind());
+    }
+
+    @Test
+    public void backgroundIndexingReportsFailures() throws Exception {
+        ObjectId first = repository.commit(files(PATH, "class A { void run() { } }"));
+
+        Future<MethodHistoryIndex> failing = analyzer.indexMethodHistoryInBackground("no-such-commit");
+        try {
+            failing.get(10, TimeUnit.SECONDS);
+            fail("Indexed a commit that does not exist");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalArgumentException);
+        }
+        assertFalse(analyzer.isIndexingInBackground());
+        assertTrue(analyzer.getBackgroundIndexingFailure() instanceof IllegalArgumentException);
+
+        // The next run starts over
+        analyzer.indexMethodHistoryInBackground(first.name()).get(10, TimeUnit.SECONDS);
+        assertNull(analyzer.getBackgroundIndexingFailure());
+        assertTrue(analyzer.getIndexedMethodHistory().isIndexed(first));
+    }
+}
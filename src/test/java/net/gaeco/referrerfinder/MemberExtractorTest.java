@@ -0,0 +1,91 @@
+package net.gaeco.referrerfinder;
+
+import com.github.javaparser.JavaParser;
+import com.github.javaparser.ParserConfiguration;
+import com.github.javaparser.ast.CompilationUnit;
+import com.github.javaparser.ast.Node;
+import com.github.javaparser.ast.body.BodyDeclaration;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MemberExtractorTest {
+
+    private final List<String> members = new ArrayList<>();
+    private final List<String> callSites = new ArrayList<>();
+
+    private void extract(String source) {
+        CompilationUnit cu = new JavaParser(new ParserConfiguration()
+            .setLanguageLevel(ParserConfiguration.LanguageLevel.RAW)).parse(source).getResult().get();
+        MemberExtractor.extract(cu, new MemberExtractor.MemberHandler() {
+            @Override
+            public void member(String typeKey, String memberKey, String name, Node declaration, Node body) {
+                members.add(memberKey);
+            }
+
+            @Override
+            public void callSite(String typeKey, String memberKey, String calleeName, boolean unqualified) {
+                callSites.add(memberKey + " -> " + calleeName + (unqualified ? "" : " (qualified)"));
+            }
+
+            @Override
+            public void unsupported(String typeKey, BodyDeclaration<?> member) {
+                members.add("unsupported " + typeKey);
+            }
+        });
+    }
+
+    @Test
+    public void nestedTypesAreQualified() {
+        extract("class Outer { void run() { } class Inner { void run() { } static class Deepest { void run() { } } }"
+                + " static class Other { class Inner { void run() { } } } }");
+        assertEquals(Arrays.asList("Outer.run()", "Outer.Inner.run()", "Outer.Inner.Deepest.run()",
+                                   "Outer.Other.Inner.run()"), members);
+    }
+
+    @Test
+    public void constructorsAndInitializersAreMembers() {
+        extract("class A { static { } { } { } A() { } A(int a) { this(); } }");
+        assertEquals(Arrays.asList("A.<clinit>", "A.<init>", "A.<init>", "A.A()", "A.A(int)"), members);
+        assertEquals(Arrays.asList("A.A(int) -> A"), callSites);
+    }
+
+    @Test
+    public void recordsEnumsAndAnnotationsAreMembers() {
+        extract("record Point(int x, List<String> y) { Point { } int sum() { return x; } }"
+                + " enum Color { RED { void paint() { } }, GREEN; void paint() { } }"
+                + " @interface Marker { String value() default \"\"; }");
+        assertEquals(Arrays.asList("Point.Point(int,List)", "Point.sum()", "Color.RED.paint()", "Color.paint()",
+                                   "Marker.value()"), members);
+    }
+
+    @Test
+    public void anonymousAndLocalTypesAreNumbered() {
+        extract("class A { void run() { Runnable r = new Runnable() { public void run() { go(); } };"
+                + " class Local { void go() { } } new Object() { void other() { } }; } }");
+        assertEquals(Arrays.asList("A.run()", "A$1.run()", "A$2Local.go()", "A$3.other()"), members);
+        // A call in an anonymous class also counts for the enclosing method
+        assertTrue(callSites.contains("A$1.run() -> go"));
+        assertTrue(callSites.contains("A.run() -> go"));
+    }
+
+    @Test
+    public void callSitesIncludeConstructorsAndReferences() {
+        extract("class A { void run() { helper(); this.helper(); other.helper(); new B(); Supplier<B> s = B::new; Runnable r = this::helper; } }");
+        assertEquals(Arrays.asList("A.run() -> helper", "A.run() -> helper", "A.run() -> helper (qualified)",
+                                   "A.run() -> B (qualified)", "A.run() -> B (qualified)", "A.run() -> helper"),
+                     callSites);
+    }
+
+    @Test
+    public void fieldInitializerCallsAreNotAttributed() {
+        extract("class A { int value = compute(); int compute() { return 1; } }");
+        assertEquals(Arrays.asList("A.compute()"), members);
+        assertTrue(callSites.isEmpty());
+    }
+}
@@ -0,0 +1,122 @@
+package net.gaeco.referrerfinder;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import static net.gaeco.referrerfinder.TestRepository.files;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class MethodBlameTest {
+
+    private static final String DIRECTORY = "src/main/java/com/example/myapp";
+    private static final String A = DIRECTORY + "/A.java";
+    private static final String B = DIRECTORY + "/B.java";
+    private static final String C = DIRECTORY + "/C.java";
+
+    private TestRepository repository;
+    private GitFunctionAnalyzer analyzer;
+
+    @Before
+    public void setUp() throws IOException {
+        repository = new TestRepository();
+        analyzer = new GitFunctionAnalyzer(repository.getDirectory().getPath());
+    }
+
+    @After
+    public void tearDown() {
+        analyzer.close();
+        repository.close();
+    }
+
+    private static void assertBlamed(MethodBlameResult blame, String function, ObjectId commit) {
+        MethodBlameResult.BlameEntry entry = blame.getEntry(function);
+        if (entry == null) {
+            fail(function + " is not blamed in " + blame.getEntries().keySet());
+        }
+        assertEquals(function, commit.name(), entry.getCommitId());
+    }
+
+    @Test
+    public void linearHistory() throws IOException {
+        ObjectId first = repository.commit(files(A, "class A { void run() { a(); } void stop() { } }"));
+        ObjectId second = repository.commit(files(A, "class A { void run() { b(); } void stop() { } }"), first);
+        ObjectId third = repository.commit(files(A, "class A { void run() { b(); } void stop() { } }",
+                                                  B, "class B { void go() { } }"), second);
+
+        MethodBlameResult blame = analyzer.blameMethods(third.name(), null);
+        assertEquals(3, blame.getEntries().size());
+        assertBlamed(blame, A + "::A.run()", second);
+        assertBlamed(blame, A + "::A.stop()", first);
+        assertBlamed(blame, B + "::B.go()", third);
+    }
+
+    @Test
+    public void unchangedMethodsFollowRenames() throws IOException {
+        String moved = DIRECTORY + "/moved/A.java";
+        // Rename detection compares lines, so the files are long enough to stay similar after the edit
+        String source = "class A {\n  void run() {\n    a();\n  }\n  void walk() {\n  }\n  void stop() {\n  }\n}\n";
+        ObjectId first = repository.commit(files(A, source));
+        ObjectId second = repository.commit(files(moved, source.replace("void stop() {\n", "void stop() {\n    x();\n")),
+                                            first);
+
+        MethodBlameResult blame = analyzer.blameMethods(second.name(), null);
+        assertEquals(3, blame.getEntries().size());
+        assertBlamed(blame, moved + "::A.run()", first);
+        assertBlamed(blame, moved + "::A.walk()", first);
+        assertBlamed(blame, moved + "::A.stop()", second);
+    }
+
+    @Test
+    public void filesLeadingBackToOneFileKeepAllTheirFunctions() throws IOException {
+        String source = "class A { void run() { a(); } void stop() { } }";
+        ObjectId first = repository.commit(files(A, source));
+        // A is renamed to one file and copied to another, so both lead back to A
+        ObjectId second = repository.commit(files(B, source, C, source), first);
+
+        MethodBlameResult blame = analyzer.blameMethods(second.name(), null);
+        assertEquals(4, blame.getEntries().size());
+        assertBlamed(blame, B + "::A.run()", first);
+        assertBlamed(blame, B + "::A.stop()", first);
+        assertBlamed(blame, C + "::A.run()", first);
+        assertBlamed(blame, C + "::A.stop()", first);
+    }
+
+    @Test
+    public void mergeTakesMethodsFromEitherParent() throws IOException {
+        ObjectId base = repository.commit(files(A, "class A { void run() { a(); } void stop() { } void keep() { } }"));
+        ObjectId left = repository.commit(files(A, "class A { void run() { a(); } void stop() { x(); } void keep() { } }"),
+                                          base);
+        ObjectId right = repository.commit(files(A, "class A { void run() { b(); } void stop() { } void keep() { } }"),
+                                           base);
+        ObjectId merge = repository.commit(files(A, "class A { void run() { b(); } void stop() { x(); } void keep() { } "
+                                                    + "void added() { } }"), left, right);
+
+        MethodBlameResult blame = analyzer.blameMethods(merge.name(), null);
+        assertEquals(4, blame.getEntries().size());
+        assertBlamed(blame, A + "::A.run()", right);
+        assertBlamed(blame, A + "::A.stop()", left);
+        assertBlamed(blame, A + "::A.keep()", base);
+        assertBlamed(blame, A + "::A.added()", merge);
+    }
+
+    @Test
+    public void pathsAreNormalized() throws IOException {
+        ObjectId first = repository.commit(files(A, "class A { void run() { } }", "other/B.java", "class B { }"));
+
+        assertEquals(1, analyzer.blameMethods(first.name(), DIRECTORY + "/").getEntries().size());
+        assertEquals(1, analyzer.blameMethods(first.name(), A).getEntries().size());
+        for (String invalid : new String[] { "", "/", "/src", "src//main", "src/../other" }) {
+            try {
+                analyzer.blameMethods(first.name(), invalid);
+                fail("Accepted path '" + invalid + "'");
+            } catch (IllegalArgumentException e) {
+                // Expected
+            }
+        }
+    }
+}
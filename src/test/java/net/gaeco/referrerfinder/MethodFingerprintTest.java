@@ -0,0 +1,74 @@
+package net.gaeco.referrerfinder;
+
+import com.github.javaparser.JavaParser;
+import com.github.javaparser.ast.CompilationUnit;
+import com.github.javaparser.ast.body.MethodDeclaration;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+public class MethodFingerprintTest {
+
+    private static MethodDeclaration method(String source) {
+        CompilationUnit cu = new JavaParser().parse(source).getResult().get();
+        return cu.findFirst(MethodDeclaration.class).get();
+    }
+
+    private static long signature(String source) {
+        MethodDeclaration method = method(source);
+        return MethodFingerprint.signatureOf(method, method.getBody().orElse(null));
+    }
+
+    private static long body(String source) {
+        return MethodFingerprint.of(method(source).getBody().orElse(null));
+    }
+
+    @Test
+    public void formattingAndCommentsDoNotChangeFingerprints() {
+        String source = "class A { int run(int a) { return a + 1; } }";
+        String reformatted = "class A {\n  // comment\n  int run( int a )\n  {\n    return a+1; /* done */\n  }\n}";
+        assertEquals(signature(source), signature(reformatted));
+        assertEquals(body(source), body(reformatted));
+    }
+
+    @Test
+    public void memberAnnotationsAreLeftOutOfTheSignature() {
+        String plain = "class A { public void run() { } }";
+        assertEquals(signature(plain), signature("class A { @Override public void run() { } }"));
+        assertEquals(signature(plain), signature("class A { @Deprecated @SuppressWarnings(\"x\") public void run() { } }"));
+        assertEquals(signature(plain), signature("class A { public @Deprecated void run() { } }"));
+    }
+
+    @Test
+    public void signatureChangesAreDetected() {
+        String plain = "class A { public void run(int a) { } }";
+        assertNotEquals(signature(plain), signature("class A { void run(int a) { } }"));
+        assertNotEquals(signature(plain), signature("class A { public void run(long a) { } }"));
+        assertNotEquals(signature(plain), signature("class A { public void run(int a) throws Exception { } }"));
+        assertNotEquals(signature(plain), signature("class A { public void run(@Nullable int a) { } }"));
+    }
+
+    @Test
+    public void bodyIsNotPartOfTheSignature() {
+        String source = "class A { void run() { a(); } }";
+        String changed = "class A { void run() { b(); } }";
+        assertEquals(signature(source), signature(changed));
+        assertNotEquals(body(source), body(changed));
+    }
+
+    @Test
+    public void abstractMethodsHaveASignatureAndNoBody() {
+        String source = "abstract class A { @Override abstract void run(); }";
+        assertEquals(signature("abstract class A { abstract void run(); }"), signature(source));
+        assertEquals(MethodFingerprint.NONE, body(source));
+    }
+
+    @Test
+    public void combineIsOrderIndependent() {
+        long a = 0x1234L;
+        long b = 0x5678L;
+        assertEquals(MethodFingerprint.combine(MethodFingerprint.combine(0, a), b),
+                     MethodFingerprint.combine(MethodFingerprint.combine(0, b), a));
+    }
+}
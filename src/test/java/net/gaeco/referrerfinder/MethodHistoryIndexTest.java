@@ -0,0 +1,186 @@
+package net.gaeco.referrerfinder;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class MethodHistoryIndexTest {
+
+    private static final String ID = "scope";
+    private static final String RUN = "A.java::A.run()";
+    private static final String STOP = "A.java::A.stop()";
+
+    private File directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("method-history-test").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        TestRepository.delete(directory);
+    }
+
+    private static ObjectId commitId(int n) {
+        return ObjectId.fromString(String.format("%040x", n));
+    }
+
+    private static GitFunctionAnalyzer.FunctionChangeResult changes(String[] added, String[] changed) {
+        GitFunctionAnalyzer.FunctionChangeResult result = new GitFunctionAnalyzer.FunctionChangeResult();
+        Arrays.stream(added).forEach(result::addAddedFunction);
+        Arrays.stream(changed).forEach(result::addChangedFunction);
+        return result;
+    }
+
+    private Path logFile() {
+        return directory.toPath().resolve("history-v2").resolve(ID).resolve("log");
+    }
+
+    /**
+     * Appends commit 1 adding both functions, a merge 2 and commit 3 changing run()
+     */
+    private MethodHistoryIndex appendHistory() throws IOException {
+        MethodHistoryIndex history = MethodHistoryIndex.open(directory, ID);
+        history.append(Arrays.asList(commitId(1), commitId(2)), Arrays.asList(100, 200),
+                       Arrays.asList(changes(new String[] { RUN, STOP }, new String[0]), null));
+        history.append(Collections.singletonList(commitId(3)), Collections.singletonList(300),
+                       Collections.singletonList(changes(new String[0], new String[] { RUN })));
+        return history;
+    }
+
+    private static void assertHistory(MethodHistoryIndex history) {
+        assertEquals(3, history.getCommitCount());
+        assertEquals(2, history.getFunctionCount());
+        assertTrue(history.isIndexed(commitId(2)));
+
+        List<MethodHistoryIndex.Change> changes = history.getHistory(RUN);
+        assertEquals(2, changes.size());
+        assertEquals(commitId(1).name(), changes.get(0).getCommitId());
+        assertEquals(CommitRangeResult.ChangeKind.ADDED, changes.get(0).getKind());
+        assertEquals(100, changes.get(0).getCommitTime());
+        assertEquals(commitId(3).name(), history.getLastChange(RUN).getCommitId());
+        assertEquals(CommitRangeResult.ChangeKind.CHANGED, history.getLastChange(RUN).getKind());
+        assertEquals(commitId(1).name(), history.getLastChange(STOP).getCommitId());
+        assertNull(history.getLastChange("A.java::A.other()"));
+    }
+
+    @Test
+    public void appendedCommitsAreReloaded() throws IOException {
+        assertHistory(appendHistory());
+        assertHistory(MethodHistoryIndex.open(directory, ID));
+    }
+
+    @Test
+    public void logFormatIsStable() throws IOException {
+        MethodHistoryIndex history = MethodHistoryIndex.open(directory, ID);
+        history.append(Collections.singletonList(commitId(1)), Collections.singletonList(100),
+                       Collections.singletonList(changes(new String[] { RUN }, new String[0])));
+
+        byte[] log = Files.readAllBytes(logFile());
+        byte[] run = RUN.getBytes("UTF-8");
+        // Magic, raw commit id, commit time, change count, then kind, length and name of the change
+        assertEquals(4 + 20 + 4 + 4 + 1 + 4 + run.length, log.length);
+        assertEquals(0x52, log[0]);
+        assertEquals(0x48, log[3]);
+        assertEquals(1, log[4 + 19]);
+        assertEquals(100, log[4 + 20 + 3]);
+        assertEquals(1, log[4 + 20 + 4 + 3]);
+        assertEquals(CommitRangeResult.ChangeKind.ADDED.ordinal(), log[4 + 20 + 4 + 4]);
+        assertEquals(run.length, log[4 + 20 + 4 + 4 + 1 + 3]);
+    }
+
+    @Test
+    public void commitsAreRecordedOnce() throws IOException {
+        MethodHistoryIndex history = appendHistory();
+        long length = Files.size(logFile());
+        history.append(Arrays.asList(commitId(3), commitId(3)), Arrays.asList(300, 300),
+                       Arrays.asList(changes(new String[0], new String[] { RUN }), null));
+
+        assertEquals(length, Files.size(logFile()));
+        assertHistory(history);
+    }
+
+    @Test
+    public void incompleteBlockIsTruncated() throws IOException {
+        appendHistory();
+        long length = Files.size(logFile());
+        // A block cut short after its commit id and part of its commit time
+        byte[] torn = new byte[22];
+        Arrays.fill(torn, (byte) 7);
+        Files.write(logFile(), torn, StandardOpenOption.APPEND);
+
+        MethodHistoryIndex history = MethodHistoryIndex.open(directory, ID);
+        assertHistory(history);
+        assertEquals(length, Files.size(logFile()));
+
+        // Appends continue after the last whole block
+        history.append(Collections.singletonList(commitId(4)), Collections.singletonList(400),
+                       Collections.singletonList(changes(new String[0], new String[] { STOP })));
+        MethodHistoryIndex reopened = MethodHistoryIndex.open(directory, ID);
+        assertEquals(4, reopened.getCommitCount());
+        assertEquals(commitId(4).name(), reopened.getLastChange(STOP).getCommitId());
+    }
+
+    @Test
+    public void failedAppendLeavesIndexUnchanged() throws IOException {
+        MethodHistoryIndex history = appendHistory();
+        // A directory in place of the log cannot be written, whatever the permissions
+        Files.delete(logFile());
+        Files.createDirectory(logFile());
+        try {
+            history.append(Collections.singletonList(commitId(4)), Collections.singletonList(400),
+                           Collections.singletonList(changes(new String[0], new String[] { STOP })));
+            fail("Appended to a log that cannot be written");
+        } catch (IOException e) {
+            assertFalse(history.isIndexed(commitId(4)));
+            assertHistory(history);
+        }
+    }
+
+    @Test
+    public void unreadableLogIsDiscarded() throws IOException {
+        appendHistory();
+        Files.write(logFile(), new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 });
+
+        MethodHistoryIndex history = MethodHistoryIndex.open(directory, ID);
+        assertEquals(0, history.getCommitCount());
+        assertFalse(Files.exists(logFile()));
+    }
+
+    @Test
+    public void tipsAreReloaded() throws IOException {
+        MethodHistoryIndex history = appendHistory();
+        history.setTips(Arrays.asList(commitId(3), commitId(5)));
+
+        assertEquals(new HashSet<>(Arrays.asList(commitId(3), commitId(5))),
+                     MethodHistoryIndex.open(directory, ID).getTips());
+    }
+
+    @Test
+    public void olderVersionsAreDeleted() throws IOException {
+        Path old = directory.toPath().resolve("history-v1").resolve(ID);
+        Files.createDirectories(old);
+        Files.write(old.resolve("log"), new byte[] { 1 });
+
+        MethodHistoryIndex.open(directory, ID);
+        assertFalse(Files.exists(directory.toPath().resolve("history-v1")));
+    }
+}
@@ -0,0 +1,164 @@
+package net.gaeco.referrerfinder;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class MethodIndexStoreTest {
+
+    private File directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("method-index-store").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        TestRepository.delete(directory);
+    }
+
+    private static ObjectId blobId(int n) {
+        return ObjectId.fromString(String.format("%040x", n + 1));
+    }
+
+    private static MethodIndex index(String... keys) {
+        MethodIndex index = new MethodIndex();
+        for (int i = 0; i < keys.length; i++) {
+            index.put(keys[i], 31L * i + 1, -7L * i);
+        }
+        return index;
+    }
+
+    private static void assertSameIndex(MethodIndex expected, MethodIndex actual) {
+        assertNotNull(actual);
+        assertEquals(expected.keys(), actual.keys());
+        for (String key : expected.keys()) {
+            assertEquals(expected.get(key).getSignatureFingerprint(), actual.get(key).getSignatureFingerprint());
+            assertEquals(expected.get(key).getBodyFingerprint(), actual.get(key).getBodyFingerprint());
+        }
+    }
+
+    @Test
+    public void encodeAndDecodeRoundTrip() throws IOException {
+        StringBuilder longName = new StringBuilder("A.");
+        for (int i = 0; i < 40; i++) {
+            longName.append("veryLong");
+        }
+        MethodIndex index = index("A.<clinit>", "A.A()", "A.run(int)", "A.run(int,String[])", "A.\u00e9t\u00e9(List)",
+                                  longName.append("()").toString(), "B.run(int)");
+        assertSameIndex(index, MethodIndexStore.decode(ByteBuffer.wrap(MethodIndexStore.encode(index))));
+        assertSameIndex(MethodIndex.EMPTY, MethodIndexStore.decode(ByteBuffer.wrap(MethodIndexStore.encode(MethodIndex.EMPTY))));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void decodeRejectsBadMagic() {
+        MethodIndexStore.decode(ByteBuffer.wrap(new byte[] { 1, 2, 3, 4, 0 }));
+    }
+
+    @Test
+    public void storedIndexesSurviveReopening() {
+        MethodIndexStore store = new MethodIndexStore(directory);
+        MethodIndex index = index("A.run()", "A.stop(int)");
+        assertNull(store.load(blobId(1)));
+        store.store(blobId(1), index);
+        store.store(blobId(2), MethodIndex.EMPTY);
+        assertSameIndex(index, store.load(blobId(1)));
+        store.close();
+
+        MethodIndexStore reopened = new MethodIndexStore(directory);
+        assertSameIndex(index, reopened.load(blobId(1)));
+        assertSameIndex(MethodIndex.EMPTY, reopened.load(blobId(2)));
+        assertNull(reopened.load(blobId(3)));
+        reopened.close();
+    }
+
+    @Test
+    public void incompleteEntryIsDroppedOnLoad() throws IOException {
+        MethodIndexStore store = new MethodIndexStore(directory);
+        store.store(blobId(1), index("A.run()"));
+        store.store(blobId(2), index("B.run()"));
+        store.close();
+
+        // Cut the last entry short, as a crash during the append would
+        Path pack = directory.toPath().resolve("index-v5").resolve("current");
+        long length = Files.size(pack);
+        try (FileChannel channel = FileChannel.open(pack, StandardOpenOption.WRITE)) {
+            channel.truncate(length - 3);
+        }
+
+        MethodIndexStore reopened = new MethodIndexStore(directory);
+        assertSameIndex(index("A.run()"), reopened.load(blobId(1)));
+        assertNull(reopened.load(blobId(2)));
+        // Appends continue after the last whole entry
+        reopened.store(blobId(3), index("C.run()"));
+        reopened.close();
+
+        MethodIndexStore again = new MethodIndexStore(directory);
+        assertSameIndex(index("A.run()"), again.load(blobId(1)));
+        assertSameIndex(index("C.run()"), again.load(blobId(3)));
+        again.close();
+    }
+
+    @Test
+    public void unreadablePackIsDiscarded() throws IOException {
+        Path pack = directory.toPath().resolve("index-v5").resolve("current");
+        Files.createDirectories(pack.getParent());
+        Files.write(pack, new byte[] { 'j', 'u', 'n', 'k', 0, 0 });
+
+        MethodIndexStore store = new MethodIndexStore(directory);
+        assertNull(store.load(blobId(1)));
+        store.store(blobId(1), index("A.run()"));
+        store.close();
+        assertSameIndex(index("A.run()"), new MethodIndexStore(directory).load(blobId(1)));
+    }
+
+    @Test
+    public void sizeIsCappedAndRecentlyUsedIndexesKept() throws IOException {
+        // Room for a few entries per pack
+        MethodIndexStore store = new MethodIndexStore(directory, 2 * 200);
+        store.store(blobId(0), index("Used.run()"));
+        for (int i = 1; i <= 40; i++) {
+            assertNotNull(store.load(blobId(0)));
+            store.store(blobId(i), index("Type" + i + ".run()"));
+        }
+        store.close();
+
+        Path packs = directory.toPath().resolve("index-v5");
+        long total = Files.size(packs.resolve("current")) + Files.size(packs.resolve("previous"));
+        assertTrue("store size " + total, total < 2 * 200 + 100);
+
+        MethodIndexStore reopened = new MethodIndexStore(directory, 2 * 200);
+        assertSameIndex(index("Used.run()"), reopened.load(blobId(0)));
+        assertNull(reopened.load(blobId(1)));
+        assertSameIndex(index("Type40.run()"), reopened.load(blobId(40)));
+        reopened.close();
+    }
+
+    @Test
+    public void olderFormatVersionsAreDeleted() throws IOException {
+        Path old = directory.toPath().resolve("index-v3").resolve("ab");
+        Files.createDirectories(old);
+        Files.write(old.resolve("cdef"), new byte[] { 1, 2, 3 });
+
+        MethodIndexStore store = new MethodIndexStore(directory);
+        assertNull(store.load(blobId(1)));
+        store.close();
+        assertFalse(Files.exists(directory.toPath().resolve("index-v3")));
+    }
+}
@@ -0,0 +1,64 @@
+package net.gaeco.referrerfinder;
+
+import com.github.javaparser.JavaParser;
+import com.github.javaparser.ast.CompilationUnit;
+import com.github.javaparser.ast.body.MethodDeclaration;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class MethodIndexTest {
+
+    private static List<String> keysOf(String source) {
+        CompilationUnit cu = new JavaParser().parse(source).getResult().get();
+        List<String> keys = new ArrayList<>();
+        for (MethodDeclaration method : cu.findAll(MethodDeclaration.class)) {
+            keys.add(MethodIndex.keyOf("A", method));
+        }
+        return keys;
+    }
+
+    private static String keyOf(String source) {
+        return keysOf(source).get(0);
+    }
+
+    @Test
+    public void overloadsGetTheirOwnKeys() {
+        List<String> keys = keysOf("class A { void run() { } void run(int a) { } void run(int a, String b) { } }");
+        assertEquals("A.run()", keys.get(0));
+        assertEquals("A.run(int)", keys.get(1));
+        assertEquals("A.run(int,String)", keys.get(2));
+    }
+
+    @Test
+    public void typeArgumentsAndQualifiersAreErased() {
+        assertEquals("A.run(List,Map)", keyOf("class A { void run(List<String> a, java.util.Map<String, ?> b) { } }"));
+        assertEquals("A.run(Entry)", keyOf("class A { void run(Map.Entry<String, Integer> a) { } }"));
+    }
+
+    @Test
+    public void arraysAndVarargsBecomeArrays() {
+        assertEquals("A.run(int[],String[][])", keyOf("class A { void run(int[] a, String b[][]) { } }"));
+        assertEquals("A.run(String[])", keyOf("class A { void run(String... a) { } }"));
+        assertEquals("A.run(String[])", keyOf("class A { void run(String[] a) { } }"));
+        assertEquals("A.run(List[][])", keyOf("class A { void run(List<String>[]... a) { } }"));
+    }
+
+    @Test
+    public void typeVariablesBecomeTheirFirstBound() {
+        assertEquals("A.run(Object)", keyOf("class A { <T> void run(T a) { } }"));
+        assertEquals("A.run(Number[])", keyOf("class A { <T extends Number & Comparable<T>> void run(T[] a) { } }"));
+        assertEquals("A.run(Comparable)", keyOf("class A<T extends Comparable<T>> { void run(T a) { } }"));
+        // The method's own type variable shadows the class's
+        assertEquals("A.run(Number)", keyOf("class A<T> { <T extends Number> void run(T a) { } }"));
+    }
+
+    @Test
+    public void parameterNamesAndModifiersDoNotChangeTheKey() {
+        assertEquals(keyOf("class A { void run(int a, List<String> b) { } }"),
+                     keyOf("class A { void run(final int x, @Nullable java.util.List<Integer> y) { } }"));
+    }
+}
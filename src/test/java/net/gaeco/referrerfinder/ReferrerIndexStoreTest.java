@@ -0,0 +1,135 @@
+package net.gaeco.referrerfinder;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class ReferrerIndexStoreTest {
+
+    private static final String SCOPE = "scope";
+
+    private File directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("referrer-index-store").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        TestRepository.delete(directory);
+    }
+
+    private static ObjectId commitId(int n) {
+        return ObjectId.fromString(String.format("%040x", n + 1));
+    }
+
+    private static ReferrerIndex graph() {
+        ReferrerIndex.FileReferences a = new ReferrerIndex.FileReferences("A.java");
+        a.addMethod("A", "A.run()", "run");
+        a.addMethod("A", "A.helper(int)", "helper");
+        a.addCallSite("A", "A.run()", "helper", true);
+        ReferrerIndex.FileReferences b = new ReferrerIndex.FileReferences("B.java");
+        b.addMethod("B", "B.start()", "start");
+        b.addCallSite("B", "B.start()", "run", false);
+
+        ReferrerIndex index = new ReferrerIndex();
+        index.putFile(a);
+        index.putFile(b);
+        return index;
+    }
+
+    private Path fileOf(ObjectId commitId) {
+        return directory.toPath().resolve("referrers-v4").resolve(commitId.name() + "-" + SCOPE);
+    }
+
+    private void setLastUsed(ObjectId commitId, long millis) throws IOException {
+        Files.setLastModifiedTime(fileOf(commitId), FileTime.fromMillis(millis));
+    }
+
+    @Test
+    public void storedGraphRoundTrips() {
+        ReferrerIndexStore store = new ReferrerIndexStore(directory);
+        assertNull(store.load(commitId(1), SCOPE));
+        store.store(commitId(1), SCOPE, graph());
+
+        ReferrerIndex loaded = store.load(commitId(1), SCOPE);
+        assertNotNull(loaded);
+        assertEquals(2, loaded.getFileCount());
+        assertEquals(3, loaded.getMethodCount());
+        assertEquals(Collections.singleton("A.java::A.run()"), loaded.getReferrers("A.java::A.helper(int)"));
+        assertEquals(Collections.singleton("B.java::B.start()"), loaded.getReferrers("A.java::A.run()"));
+        // Graphs are stored per scope
+        assertNull(store.load(commitId(1), "other"));
+    }
+
+    @Test
+    public void leastRecentlyUsedGraphsAreEvicted() throws IOException {
+        ReferrerIndexStore store = new ReferrerIndexStore(directory, 2);
+        long now = System.currentTimeMillis();
+        store.store(commitId(1), SCOPE, graph());
+        setLastUsed(commitId(1), now - 3000_000);
+        store.store(commitId(2), SCOPE, graph());
+        setLastUsed(commitId(2), now - 2000_000);
+
+        // Loading a graph marks it as used
+        assertNotNull(store.load(commitId(1), SCOPE));
+        store.store(commitId(3), SCOPE, graph());
+
+        assertNotNull(store.load(commitId(1), SCOPE));
+        assertNull(store.load(commitId(2), SCOPE));
+        assertNotNull(store.load(commitId(3), SCOPE));
+    }
+
+    @Test
+    public void derivedGraphIsStoredAsChangesToItsBase() throws IOException {
+        ReferrerIndexStore store = new ReferrerIndexStore(directory);
+        store.store(commitId(1), SCOPE, graph());
+
+        ReferrerIndex derived = graph();
+        derived.removeFile("B.java");
+        ReferrerIndex.FileReferences c = new ReferrerIndex.FileReferences("C.java");
+        c.addMethod("C", "C.go()", "go");
+        c.addCallSite("C", "C.go()", "run", false);
+        derived.putFile(c);
+        store.storeDerived(commitId(2), SCOPE, derived, commitId(1), Collections.singletonList("B.java"),
+                           Collections.singletonList(c));
+
+        ReferrerIndex loaded = store.load(commitId(2), SCOPE);
+        assertNotNull(loaded);
+        assertEquals(2, loaded.getFileCount());
+        assertEquals(Collections.singleton("C.java::C.go()"), loaded.getReferrers("A.java::A.run()"));
+
+        // Without its base, the changes alone are not a graph
+        Files.delete(fileOf(commitId(1)));
+        assertNull(store.load(commitId(2), SCOPE));
+    }
+
+    @Test
+    public void longChainsOfDerivedGraphsAreStoredInFull() throws IOException {
+        ReferrerIndexStore store = new ReferrerIndexStore(directory, 32);
+        store.store(commitId(1), SCOPE, graph());
+        for (int n = 2; n <= 10; n++) {
+            store.storeDerived(commitId(n), SCOPE, graph(), commitId(n - 1), Collections.<String>emptyList(),
+                               Collections.<ReferrerIndex.FileReferences>emptyList());
+        }
+
+        Files.delete(fileOf(commitId(1)));
+        assertNull(store.load(commitId(9), SCOPE));
+        ReferrerIndex loaded = store.load(commitId(10), SCOPE);
+        assertNotNull(loaded);
+        assertEquals(2, loaded.getFileCount());
+    }
+}
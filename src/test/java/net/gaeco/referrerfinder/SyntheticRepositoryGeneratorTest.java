@@ -0,0 +1,96 @@
+package net.gaeco.referrerfinder;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SyntheticRepositoryGeneratorTest {
+
+    private File directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("synthetic-repository").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        TestRepository.delete(directory);
+    }
+
+    private static SyntheticRepositoryGenerator generator(long seed) {
+        SyntheticRepositoryGenerator generator = new SyntheticRepositoryGenerator();
+        generator.setPackages(2);
+        generator.setClassesPerPackage(3);
+        generator.setMethodsPerClass(4);
+        generator.setOverloadsPerMethod(2);
+        generator.setNestedClassesPerClass(1);
+        generator.setCommits(2);
+        generator.setChurn(0.5, 0.5);
+        generator.setSeed(seed);
+        return generator;
+    }
+
+    @Test
+    public void sameSeedGivesSameCommits() throws IOException {
+        List<ObjectId> first = generator(7).generate(new File(directory, "first"));
+        List<ObjectId> second = generator(7).generate(new File(directory, "second"));
+        List<ObjectId> reseeded = generator(8).generate(new File(directory, "reseeded"));
+
+        assertEquals(3, first.size());
+        assertEquals(first, second);
+        // Only the commits after the initial one depend on the seed
+        assertEquals(first.get(0), reseeded.get(0));
+        assertNotEquals(first.get(2), reseeded.get(2));
+    }
+
+    @Test
+    public void generatesExpectedShape() throws IOException {
+        SyntheticRepositoryGenerator generator = generator(7);
+        File repositoryDirectory = new File(directory, "repository");
+        List<ObjectId> commits = generator.generate(repositoryDirectory);
+        assertEquals(6, generator.getClassCount());
+        // Four names with two overloads each, and two methods in the nested class
+        assertEquals(10, generator.getMethodSlotCount());
+
+        GitFunctionAnalyzer analyzer = new GitFunctionAnalyzer(repositoryDirectory.getPath());
+        try (ObjectReader reader = analyzer.getRepository().newObjectReader();
+             RevWalk revWalk = new RevWalk(reader);
+             TreeWalk treeWalk = new TreeWalk(reader)) {
+            treeWalk.addTree(revWalk.parseCommit(commits.get(0)).getTree());
+            treeWalk.setRecursive(true);
+            int files = 0;
+            while (treeWalk.next()) {
+                assertTrue(treeWalk.getPathString(),
+                           treeWalk.getPathString().startsWith("src/main/java/com/example/myapp/module"));
+                String source = new String(reader.open(treeWalk.getObjectId(0)).getBytes(), StandardCharsets.UTF_8);
+                assertEquals(10, analyzer.parseFunctions(source).keys().size());
+                files++;
+            }
+            assertEquals(6, files);
+
+            // Each later commit changes half of the methods in half of the classes
+            GitFunctionAnalyzer.FunctionChangeResult result =
+                analyzer.analyzeFunctionChanges(commits.get(0).name(), commits.get(1).name());
+            assertEquals(3 * 5, result.getChangedCount());
+            assertEquals(0, result.getAddedCount());
+            assertEquals(0, result.getDeletedCount());
+        } finally {
+            analyzer.close();
+        }
+    }
+}
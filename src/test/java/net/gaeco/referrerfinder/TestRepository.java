@@ -0,0 +1,109 @@
+package net.gaeco.referrerfinder;
+
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheBuilder;
+import org.eclipse.jgit.dircache.DirCacheEntry;
+import org.eclipse.jgit.lib.CommitBuilder;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A throwaway repository in a temporary directory whose commits are built from whole snapshots of
+ * their files, with explicit parents, so tests can lay out any history including merges
+ */
+class TestRepository implements AutoCloseable {
+
+    private final File directory;
+    private final Repository repository;
+    private int time = 1_600_000_000;
+
+    TestRepository() throws IOException {
+        directory = Files.createTempDirectory("referrer-finder-test").toFile();
+        repository = FileRepositoryBuilder.create(new File(directory, Constants.DOT_GIT));
+        repository.create();
+    }
+
+    /** The working directory, for opening the repository by path */
+    File getDirectory() {
+        return directory;
+    }
+
+    Repository getRepository() {
+        return repository;
+    }
+
+    /**
+     * Commits the given files, path to content, as the whole tree, and points HEAD's branch at the commit
+     */
+    ObjectId commit(Map<String, String> files, ObjectId... parents) throws IOException {
+        try (ObjectInserter inserter = repository.newObjectInserter()) {
+            DirCache index = DirCache.newInCore();
+            DirCacheBuilder builder = index.builder();
+            for (Map.Entry<String, String> file : new TreeMap<>(files).entrySet()) {
+                DirCacheEntry entry = new DirCacheEntry(file.getKey());
+                entry.setFileMode(FileMode.REGULAR_FILE);
+                entry.setObjectId(inserter.insert(Constants.OBJ_BLOB, file.getValue().getBytes(StandardCharsets.UTF_8)));
+                builder.add(entry);
+            }
+            builder.finish();
+
+            CommitBuilder commit = new CommitBuilder();
+            commit.setTreeId(index.writeTree(inserter));
+            commit.setParentIds(Arrays.asList(parents));
+            PersonIdent ident = new PersonIdent("Test", "test@example.com", (time += 60) * 1000L, 0);
+            commit.setAuthor(ident);
+            commit.setCommitter(ident);
+            commit.setMessage("commit " + time);
+            ObjectId commitId = inserter.insert(commit);
+            inserter.flush();
+
+            RefUpdate update = repository.updateRef(Constants.HEAD);
+            update.setNewObjectId(commitId);
+            update.setForceUpdate(true);
+            update.update();
+            return commitId;
+        }
+    }
+
+    /**
+     * Builds a file map from alternating paths and contents
+     */
+    static Map<String, String> files(String... pathsAndContents) {
+        Map<String, String> files = new LinkedHashMap<>();
+        for (int i = 0; i < pathsAndContents.length; i += 2) {
+            files.put(pathsAndContents[i], pathsAndContents[i + 1]);
+        }
+        return files;
+    }
+
+    @Override
+    public void close() {
+        repository.close();
+        delete(directory);
+    }
+
+    static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}